@@ -15,3 +15,6 @@
 #-keepclassmembers class fqcn.of.javascript.interface.for.webview {
 #   public *;
 #}
+
+# generated event bus subscriber tables are looked up by name
+-keep class **_EventSubscribers { *; }
@@ -0,0 +1,114 @@
+package com.example.radioplayer.engine;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Plays the test stream server's tone on each real engine in turn, logging time to audio,
+ * rebuffers & cpu side by side. The stream stalls for longer than its opening burst part way
+ * in, so each engine has an underrun to recover from.
+ *
+ * Cpu is the whole device's where /proc/stat can be read, MediaPlayer decodes in the media
+ * server rather than the app, otherwise only the app's. Run on a quiet device.
+ */
+public class PlaybackEngineBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = "EngineBenchmark";
+    private static final long STREAM_MS = 60 * 1000;
+    private static final long BURST_MS = 2000;
+    private static final long STALL_AT_MS = 10 * 1000;
+    private static final long STALL_MS = 4000;
+    private static final long RUN_MS = 30 * 1000;
+    private static final long POLL_MS = 100;
+
+    private TestStreamServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new TestStreamServer(STREAM_MS, BURST_MS, STALL_AT_MS, STALL_MS);
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.stop();
+        super.tearDown();
+    }
+
+    public void testEngines() throws Exception {
+        PlaybackEngine[] engines = {new MediaPlayerEngine(getContext()), new BufferedEngine()};
+        EngineBenchmark.Result[] results = new EngineBenchmark.Result[engines.length];
+        for (int i = 0; i < engines.length; i++) {
+            try {
+                results[i] = run(engines[i]);
+            } finally {
+                engines[i].release();
+            }
+            Log.i(TAG, results[i].toString());
+        }
+        for (EngineBenchmark.Result result : results) {
+            assertEquals(result.engine + " failed", 0, result.error);
+            assertTrue(result.engine + " never played", result.timeToAudioMs >= 0);
+        }
+    }
+
+    private EngineBenchmark.Result run(PlaybackEngine engine) throws Exception {
+        EngineBenchmark benchmark = new EngineBenchmark(engine, new EngineBenchmark.Clock() {
+            @Override
+            public long now() {
+                return SystemClock.elapsedRealtime();
+            }
+        }, createCpuMeter());
+        benchmark.begin(mServer.getUrl());
+        long deadline = SystemClock.elapsedRealtime() + RUN_MS;
+        while (SystemClock.elapsedRealtime() < deadline && !benchmark.isEnded()) {
+            Thread.sleep(POLL_MS);
+        }
+        return benchmark.end();
+    }
+
+    private static EngineBenchmark.CpuMeter createCpuMeter() {
+        if(readBusyJiffies() >= 0) {
+            return new EngineBenchmark.CpuMeter() {
+                @Override
+                public long cpuTime() {
+                    return readBusyJiffies() * 10; // USER_HZ is 100
+                }
+            };
+        }
+        Log.i(TAG, "Device cpu unreadable, measuring the app's only");
+        return new EngineBenchmark.CpuMeter() {
+            @Override
+            public long cpuTime() {
+                return Process.getElapsedCpuTime();
+            }
+        };
+    }
+
+    // the cpu line of /proc/stat less idle & iowait, -1 where it can't be read
+    private static long readBusyJiffies() {
+        try {
+            RandomAccessFile stat = new RandomAccessFile("/proc/stat", "r");
+            try {
+                String[] fields = stat.readLine().trim().split("\\s+");
+                long busy = 0;
+                for (int i = 1; i < fields.length && i <= 7; i++) {
+                    if(i != 4 && i != 5)
+                        busy += Long.parseLong(fields[i]);
+                }
+                return busy;
+            } finally {
+                stat.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.example.radioplayer.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Local stand-in for a station: serves a generated tone as 16 bit mono wav, the opening burst
+ * at once as stream servers do and the rest at real time, with an optional stall part way in.
+ * Every request gets the stream from the start.
+ */
+class TestStreamServer {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BYTES_PER_MS = SAMPLE_RATE * 2 / 1000;
+    private static final int CHUNK_MS = 100;
+    private static final double TONE_HZ = 440;
+
+    private final long mDurationMs;
+    private final long mBurstMs;
+    private final long mStallAtMs;
+    private final long mStallMs;
+    private final byte[] mChunk = createChunk();
+    private ServerSocket mServer;
+
+    // no stall where stallMs is 0
+    TestStreamServer(long durationMs, long burstMs, long stallAtMs, long stallMs) {
+        mDurationMs = durationMs;
+        mBurstMs = burstMs;
+        mStallAtMs = stallAtMs;
+        mStallMs = stallMs;
+    }
+
+    void start() throws IOException {
+        mServer = new ServerSocket(0, 4, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServer.isClosed()) {
+                    try {
+                        final Socket socket = mServer.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }, "TestStreamServer-client").start();
+                    } catch (IOException e) {
+                        return; // closed
+                    }
+                }
+            }
+        }, "TestStreamServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() throws IOException {
+        mServer.close();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + mServer.getLocalPort() + "/tone.wav";
+    }
+
+    private void serve(Socket socket) {
+        try {
+            readRequest(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            int dataBytes = (int) (mDurationMs * BYTES_PER_MS);
+            out.write(String.format(Locale.US, "HTTP/1.1 200 OK\r\nContent-Type: audio/wav\r\n"
+                    + "Content-Length: %d\r\nConnection: close\r\n\r\n", 44 + dataBytes).getBytes(ASCII));
+            out.write(createHeader(dataBytes));
+
+            long startedAt = System.currentTimeMillis();
+            boolean isStalled = false;
+            for (long sent = 0; sent < mDurationMs; sent += CHUNK_MS) {
+                if(!isStalled && mStallMs > 0 && sent >= mStallAtMs) {
+                    isStalled = true;
+                    Thread.sleep(mStallMs);
+                    startedAt += mStallMs;
+                }
+                // past the burst, keep to real time
+                long ahead = sent - mBurstMs - (System.currentTimeMillis() - startedAt);
+                if(ahead > 0)
+                    Thread.sleep(ahead);
+                out.write(mChunk, 0, (int) Math.min(mChunk.length, (mDurationMs - sent) * BYTES_PER_MS));
+            }
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            // the player hung up
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closed already
+            }
+        }
+    }
+
+    private static void readRequest(InputStream in) throws IOException {
+        int matched = 0;
+        byte[] end = "\r\n\r\n".getBytes(ASCII);
+        int b;
+        while (matched < end.length && (b = in.read()) >= 0) {
+            matched = b == end[matched] ? matched + 1 : (b == end[0] ? 1 : 0);
+        }
+    }
+
+    // a whole number of cycles, so chunks join up without a click
+    private static byte[] createChunk() {
+        int samples = SAMPLE_RATE * CHUNK_MS / 1000;
+        byte[] chunk = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (Short.MAX_VALUE / 4 * Math.sin(2 * Math.PI * TONE_HZ * i / SAMPLE_RATE));
+            chunk[2 * i] = (byte) sample;
+            chunk[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return chunk;
+    }
+
+    private static byte[] createHeader(int dataBytes) {
+        byte[] header = new byte[44];
+        putAscii(header, 0, "RIFF");
+        putInt(header, 4, 36 + dataBytes);
+        putAscii(header, 8, "WAVE");
+        putAscii(header, 12, "fmt ");
+        putInt(header, 16, 16); // pcm format chunk
+        putShort(header, 20, 1); // pcm
+        putShort(header, 22, 1); // mono
+        putInt(header, 24, SAMPLE_RATE);
+        putInt(header, 28, SAMPLE_RATE * 2); // byte rate
+        putShort(header, 32, 2); // block align
+        putShort(header, 34, 16); // bits per sample
+        putAscii(header, 36, "data");
+        putInt(header, 40, dataBytes);
+        return header;
+    }
+
+    private static void putAscii(byte[] dst, int offset, String value) {
+        byte[] bytes = value.getBytes(ASCII);
+        System.arraycopy(bytes, 0, dst, offset, bytes.length);
+    }
+
+    private static void putInt(byte[] dst, int offset, int value) {
+        putShort(dst, offset, value);
+        putShort(dst, offset + 2, value >> 16);
+    }
+
+    private static void putShort(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >> 8);
+    }
+
+}
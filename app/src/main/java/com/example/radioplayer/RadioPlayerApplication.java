@@ -3,18 +3,30 @@ package com.example.radioplayer;
 import android.app.Application;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Message;
 
+import com.example.radioplayer.bus.EventBus;
+import com.example.radioplayer.bus.FrameEventBatcher;
+import com.example.radioplayer.bus.ThreadMode;
 import com.example.radioplayer.event.BaseEvent;
+import com.example.radioplayer.event.QueuePositionEvent;
+import com.example.radioplayer.service.PlaybackController;
+import com.example.radioplayer.service.PlaybackMetrics;
+import com.example.radioplayer.util.DebugDumperPlugin;
+import com.example.radioplayer.util.ViewPreloader;
+import com.facebook.stetho.DumperPluginsProvider;
 import com.facebook.stetho.Stetho;
+import com.facebook.stetho.dumpapp.DumperPlugin;
 import com.facebook.stetho.timber.StethoTree;
-import com.squareup.otto.Bus;
+
+import java.io.PrintStream;
 
 import timber.log.Timber;
 
 public class RadioPlayerApplication extends Application{
 
     private static RadioPlayerApplication sInstance;
-    private static Bus sBus;
+    private static EventBus sBus;
 
     public static RadioPlayerApplication getInstance() {
         if(sInstance == null) {
@@ -30,7 +42,14 @@ public class RadioPlayerApplication extends Application{
 
         // initialize Stetho
         Stetho.initialize(Stetho.newInitializerBuilder(this)
-                .enableDumpapp(Stetho.defaultDumperPluginsProvider(this)) // enable cli
+                .enableDumpapp(new DumperPluginsProvider() { // enable cli, adding the app's metrics
+                    @Override
+                    public Iterable<DumperPlugin> get() {
+                        return new Stetho.DefaultDumperPluginsBuilder(RadioPlayerApplication.this)
+                                .provide(new DebugDumperPlugin())
+                                .finish();
+                    }
+                })
                 .enableWebKitInspector(Stetho.defaultInspectorModulesProvider(this)) // enable chrome dev tools
                 .build());
 
@@ -47,12 +66,42 @@ public class RadioPlayerApplication extends Application{
             Timber.plant(new StethoTree());
         }
 
+        // batch background events into one main thread drain per frame, skipping stale queue positions
+        // the service posts from the main thread
+        ApplicationBus bus = (ApplicationBus) getBus();
+        bus.setFrameAligned(true);
+        bus.coalesceLatest(QueuePositionEvent.class);
+
+        // time spent in subscribers per thread mode, ./dumpapp radioplayer bus
+        DebugDumperPlugin.addSection("bus", new DebugDumperPlugin.Section() {
+            @Override
+            public void dump(PrintStream out) {
+                for (ThreadMode mode : ThreadMode.values()) {
+                    out.println(getBus().getMetrics(mode));
+                }
+            }
+        });
+
+        // time to audio for cold & warm starts, ./dumpapp radioplayer playback
+        DebugDumperPlugin.addSection("playback", new DebugDumperPlugin.Section() {
+            @Override
+            public void dump(PrintStream out) {
+                PlaybackMetrics.getInstance().dump(out);
+            }
+        });
+
+        // pre-inflate station rows while the main thread is idle
+        ViewPreloader.getInstance().init(this);
+
+        // bind the playback service up front so a station tap plays without waiting on it
+        PlaybackController.getInstance().init(this);
+
         // FIXME RadioPlayerActivity causes a memory leak
         // detect memory leaks
         // LeakCanary.install(this);
     }
 
-    public Bus getBus() {
+    public EventBus getBus() {
         return sBus;
     }
 
@@ -61,22 +110,93 @@ public class RadioPlayerApplication extends Application{
         getInstance().getBus().post(event);
     }
 
+    // post an event which is retained and replayed to subscribers registering later
+    public static void postStickyToBus(BaseEvent event) {
+        getInstance().getBus().postSticky(event);
+    }
+
 
     // enable posting of events from either the main or background threads
-    public static class ApplicationBus extends Bus {
-        private final Handler mainThread = new Handler(Looper.getMainLooper());
+    public static class ApplicationBus extends EventBus implements Handler.Callback {
+        private static final int MSG_POST_EVENT = 1;
+        private static final int MSG_POST_STICKY_EVENT = 2;
+        private final Handler mainThread = new Handler(Looper.getMainLooper(), this);
+        private final FrameEventBatcher mFrameBatcher = new FrameEventBatcher(this);
+        private volatile boolean mIsFrameAligned;
+
+        // deliver background posts once per frame instead of one message per event
+        public void setFrameAligned(boolean frameAligned) {
+            mIsFrameAligned = frameAligned;
+        }
+
+        // when frame aligned, only the latest post of this type from any thread is delivered each frame
+        public void coalesceLatest(Class<? extends BaseEvent> eventType) {
+            mFrameBatcher.coalesceLatest(eventType);
+        }
 
         @Override
-        public void post(final Object event) {
+        public void register(Object target) {
+            enforceMainThread();
+            super.register(target);
+        }
+
+        @Override
+        public void unregister(Object target) {
+            enforceMainThread();
+            super.unregister(target);
+        }
+
+        @Override
+        public void post(Object event) {
             if (Looper.myLooper() == Looper.getMainLooper()) {
-                super.post(event);
-            } else {
-                mainThread.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        post(event);
+                if (mIsFrameAligned && !mFrameBatcher.isDraining()
+                        && mFrameBatcher.isLatestValue(event.getClass())) {
+                    // a burst of skips on the main thread updates the player once a frame
+                    mFrameBatcher.enqueue(event);
+                } else {
+                    if (mIsFrameAligned) {
+                        // whatever was batched earlier goes out first, keeping the posting order
+                        mFrameBatcher.flush();
                     }
-                });
+                    super.post(event);
+                }
+            } else if (mIsFrameAligned) {
+                mFrameBatcher.enqueue(event);
+            } else {
+                // messages are pooled, no Runnable is allocated per background post
+                mainThread.sendMessage(mainThread.obtainMessage(MSG_POST_EVENT, event));
+            }
+        }
+
+        @Override
+        public void postSticky(Object event) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                if (mIsFrameAligned) {
+                    mFrameBatcher.flush();
+                }
+                super.postSticky(event);
+            } else {
+                // never coalesced, sticky events are delivered individually
+                mainThread.sendMessage(mainThread.obtainMessage(MSG_POST_STICKY_EVENT, event));
+            }
+        }
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_POST_EVENT:
+                    super.post(msg.obj);
+                    return true;
+                case MSG_POST_STICKY_EVENT:
+                    super.postSticky(msg.obj);
+                    return true;
+            }
+            return false;
+        }
+
+        private void enforceMainThread() {
+            if (Looper.myLooper() != Looper.getMainLooper()) {
+                throw new IllegalStateException("Event bus accessed from non-main thread " + Looper.myLooper());
             }
         }
     }
@@ -10,8 +10,9 @@ import android.view.MenuItem;
 
 import com.example.radioplayer.R;
 import com.example.radioplayer.RadioPlayerApplication;
+import com.example.radioplayer.bus.EventBus;
 import com.example.radioplayer.event.BaseEvent;
-import com.squareup.otto.Bus;
+import com.example.radioplayer.service.PlaybackController;
 
 public class BaseActivity extends AppCompatActivity{
 
@@ -34,6 +35,9 @@ public class BaseActivity extends AppCompatActivity{
         switch (item.getItemId()) {
             case R.id.action_settings:
                 return true;
+            case R.id.action_resume:
+                PlaybackController.getInstance().resume();
+                return true;
             case android.R.id.home:
                 super.onBackPressed();
                 return true;
@@ -83,7 +87,7 @@ public class BaseActivity extends AppCompatActivity{
         getAppBus().unregister(this);
     }
 
-    protected Bus getAppBus() {
+    protected EventBus getAppBus() {
         return RadioPlayerApplication.getInstance().getBus();
     }
 
@@ -7,6 +7,7 @@ import android.support.v4.app.Fragment;
 import android.view.View;
 
 import com.example.radioplayer.R;
+import com.example.radioplayer.bus.Subscribe;
 import com.example.radioplayer.data.StationDataCache;
 import com.example.radioplayer.event.DataModelUpdateEvent;
 import com.example.radioplayer.event.MessageEvent;
@@ -15,9 +16,9 @@ import com.example.radioplayer.fragment.CategoryDataFragment;
 import com.example.radioplayer.fragment.CategoryFragment;
 import com.example.radioplayer.fragment.StationFragment;
 import com.example.radioplayer.model.Category;
+import com.example.radioplayer.service.PlaybackController;
 import com.example.radioplayer.util.Constants;
 import com.example.radioplayer.util.Utils;
-import com.squareup.otto.Subscribe;
 
 import java.util.List;
 
@@ -143,6 +144,8 @@ public class MainActivity extends BaseActivity {
         // handle clicks to station items
         else if(event.getClickEvent().equals(OnClickEvent.LIST_ITEM_CLICK_EVENT)) {
             int position = event.getPosition();
+            // start buffering now, overlapping the player's transition, its UI attaches when created
+            PlaybackController.getInstance().play(position);
             Intent intent = new Intent(this, RadioPlayerActivity.class);
             intent.putExtra(Constants.KEY_QUEUE_POSITION, position);
             //startActivity(intent);
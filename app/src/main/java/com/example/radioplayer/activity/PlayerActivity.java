@@ -1,12 +1,6 @@
 package com.example.radioplayer.activity;
 
-import android.content.ComponentName;
-import android.content.Intent;
-import android.content.ServiceConnection;
-import android.net.Uri;
 import android.os.Bundle;
-import android.os.IBinder;
-import android.os.RemoteException;
 import android.support.design.widget.CoordinatorLayout;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
@@ -19,23 +13,21 @@ import android.widget.TextView;
 
 import com.example.radioplayer.R;
 import com.example.radioplayer.RadioPlayerApplication;
+import com.example.radioplayer.bus.Subscribe;
+import com.example.radioplayer.data.PlaybackQueue;
 import com.example.radioplayer.data.StationDataCache;
 import com.example.radioplayer.event.PlaybackServiceEvent;
 import com.example.radioplayer.event.QueuePositionEvent;
-import com.example.radioplayer.model.Station;
-import com.example.radioplayer.service.PlaybackService;
+import com.example.radioplayer.service.PlaybackController;
+import com.example.radioplayer.service.PlaybackStateMachine;
 import com.example.radioplayer.util.Utils;
-import com.squareup.otto.Subscribe;
-
-import java.util.List;
 
 import timber.log.Timber;
 
 /**
  * REPLACED WITH RadioPlayer/RadioPlayerFragment COMBO
  */
-public class PlayerActivity extends AppCompatActivity implements
-        View.OnClickListener, ServiceConnection{
+public class PlayerActivity extends AppCompatActivity implements View.OnClickListener {
 
     private static final String BUNDLE_STATE = "state";
     public static final String BUNDLE_QUEUE_POSITION = "queue_position";
@@ -48,7 +40,7 @@ public class PlayerActivity extends AppCompatActivity implements
     private CoordinatorLayout mCoordinatorLayout;
     private MediaControllerCompat mMediaController;
     private boolean mFirstTimeIn = true;
-    private List<Station> mQueue;
+    private PlaybackQueue mQueue;
     private int mQueuePosition;
     private int mState;
 
@@ -76,8 +68,8 @@ public class PlayerActivity extends AppCompatActivity implements
         mNextBtn = (ImageButton) findViewById(R.id.action_next_button);
         mNextBtn.setOnClickListener(this);
 
-        // retrieve the queue from the data cache
-        mQueue = StationDataCache.getStationDataCache().getStationList();
+        // retrieve the latest snapshot of the queue from the data cache
+        mQueue = StationDataCache.getStationDataCache().getQueue();
 
         if(savedInstanceState != null) {
             mFirstTimeIn = false;
@@ -98,7 +90,8 @@ public class PlayerActivity extends AppCompatActivity implements
         }
 
         // TODO set the station  and title
-        mStationTitle.setText(mQueue.get(mQueuePosition).getName());
+        if(mQueuePosition < mQueue.size())
+            mStationTitle.setText(mQueue.getName(mQueuePosition));
 
         // hide prev/next btns to prevent use if starting from the first or last station
         if(mQueuePosition == 0) {
@@ -107,21 +100,16 @@ public class PlayerActivity extends AppCompatActivity implements
         if(mQueuePosition == mQueue.size() - 1) {
             mNextBtn.setVisibility(View.GONE);
         }
-        // FIXME service connection leak
-        // create the intent used to both start & bind to the service
-        Intent intent = new Intent(this, PlaybackService.class);
-        this.getApplicationContext().bindService(intent, this, 0);
-        Timber.i("Binding Playback Service");
-        startService(intent);
+
+        // share the app's media controller, connected at once where the service is already bound
+        PlaybackController.getInstance().addListener(mControllerListener);
     }
 
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // FIXME - the service is not being unbound causing a service connection leak, resulting in the Activity leaking
-        this.getApplicationContext().unbindService(this);
-        Timber.i("Unbinding Playback Service");
+        PlaybackController.getInstance().removeListener(mControllerListener);
     }
 
     @Override
@@ -139,90 +127,61 @@ public class PlayerActivity extends AppCompatActivity implements
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        // FIXME may cause NPE due to null MediaController on device rotation
-        mState = mMediaController.getPlaybackState().getState();
+        mState = PlaybackController.getInstance().getState();
         outState.putInt(BUNDLE_STATE, mState);
         outState.putInt(BUNDLE_QUEUE_POSITION, mQueuePosition);
     }
 
     @Override
     public void onClick(View view) {
+        if(mMediaController == null)
+            return;
         mState = mMediaController.getPlaybackState().getState();
         Timber.i("Current state onClick: %d", mState);
         switch(view.getId()) {
 
             case R.id.action_play_stop_button:
                 // start playback
-                if(mState == PlaybackStateCompat.STATE_NONE || mState == PlaybackStateCompat.STATE_STOPPED) {
+                if(PlaybackStateMachine.canPlay(mState)) {
                     Timber.i("Clicked play");
                     playFromStationUri();
-                // stop playback // FIXME calling stop when buffering causes media player to stop in state 4, error(-38, 0)
-                } else if(mState == PlaybackStateCompat.STATE_BUFFERING
-                        || mState == PlaybackStateCompat.STATE_PLAYING
-                        || mState == PlaybackStateCompat.STATE_CONNECTING){
+                // stop playback, the service resets a stream still buffering
+                } else {
                     mMediaController.getTransportControls().stop();
                     Timber.i("Clicked stop");
                 }
                 break;
 
+            // the service moves straight to the station skipped to, whatever the state
             case R.id.action_prev_button:
-                if(mState == PlaybackStateCompat.STATE_BUFFERING || mState == PlaybackStateCompat.STATE_PLAYING) {
-                    mMediaController.getTransportControls().stop();
-                }
                 mMediaController.getTransportControls().skipToPrevious();
                 mProgressBar.setVisibility(View.VISIBLE);
                 break;
 
             case R.id.action_next_button:
-                if(mState == PlaybackStateCompat.STATE_BUFFERING || mState == PlaybackStateCompat.STATE_PLAYING) {
-                    mMediaController.getTransportControls().stop();
-                }
                 mMediaController.getTransportControls().skipToNext();
                 mProgressBar.setVisibility(View.VISIBLE);
                 break;
         }
     }
 
-    @Override
-    public void onServiceConnected(ComponentName name, IBinder service) {
-        if(service instanceof PlaybackService.ServiceBinder) {
-            try {
-                mMediaController = new MediaControllerCompat(PlayerActivity.this,
-                        ((PlaybackService.ServiceBinder) service).getService().getMediaSessionToken());
+    private PlaybackController.Listener mControllerListener =
+        new PlaybackController.Listener() {
 
-                mMediaController.registerCallback(mMediaControllerCallback);
+            @Override
+            public void onConnected(MediaControllerCompat controller) {
+                mMediaController = controller;
                 mState = mMediaController.getPlaybackState().getState();
                 Timber.i("Launching PlayerActivity, connecting to PlaybackService, current mState: %d", mState);
 
                 if(mFirstTimeIn) { // stop restarting every time the device rotates
-                    // start playback as soon as player activity launches
+                    mFirstTimeIn = false;
+                    // start playback as soon as player activity launches, stopping any other stn
                     Timber.i("First time in");
-                    if(mState == PlaybackStateCompat.STATE_NONE || mState == PlaybackStateCompat.STATE_STOPPED) {
-
-                        playFromStationUri();
-
-                    } else if(mState == PlaybackStateCompat.STATE_BUFFERING || mState == PlaybackStateCompat.STATE_PLAYING){
-
-                        // if already playing, stop and start the new selected stn
-                        mMediaController.getTransportControls().stop();
+                    if(!PlaybackController.getInstance().claimPlay(mQueuePosition))
                         playFromStationUri();
-                    }
                 }
-
-            } catch (RemoteException e) {
-                Timber.e("Error instantiating the media controller: %s", e.getMessage());
             }
-        }
-    }
-
-    @Override
-    public void onServiceDisconnected(ComponentName name) {
-        Timber.i("Unexpectedly disconnected from Playback Service");
-    }
-
-
-    private MediaControllerCompat.Callback mMediaControllerCallback =
-        new MediaControllerCompat.Callback() {
 
             @Override
             public void onPlaybackStateChanged(PlaybackStateCompat state) {
@@ -267,7 +226,9 @@ public class PlayerActivity extends AppCompatActivity implements
     public void getQueuePositionEvent(QueuePositionEvent event) {
         // update queue position and station title
         mQueuePosition = event.getQueuePosition();
-        mStationTitle.setText(mQueue.get(mQueuePosition).getName());
+        mQueue = StationDataCache.getStationDataCache().getQueue();
+        if(mQueuePosition < mQueue.size())
+            mStationTitle.setText(mQueue.getName(mQueuePosition));
         if(mQueuePosition == 0) {
             mPrevBtn.setVisibility(View.GONE);
         } else if(mQueuePosition == mQueue.size() - 1){
@@ -286,39 +247,11 @@ public class PlayerActivity extends AppCompatActivity implements
 
 
     private void playFromStationUri() {
-        Station stn = mQueue.get(mQueuePosition);
-        if(stn != null) {
-
-            String name = stn.getName() != null? stn.getName() : "";
-            String slug = stn.getSlug() != null? stn.getSlug() : "";
-            String country = stn.getCountry() != null? stn.getCountry() : "";
-            String imageUrl = stn.getImage().getUrl() != null? stn.getImage().getUrl() : "";
-            String thumbUrl = stn.getImage().getThumb().getUrl() != null? stn.getImage().getThumb().getUrl() : "";
-            String url = Utils.getStream(stn);
-
-            if(url != null) {
-                Timber.i("Url: %s, station: %s", url, stn.getName());
-                Uri uri = Uri.parse(url);
-                Bundle extras = new Bundle();
-                //extras.putParcelable(PlaybackService.EXTRA_STATION, mStation); // PlaybackService can't unmarshall the station object
-                extras.putParcelable(PlaybackService.EXTRA_STATION_URI, uri);
-                extras.putString(PlaybackService.EXTRA_STATION_NAME, name);
-                extras.putString(PlaybackService.EXTRA_STATION_SLUG, slug);
-                extras.putString(PlaybackService.EXTRA_STATION_COUNTRY, country);
-                extras.putString(PlaybackService.EXTRA_STATION_IMAGE_URL, imageUrl);
-                extras.putString(PlaybackService.EXTRA_STATION_THUMB_URL, thumbUrl);
-                extras.putInt(PlaybackService.EXTRA_STATION_QUEUE_POSITION, mQueuePosition);
-
-                // playFromUri() works on emulators api 16-19, not on api 21+
-                //mMediaController.getTransportControls().playFromUri(uri, extras);
-                mMediaController.getTransportControls().playFromSearch("", extras);
-
-                // show the progress bar while buffering the audio stream
-                mProgressBar.setVisibility(View.VISIBLE);
-
-            } else {
-                displayMessage(PlaybackServiceEvent.ON_NO_STREAM_FOUND);
-            }
+        if(PlaybackController.getInstance().play(mQueuePosition)) {
+            // show the progress bar while buffering the audio stream
+            mProgressBar.setVisibility(View.VISIBLE);
+        } else {
+            displayMessage(PlaybackServiceEvent.ON_NO_STREAM_FOUND);
         }
     }
 
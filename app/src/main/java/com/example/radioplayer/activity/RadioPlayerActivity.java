@@ -9,6 +9,7 @@ import android.support.v7.widget.Toolbar;
 
 import com.example.radioplayer.R;
 import com.example.radioplayer.fragment.RadioPlayerFragment;
+import com.example.radioplayer.service.PlaybackService;
 import com.example.radioplayer.util.Constants;
 
 public class RadioPlayerActivity extends AppCompatActivity{
@@ -37,10 +38,12 @@ public class RadioPlayerActivity extends AppCompatActivity{
         // retrieve the queue position from the intent
         int position = getIntent().getIntExtra(Constants.KEY_QUEUE_POSITION, 0);
 
-        // add the radio player fragment
+        // add the radio player fragment, opened from the notification it shows the session's station
         if(getSupportFragmentManager().findFragmentById(R.id.radio_player_fragment_container) == null) {
+            RadioPlayerFragment fragment = PlaybackService.ACTION_OPEN.equals(getIntent().getAction())
+                    ? RadioPlayerFragment.attachToSession() : RadioPlayerFragment.newInstance(position);
             getSupportFragmentManager().beginTransaction()
-                    .add(R.id.radio_player_fragment_container, RadioPlayerFragment.newInstance(position))
+                    .add(R.id.radio_player_fragment_container, fragment)
                     .commit();
         }
     }
@@ -5,12 +5,13 @@ import android.os.Bundle;
 import android.support.design.widget.CoordinatorLayout;
 
 import com.example.radioplayer.R;
+import com.example.radioplayer.bus.Subscribe;
 import com.example.radioplayer.event.MessageEvent;
 import com.example.radioplayer.event.OnClickEvent;
 import com.example.radioplayer.fragment.StationFragment;
+import com.example.radioplayer.service.PlaybackController;
 import com.example.radioplayer.util.Constants;
 import com.example.radioplayer.util.Utils;
-import com.squareup.otto.Subscribe;
 
 public class StationActivity extends BaseActivity{
 
@@ -47,6 +48,8 @@ public class StationActivity extends BaseActivity{
     public void getOnClickEvent(OnClickEvent event) {
         if(event.getClickEvent().equals(OnClickEvent.LIST_ITEM_CLICK_EVENT)) {
             int position = event.getPosition();
+            // start buffering now, overlapping the player's transition, its UI attaches when created
+            PlaybackController.getInstance().play(position);
             Intent intent = new Intent(this, RadioPlayerActivity.class);
             intent.putExtra(Constants.KEY_QUEUE_POSITION, position);
             //startActivity(intent);
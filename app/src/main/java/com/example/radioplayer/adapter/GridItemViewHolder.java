@@ -11,16 +11,13 @@ import com.example.radioplayer.RadioPlayerApplication;
 import com.example.radioplayer.event.OnClickEvent;
 import com.example.radioplayer.model.Category;
 
-import java.util.Random;
-
 public class GridItemViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener{
 
     private TextView mItemTitle;
     private ImageView mItemIcon;
     private ItemChoiceManager mItemChoiceManager;
     private int mPosition;
-
-    private Random mGenerator = new Random();
+    private Category mItem;
 
     public GridItemViewHolder(View itemView, ItemChoiceManager choiceManager) {
         super(itemView);
@@ -34,9 +31,12 @@ public class GridItemViewHolder extends RecyclerView.ViewHolder implements View.
     public void bindModelItem(Category item, Context context, int position) {
         mPosition = position;
 
-        // populate the holder elements
-        mItemTitle.setText(item.getTitle());
-        mItemIcon.setImageResource(item.getIcon());
+        // populate the holder elements, skipped when rebinding the same category
+        if(item != mItem) {
+            mItem = item;
+            mItemTitle.setText(item.getTitle());
+            mItemIcon.setImageResource(item.getIcon());
+        }
     }
 
     @Override
@@ -8,6 +8,7 @@ import android.view.ViewGroup;
 
 import com.example.radioplayer.R;
 import com.example.radioplayer.model.Station;
+import com.example.radioplayer.util.ViewPreloader;
 
 import java.util.List;
 
@@ -25,7 +26,9 @@ public class  ListItemAdapter extends RecyclerView.Adapter<ListItemViewHolder>{
 
     @Override
     public ListItemViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-        LayoutInflater inflater = LayoutInflater.from(mContext);
+        // inflate using the app scoped context, rows are shared between lists via the view pool
+        Context context = ViewPreloader.getInstance().getContext();
+        LayoutInflater inflater = LayoutInflater.from(context != null ? context : mContext);
         View view = inflater.inflate(R.layout.list_item, parent, false);
         return new ListItemViewHolder(view);
     }
@@ -33,7 +36,7 @@ public class  ListItemAdapter extends RecyclerView.Adapter<ListItemViewHolder>{
     @Override
     public void onBindViewHolder(ListItemViewHolder holder, int position) {
         Station item = mList.get(position);
-        holder.bindStationItem(item, mContext, position, mIcon);
+        holder.bindStationItem(item, position, mIcon);
     }
 
     @Override
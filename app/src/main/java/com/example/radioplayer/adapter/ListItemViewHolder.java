@@ -1,6 +1,5 @@
 package com.example.radioplayer.adapter;
 
-import android.content.Context;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import android.widget.ImageView;
@@ -12,12 +11,14 @@ import com.example.radioplayer.event.OnClickEvent;
 import com.example.radioplayer.model.Station;
 import com.squareup.picasso.Picasso;
 
-public class ListItemViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener{
+public class ListItemViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener,
+        StationRowBinder.Row {
 
     private TextView mItemTitle;
     private TextView mItemCountry;
     private ImageView mItemIcon;
     private int mPosition;
+    private final StationRowBinder mBinder = new StationRowBinder();
 
     public ListItemViewHolder(View itemView) {
         super(itemView);
@@ -27,18 +28,27 @@ public class ListItemViewHolder extends RecyclerView.ViewHolder implements View.
         mItemIcon = (ImageView) itemView.findViewById(R.id.item_icon);
     }
 
-    public void bindStationItem(Station item, Context context, int position, int icon) {
+    // display values are resolved at ingest, rebinding the same row allocates nothing
+    public void bindStationItem(Station item, int position, int icon) {
         mPosition = position;
-        mItemTitle.setText(item.getName());
-        mItemCountry.setText(item.getCountry());
-
-        // use picasso to download and set icon
-        String url = item.getImage().getThumb().getUrl();
-        if (url == null || url.isEmpty()) {
-            // use the large image where thumb not available
-            item.getImage().getUrl();
-        }
-        Picasso.with(context)
+        mBinder.bind(this, item, icon);
+    }
+
+    @Override
+    public void setTitle(String title) {
+        mItemTitle.setText(title);
+    }
+
+    @Override
+    public void setCountry(String country) {
+        mItemCountry.setText(country);
+    }
+
+    // use picasso to download and set icon, only when the row shows a different station, holders
+    // outlive the activity in the shared pool so the context is the view's at bind time
+    @Override
+    public void loadLogo(String url, int icon) {
+        Picasso.with(itemView.getContext())
                 .load(url)
                 .resize(60, 60)
                 .placeholder(icon)
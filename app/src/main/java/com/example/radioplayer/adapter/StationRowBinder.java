@@ -0,0 +1,38 @@
+package com.example.radioplayer.adapter;
+
+import com.example.radioplayer.model.Station;
+
+/**
+ * The bind path of a station row, kept apart from its views so it can be run on the jvm.
+ * Rebinding the station a row already shows does nothing. A different station sets the
+ * display strings resolved at ingest and requests its logo, the image request itself is the
+ * only allocation left in a bind.
+ */
+public class StationRowBinder {
+
+    public interface Row {
+
+        void setTitle(String title);
+
+        void setCountry(String country);
+
+        // the icon is shown until the logo loads, or where it fails or the station has none
+        void loadLogo(String url, int icon);
+    }
+
+    private Station mStation;
+    private int mIcon;
+
+    // false where the row already showed the station
+    public boolean bind(Row row, Station station, int icon) {
+        if(station == mStation && icon == mIcon)
+            return false;
+        mStation = station;
+        mIcon = icon;
+        row.setTitle(station.getDisplayName());
+        row.setCountry(station.getDisplayCountry());
+        row.loadLogo(station.getLogoUrl(), icon);
+        return true;
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.example.radioplayer.bus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatch counters for a single {@link ThreadMode}: time spent inside subscribers and, for
+ * the background and async modes, time events waited before delivery.
+ *
+ * Timing a dispatch costs about as much as the dispatch itself, so only one in SAMPLE_INTERVAL
+ * is timed and the counts & totals are estimated from those.
+ */
+public class DispatchMetrics {
+
+    static final int SAMPLE_INTERVAL = 16; // a power of two
+
+    private final ThreadMode mThreadMode;
+    private int mDispatches; // unsynchronized, a lost update only moves which dispatch is timed
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+    private final AtomicLong mTotalQueuedNanos = new AtomicLong();
+
+    DispatchMetrics(ThreadMode threadMode) {
+        mThreadMode = threadMode;
+    }
+
+    // whether to time the dispatch about to be made
+    boolean sample() {
+        return (++mDispatches & (SAMPLE_INTERVAL - 1)) == 0;
+    }
+
+    // a sampled dispatch
+    void record(long queuedNanos, long dispatchNanos) {
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(dispatchNanos);
+        mTotalQueuedNanos.addAndGet(queuedNanos);
+        long max;
+        while (dispatchNanos > (max = mMaxNanos.get())) {
+            if(mMaxNanos.compareAndSet(max, dispatchNanos))
+                break;
+        }
+    }
+
+    public ThreadMode getThreadMode() {
+        return mThreadMode;
+    }
+
+    // estimated from the dispatches sampled
+    public long getCount() {
+        return mCount.get() * SAMPLE_INTERVAL;
+    }
+
+    // total time spent inside subscribers, estimated from the dispatches sampled
+    public long getTotalNanos() {
+        return mTotalNanos.get() * SAMPLE_INTERVAL;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    public long getAverageNanos() {
+        long count = mCount.get();
+        return count > 0 ? mTotalNanos.get() / count : 0;
+    }
+
+    // average time between the post and the subscriber being called
+    public long getAverageQueuedNanos() {
+        long count = mCount.get();
+        return count > 0 ? mTotalQueuedNanos.get() / count : 0;
+    }
+
+    public void reset() {
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+        mTotalQueuedNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: ~%d events, total ~%.2fms, avg %dus, max %dus, avg queued %dus",
+                mThreadMode, getCount(), getTotalNanos() / 1e6, getAverageNanos() / 1000,
+                getMaxNanos() / 1000, getAverageQueuedNanos() / 1000);
+    }
+
+}
@@ -0,0 +1,331 @@
+package com.example.radioplayer.bus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Event bus dispatching through the generated {@link EventSubscribers} tables. Subscribers of
+ * an event's super types also receive it, as with Otto. Events posted while dispatching are
+ * queued and delivered in order once the current event has been handled.
+ *
+ * Subscribers are called on the dispatching thread unless they ask for the BACKGROUND or ASYNC
+ * {@link ThreadMode}. Time spent in subscribers is recorded per mode, see getMetrics().
+ *
+ * Events posted with postSticky() are retained, latest instance per type, and replayed to
+ * subscribers as they register until removed with removeStickyEvent().
+ *
+ * Not thread safe, all calls must be made from the same thread - see ApplicationBus. Sticky
+ * events may be read and removed from any thread.
+ */
+public class EventBus {
+
+    private static final String TABLE_SUFFIX = "_EventSubscribers";
+    private static final EventSubscribers<?>[] NO_TABLES = new EventSubscribers<?>[0];
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    private final Map<Class<?>, EventSubscribers<?>[]> mTablesByClass = new HashMap<>();
+    private final Map<Class<?>, Class<?>[]> mHierarchyByEvent = new HashMap<>();
+    private final Map<Class<?>, Subscription[]> mSubscriptionsByEvent = new HashMap<>();
+    private final Map<Object, Subscription[]> mSubscriptionsByTarget = new IdentityHashMap<>();
+    private final ConcurrentMap<Class<?>, Object> mStickyEvents = new ConcurrentHashMap<>();
+    private final ArrayDeque<Object> mQueue = new ArrayDeque<>();
+    private final DispatchMetrics[] mMetrics = new DispatchMetrics[ThreadMode.values().length];
+    private boolean mIsDispatching;
+    private Executor mBackgroundExecutor;
+    private Executor mAsyncExecutor;
+
+    public EventBus() {
+        for (ThreadMode mode : ThreadMode.values()) {
+            mMetrics[mode.ordinal()] = new DispatchMetrics(mode);
+        }
+    }
+
+    public DispatchMetrics getMetrics(ThreadMode threadMode) {
+        return mMetrics[threadMode.ordinal()];
+    }
+
+
+    public void register(Object target) {
+        if(target == null)
+            throw new NullPointerException("Object to register must not be null");
+        if(mSubscriptionsByTarget.containsKey(target))
+            throw new IllegalArgumentException("Object already registered: " + target);
+
+        List<Subscription> subscriptions = new ArrayList<>();
+        for (EventSubscribers<?> table : getTables(target.getClass())) {
+            Class<?>[] eventTypes = table.getEventTypes();
+            ThreadMode[] threadModes = table.getThreadModes();
+            for (int i = 0; i < eventTypes.length; i++) {
+                Subscription subscription = new Subscription(target, table, i, threadModes[i]);
+                subscriptions.add(subscription);
+                mSubscriptionsByEvent.put(eventTypes[i],
+                        append(mSubscriptionsByEvent.get(eventTypes[i]), subscription));
+            }
+        }
+        mSubscriptionsByTarget.put(target, subscriptions.toArray(new Subscription[subscriptions.size()]));
+
+        // replay the retained events to the new subscriber
+        if(!mStickyEvents.isEmpty()) {
+            for (Subscription subscription : subscriptions) {
+                Class<?> eventType = subscription.mTable.getEventTypes()[subscription.mIndex];
+                for (Object event : mStickyEvents.values()) {
+                    if(eventType.isInstance(event))
+                        deliver(subscription, event);
+                }
+            }
+        }
+    }
+
+
+    public void unregister(Object target) {
+        if(target == null)
+            throw new NullPointerException("Object to unregister must not be null");
+        Subscription[] subscriptions = mSubscriptionsByTarget.remove(target);
+        if(subscriptions == null)
+            throw new IllegalArgumentException("Object was not registered: " + target);
+
+        for (Subscription subscription : subscriptions) {
+            // stop delivery to a target unregistered while an event is being dispatched
+            subscription.mIsActive = false;
+            Class<?> eventType = subscription.mTable.getEventTypes()[subscription.mIndex];
+            Subscription[] remaining = remove(mSubscriptionsByEvent.get(eventType), subscription);
+            if(remaining.length == 0)
+                mSubscriptionsByEvent.remove(eventType);
+            else
+                mSubscriptionsByEvent.put(eventType, remaining);
+        }
+    }
+
+
+    public void post(Object event) {
+        if(event == null)
+            throw new NullPointerException("Event to post must not be null");
+        mQueue.offer(event);
+        if(mIsDispatching)
+            return; // delivered by the outer call once the current event is done
+
+        mIsDispatching = true;
+        try {
+            Object next;
+            while ((next = mQueue.poll()) != null) {
+                dispatch(next);
+            }
+        } finally {
+            mIsDispatching = false;
+        }
+    }
+
+
+    // post the event and retain it, replacing any retained event of the same type
+    public void postSticky(Object event) {
+        if(event == null)
+            throw new NullPointerException("Event to post must not be null");
+        mStickyEvents.put(event.getClass(), event);
+        post(event);
+    }
+
+    public <T> T getStickyEvent(Class<T> eventType) {
+        return eventType.cast(mStickyEvents.get(eventType));
+    }
+
+    // acknowledge a retained event once handled, a newer event of the same type is kept
+    public boolean removeStickyEvent(Object event) {
+        return mStickyEvents.remove(event.getClass(), event);
+    }
+
+    public <T> T removeStickyEvent(Class<T> eventType) {
+        return eventType.cast(mStickyEvents.remove(eventType));
+    }
+
+
+    private void dispatch(Object event) {
+        for (Class<?> eventType : getHierarchy(event.getClass())) {
+            // arrays are replaced, not modified, on (un)register so iterating is always safe
+            Subscription[] subscriptions = mSubscriptionsByEvent.get(eventType);
+            if(subscriptions == null)
+                continue;
+            for (Subscription subscription : subscriptions) {
+                if(subscription.mIsActive)
+                    deliver(subscription, event);
+            }
+        }
+    }
+
+    private void deliver(Subscription subscription, Object event) {
+        switch (subscription.mThreadMode) {
+            case MAIN:
+                invoke(subscription, event, 0);
+                break;
+            case BACKGROUND:
+                getBackgroundExecutor().execute(new Delivery(subscription, event));
+                break;
+            case ASYNC:
+                getAsyncExecutor().execute(new Delivery(subscription, event));
+                break;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void invoke(Subscription subscription, Object event, long queuedNanos) {
+        EventSubscribers<Object> table = (EventSubscribers<Object>) subscription.mTable;
+        DispatchMetrics metrics = mMetrics[subscription.mThreadMode.ordinal()];
+        if(!metrics.sample()) {
+            table.dispatch(subscription.mTarget, subscription.mIndex, event);
+            return;
+        }
+        long start = System.nanoTime();
+        table.dispatch(subscription.mTarget, subscription.mIndex, event);
+        metrics.record(queuedNanos, System.nanoTime() - start);
+    }
+
+    // single thread, events delivered in the order posted
+    protected Executor createBackgroundExecutor() {
+        return Executors.newSingleThreadExecutor(new NamedThreadFactory("EventBus-background"));
+    }
+
+    protected Executor createAsyncExecutor() {
+        return Executors.newCachedThreadPool(new NamedThreadFactory("EventBus-async"));
+    }
+
+    private Executor getBackgroundExecutor() {
+        if(mBackgroundExecutor == null)
+            mBackgroundExecutor = createBackgroundExecutor();
+        return mBackgroundExecutor;
+    }
+
+    private Executor getAsyncExecutor() {
+        if(mAsyncExecutor == null)
+            mAsyncExecutor = createAsyncExecutor();
+        return mAsyncExecutor;
+    }
+
+
+    // the generated tables for a class and its super classes, looked up once per class
+    private EventSubscribers<?>[] getTables(Class<?> targetClass) {
+        EventSubscribers<?>[] tables = mTablesByClass.get(targetClass);
+        if(tables == null) {
+            List<EventSubscribers<?>> list = new ArrayList<>();
+            for (Class<?> cls = targetClass; cls != null; cls = cls.getSuperclass()) {
+                String name = cls.getName();
+                if(name.startsWith("java.") || name.startsWith("android."))
+                    break;
+                EventSubscribers<?> table = loadTable(cls);
+                if(table != null)
+                    list.add(table);
+            }
+            tables = list.isEmpty() ? NO_TABLES : list.toArray(new EventSubscribers<?>[list.size()]);
+            mTablesByClass.put(targetClass, tables);
+        }
+        return tables;
+    }
+
+    private static EventSubscribers<?> loadTable(Class<?> cls) {
+        try {
+            Class<?> tableClass = Class.forName(cls.getName() + TABLE_SUFFIX, true, cls.getClassLoader());
+            return (EventSubscribers<?>) tableClass.newInstance();
+        } catch (ClassNotFoundException e) {
+            return null; // class has no subscriber methods
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Unable to create subscriber table for " + cls.getName(), e);
+        }
+    }
+
+    // the event type, its super classes and interfaces, cached per event type
+    private Class<?>[] getHierarchy(Class<?> eventClass) {
+        Class<?>[] hierarchy = mHierarchyByEvent.get(eventClass);
+        if(hierarchy == null) {
+            Set<Class<?>> types = new LinkedHashSet<>();
+            for (Class<?> cls = eventClass; cls != null; cls = cls.getSuperclass()) {
+                types.add(cls);
+                types.addAll(Arrays.asList(cls.getInterfaces()));
+            }
+            hierarchy = types.toArray(new Class<?>[types.size()]);
+            mHierarchyByEvent.put(eventClass, hierarchy);
+        }
+        return hierarchy;
+    }
+
+    private static Subscription[] append(Subscription[] array, Subscription subscription) {
+        if(array == null)
+            return new Subscription[] {subscription};
+        Subscription[] copy = Arrays.copyOf(array, array.length + 1);
+        copy[array.length] = subscription;
+        return copy;
+    }
+
+    private static Subscription[] remove(Subscription[] array, Subscription subscription) {
+        if(array == null)
+            return NO_SUBSCRIPTIONS;
+        List<Subscription> list = new ArrayList<>(Arrays.asList(array));
+        list.remove(subscription);
+        return list.toArray(new Subscription[list.size()]);
+    }
+
+
+    private static final class Subscription {
+
+        private final Object mTarget;
+        private final EventSubscribers<?> mTable;
+        private final int mIndex;
+        private final ThreadMode mThreadMode;
+        private volatile boolean mIsActive = true;
+
+        Subscription(Object target, EventSubscribers<?> table, int index, ThreadMode threadMode) {
+            mTarget = target;
+            mTable = table;
+            mIndex = index;
+            mThreadMode = threadMode;
+        }
+    }
+
+    // delivers an event to a subscriber off the dispatching thread
+    private final class Delivery implements Runnable {
+
+        private final Subscription mSubscription;
+        private final Object mEvent;
+        private final long mPostedNanos = System.nanoTime();
+
+        Delivery(Subscription subscription, Object event) {
+            mSubscription = subscription;
+            mEvent = event;
+        }
+
+        @Override
+        public void run() {
+            // the target may have been unregistered while the event was queued
+            if(mSubscription.mIsActive)
+                invoke(mSubscription, mEvent, System.nanoTime() - mPostedNanos);
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mName + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
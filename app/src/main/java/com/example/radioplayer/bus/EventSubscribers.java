@@ -0,0 +1,16 @@
+package com.example.radioplayer.bus;
+
+/**
+ * Subscriber table generated for every class with {@link Subscribe} methods, named after the
+ * class with an {@code _EventSubscribers} suffix. Method index i handles events of type
+ * getEventTypes()[i] and is called on the thread given by getThreadModes()[i].
+ */
+public interface EventSubscribers<T> {
+
+    Class<?>[] getEventTypes();
+
+    ThreadMode[] getThreadModes();
+
+    void dispatch(T target, int index, Object event);
+
+}
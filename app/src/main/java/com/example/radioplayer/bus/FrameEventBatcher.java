@@ -0,0 +1,120 @@
+package com.example.radioplayer.bus;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects events posted from background threads and delivers them to the bus in a single
+ * drain at the start of the next frame, rather than one Handler message per event. Event types
+ * marked as latest-value-only keep just the most recent instance per frame, and are batched
+ * when posted on the main thread too.
+ */
+public class FrameEventBatcher implements Choreographer.FrameCallback, Handler.Callback {
+
+    private static final int MSG_SCHEDULE_FRAME = 1;
+
+    private final EventBus mBus;
+    private final Handler mMainThread = new Handler(Looper.getMainLooper(), this);
+    private final Set<Class<?>> mLatestValueTypes =
+            Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
+    private final Object mLock = new Object();
+    private final Map<Class<?>, Integer> mLatestValueIndex = new HashMap<>();
+    private ArrayList<Object> mPending = new ArrayList<>();
+    private ArrayList<Object> mDraining = new ArrayList<>();
+    private boolean mIsScheduled;
+    private boolean mIsDraining; // main thread only
+
+    // the bus must deliver events posted on the main thread while draining immediately
+    public FrameEventBatcher(EventBus bus) {
+        mBus = bus;
+    }
+
+    // only the latest event of this type is delivered each frame
+    public void coalesceLatest(Class<?> eventType) {
+        mLatestValueTypes.add(eventType);
+    }
+
+    public boolean isLatestValue(Class<?> eventType) {
+        return mLatestValueTypes.contains(eventType);
+    }
+
+    // on the main thread, the events being posted to the bus are delivered rather than batched again
+    public boolean isDraining() {
+        return mIsDraining;
+    }
+
+    // called from any thread
+    public void enqueue(Object event) {
+        synchronized (mLock) {
+            Class<?> eventType = event.getClass();
+            if(mLatestValueTypes.contains(eventType)) {
+                Integer index = mLatestValueIndex.get(eventType);
+                if(index != null) {
+                    // replace the pending event in place, keeping its position in the batch
+                    mPending.set(index, event);
+                    return;
+                }
+                mLatestValueIndex.put(eventType, mPending.size());
+            }
+            mPending.add(event);
+            if(mIsScheduled)
+                return;
+            mIsScheduled = true;
+        }
+        // the choreographer belongs to the main thread, schedule the frame callback from there
+        mMainThread.sendEmptyMessage(MSG_SCHEDULE_FRAME);
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        if(msg.what == MSG_SCHEDULE_FRAME) {
+            Choreographer.getInstance().postFrameCallback(this);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        flush();
+    }
+
+    // main thread only, delivers the batch now so an event posted directly can't overtake it
+    public void flush() {
+        if(mIsDraining)
+            return;
+        // swap the buffers so background threads can keep posting while we drain
+        ArrayList<Object> events;
+        synchronized (mLock) {
+            if(mPending.isEmpty())
+                return;
+            events = mPending;
+            mPending = mDraining;
+            mDraining = events;
+            mLatestValueIndex.clear();
+            mIsScheduled = false;
+        }
+
+        mIsDraining = true;
+        try {
+            int count = events.size();
+            for (int i = 0; i < count; i++) {
+                mBus.post(events.get(i));
+            }
+        } finally {
+            mIsDraining = false;
+            events.clear();
+        }
+    }
+
+}
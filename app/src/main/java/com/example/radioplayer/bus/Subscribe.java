@@ -0,0 +1,21 @@
+package com.example.radioplayer.bus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method as an event subscriber. The method must be non-private, non-static and take
+ * a single event parameter. The bus-compiler annotation processor generates a typed
+ * subscriber table for each class using it, no reflection is used when dispatching.
+ *
+ * Subscribers are called on the main thread unless a different {@link ThreadMode} is given.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface Subscribe {
+
+    ThreadMode threadMode() default ThreadMode.MAIN;
+
+}
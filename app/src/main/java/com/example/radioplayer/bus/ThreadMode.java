@@ -0,0 +1,17 @@
+package com.example.radioplayer.bus;
+
+/**
+ * Thread a {@link Subscribe} method is called on.
+ */
+public enum ThreadMode {
+
+    // the thread the bus dispatches on, the main thread for the application bus
+    MAIN,
+
+    // a single background thread shared by all subscribers, events are delivered in order
+    BACKGROUND,
+
+    // a pooled executor, events may be delivered concurrently and out of order
+    ASYNC
+
+}
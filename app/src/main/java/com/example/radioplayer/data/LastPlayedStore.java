@@ -0,0 +1,198 @@
+package com.example.radioplayer.data;
+
+import com.example.radioplayer.model.Image;
+import com.example.radioplayer.model.Station;
+import com.example.radioplayer.model.Stream;
+import com.example.radioplayer.model.Thumb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the station last played, the endpoint its stream resolved to and the queue it was
+ * played from in a small binary file, so they outlive the process. The queue is cut to a
+ * window around the station and each station kept as its display strings & streams only.
+ *
+ * Loading & saving block on the disk so are called off the main thread. Each save writes a
+ * temporary file that's renamed over the last, a save cut short leaves the previous intact.
+ */
+
+public class LastPlayedStore {
+
+    public static final String FILE_NAME = "last_played.bin";
+    static final int MAX_QUEUE_STATIONS = 50;
+    // the cache never produces it, neither for a list nor the empty queue it serves before the
+    // first page, so a restored queue isn't taken for the list being loaded
+    static final int RESTORED_GENERATION = -1;
+
+    private static final int MAGIC = 0x524c5031;
+    private static final int VERSION = 1;
+
+    // the station played & where it was in its queue
+    public static final class LastPlayed {
+
+        private final PlaybackQueue mQueue;
+        private final int mPosition;
+        private final String mStreamUrl;
+        private final String mEndpoint; // null where it wasn't resolved
+        private final long mSavedAt; // wall clock, the endpoint's age survives a reboot
+
+        public LastPlayed(PlaybackQueue queue, int position, String streamUrl, String endpoint,
+                          long savedAt) {
+            mQueue = queue;
+            mPosition = position;
+            mStreamUrl = streamUrl;
+            mEndpoint = endpoint;
+            mSavedAt = savedAt;
+        }
+
+        public PlaybackQueue getQueue() {
+            return mQueue;
+        }
+
+        public int getPosition() {
+            return mPosition;
+        }
+
+        public String getStreamUrl() {
+            return mStreamUrl;
+        }
+
+        public String getEndpoint() {
+            return mEndpoint;
+        }
+
+        public long getSavedAt() {
+            return mSavedAt;
+        }
+    }
+
+    private final File mFile;
+
+    public LastPlayedStore(File directory) {
+        mFile = new File(directory, FILE_NAME);
+    }
+
+    public void save(LastPlayed lastPlayed) throws IOException {
+        PlaybackQueue queue = lastPlayed.getQueue();
+        int from = Math.max(0, Math.min(lastPlayed.getPosition() - MAX_QUEUE_STATIONS / 2,
+                queue.size() - MAX_QUEUE_STATIONS));
+        int to = Math.min(queue.size(), from + MAX_QUEUE_STATIONS);
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(lastPlayed.getSavedAt());
+            out.writeUTF(lastPlayed.getStreamUrl());
+            writeString(out, lastPlayed.getEndpoint());
+            out.writeShort(lastPlayed.getPosition() - from);
+            out.writeShort(to - from);
+            for (int i = from; i < to; i++) {
+                writeStation(out, queue, i);
+            }
+        } finally {
+            out.close();
+        }
+        if(!temp.renameTo(mFile))
+            throw new IOException("Error renaming " + temp);
+    }
+
+    // null where nothing has been saved, or by another version
+    public LastPlayed load() throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            if(in.readInt() != MAGIC || in.readByte() != VERSION)
+                return null;
+            long savedAt = in.readLong();
+            String streamUrl = in.readUTF();
+            String endpoint = readString(in);
+            int position = in.readShort();
+            int size = in.readShort();
+            if(position < 0 || position >= size)
+                throw new IOException("Position " + position + " outside the " + size + " stations saved");
+            List<Station> stations = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                stations.add(readStation(in));
+            }
+            // nothing more can be paged into a restored queue
+            PlaybackQueue queue = PlaybackQueue.of(RESTORED_GENERATION, stations, true);
+            return new LastPlayed(queue, position, streamUrl, endpoint, savedAt);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void clear() {
+        mFile.delete();
+    }
+
+    // the queue's display strings, never null, and the station's streams
+    private static void writeStation(DataOutputStream out, PlaybackQueue queue, int position)
+            throws IOException {
+        out.writeLong(queue.getId(position));
+        out.writeUTF(queue.getName(position));
+        out.writeUTF(queue.getCountry(position));
+        out.writeUTF(queue.getSlug(position));
+        out.writeUTF(queue.getImageUrl(position));
+        out.writeUTF(queue.getThumbUrl(position));
+        List<Stream> streams = queue.getStation(position).getStreams();
+        int count = streams != null ? Math.min(streams.size(), 255) : 0;
+        out.writeByte(count);
+        for (int i = 0; i < count; i++) {
+            Stream stream = streams.get(i);
+            writeString(out, stream.getStream());
+            out.writeInt(stream.getBitrate() != null ? stream.getBitrate() : -1);
+            writeString(out, stream.getContent_type());
+            out.writeInt(stream.getStatus() != null ? stream.getStatus() : -1);
+        }
+    }
+
+    private static Station readStation(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        String name = in.readUTF();
+        String country = in.readUTF();
+        String slug = in.readUTF();
+        String imageUrl = in.readUTF();
+        String thumbUrl = in.readUTF();
+        int count = in.readUnsignedByte();
+        List<Stream> streams = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String url = readString(in);
+            int bitrate = in.readInt();
+            String contentType = readString(in);
+            int status = in.readInt();
+            streams.add(new Stream(url, bitrate >= 0 ? bitrate : null, contentType, status >= 0 ? status : null));
+        }
+        // the queue turns missing strings into empty ones, turned back here
+        Image image = new Image(imageUrl.isEmpty() ? null : imageUrl,
+                new Thumb(thumbUrl.isEmpty() ? null : thumbUrl));
+        return new Station(id != -1 ? id : null, name, country, image, slug, streams);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.example.radioplayer.data;
+
+import com.example.radioplayer.model.Station;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the station list for the playback service, so clearing or paging the
+ * cache never moves a station from under the queue position. Display strings are copied out
+ * up front and the stations kept only for their streams, which are never modified once parsed.
+ *
+ * Snapshots are built off the main thread as pages load. Each carries the generation of the
+ * list it was taken from, a new category starts a new generation, so the service can tell a
+ * longer snapshot of its own queue from one for a different context.
+ */
+
+public final class PlaybackQueue {
+
+    public static final PlaybackQueue EMPTY = new PlaybackQueue(0, new Station[0], true);
+
+    private final int mGeneration;
+    private final boolean mIsLastPage;
+    private final Station[] mStations;
+    private final long[] mIds;
+    private final String[] mNames;
+    private final String[] mSlugs;
+    private final String[] mCountries;
+    private final String[] mImageUrls;
+    private final String[] mThumbUrls;
+
+    private PlaybackQueue(int generation, Station[] stations, boolean isLastPage) {
+        mGeneration = generation;
+        mIsLastPage = isLastPage;
+        mStations = stations;
+        int size = stations.length;
+        mIds = new long[size];
+        mNames = new String[size];
+        mSlugs = new String[size];
+        mCountries = new String[size];
+        mImageUrls = new String[size];
+        mThumbUrls = new String[size];
+        for (int i = 0; i < size; i++) {
+            Station stn = stations[i];
+            mIds[i] = stn.getId() != null ? stn.getId() : -1;
+            mNames[i] = stn.getName() != null ? stn.getName() : "";
+            mSlugs[i] = stn.getSlug() != null ? stn.getSlug() : "";
+            mCountries[i] = stn.getCountry() != null ? stn.getCountry() : "";
+            mImageUrls[i] = stn.getImage() != null && stn.getImage().getUrl() != null
+                    ? stn.getImage().getUrl() : "";
+            mThumbUrls[i] = stn.getImage() != null && stn.getImage().getThumb() != null
+                    && stn.getImage().getThumb().getUrl() != null ? stn.getImage().getThumb().getUrl() : "";
+        }
+    }
+
+    // copies the list, the caller must hold whatever lock guards it
+    static PlaybackQueue of(int generation, List<Station> stations, boolean isLastPage) {
+        return new PlaybackQueue(generation, stations.toArray(new Station[stations.size()]), isLastPage);
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    // true where no more pages follow
+    public boolean isLastPage() {
+        return mIsLastPage;
+    }
+
+    public int size() {
+        return mStations.length;
+    }
+
+    // the position of the station with the id, -1 where it isn't queued
+    public int indexOf(long id) {
+        for (int i = 0; i < mIds.length; i++) {
+            if(mIds[i] == id)
+                return i;
+        }
+        return -1;
+    }
+
+    public Station getStation(int position) {
+        return mStations[position];
+    }
+
+    // the stations in order, read only
+    public List<Station> getStations() {
+        return Collections.unmodifiableList(Arrays.asList(mStations));
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public String getName(int position) {
+        return mNames[position];
+    }
+
+    public String getSlug(int position) {
+        return mSlugs[position];
+    }
+
+    public String getCountry(int position) {
+        return mCountries[position];
+    }
+
+    public String getImageUrl(int position) {
+        return mImageUrls[position];
+    }
+
+    public String getThumbUrl(int position) {
+        return mThumbUrls[position];
+    }
+
+}
@@ -1,6 +1,9 @@
 package com.example.radioplayer.data;
 
+import android.content.Context;
+
 import com.example.radioplayer.model.Station;
+import com.example.radioplayer.network.StationThread;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -9,6 +12,11 @@ import timber.log.Timber;
 
 /**
  * Singleton data cache used to hold the station list, accessible anywhere within the app
+ *
+ * The list is paged in from the server a page at a time, by the station list as it scrolls and
+ * by the playback service as skipping nears the end, so both share the one page count. The
+ * list is only touched under the lock, the station list, player & service read the PlaybackQueue
+ * snapshot rebuilt on the station thread as each page lands
  */
 
 public class StationDataCache {
@@ -16,6 +24,16 @@ public class StationDataCache {
     private static StationDataCache sDataCache;
     private List<Station> mList = new LinkedList<>();
 
+    // paging of the category's station list
+    private long mCategoryId = -1;
+    private int mPageCount;
+    private boolean mIsLoading;
+    private boolean mIsLastPage;
+
+    // bumped when the list is cleared for a new category
+    private int mGeneration = 1;
+    private volatile PlaybackQueue mQueue = PlaybackQueue.EMPTY;
+
     private StationDataCache() {}
 
     public static StationDataCache getStationDataCache() {
@@ -25,23 +43,76 @@ public class StationDataCache {
         return sDataCache;
     }
 
-    public List<Station> getStationList() {
-        return mList;
-    }
-
-    public void setStationList(LinkedList <Station> list) {
+    private void setStationList(LinkedList <Station> list) {
         mList.addAll(list); // add to the current cache
     }
 
-    public Station getStation(int position) {
-        return mList.get(position);
-    }
-
-    public void clearDataCache() {
+    public synchronized void clearDataCache() {
         if(mList.size() > 0) {
             mList.clear();
             Timber.i("Clearing data cache");
         }
+        mCategoryId = -1;
+        mPageCount = 0;
+        mIsLoading = false;
+        mIsLastPage = false;
+        mQueue = PlaybackQueue.of(++mGeneration, mList, false);
+    }
+
+    // the latest snapshot of the list, safe to read from any thread
+    public PlaybackQueue getQueue() {
+        return mQueue;
+    }
+
+    // fetch the category's next page in the background, false where one is loading or none remain
+    public synchronized boolean loadNextPage(Context context, long categoryId) {
+        if(categoryId != mCategoryId) {
+            if(mCategoryId != -1)
+                clearDataCache();
+            mCategoryId = categoryId;
+        }
+        if(mIsLoading || mIsLastPage)
+            return false;
+        mIsLoading = true;
+        ++mPageCount;
+        new StationThread("StationThread", context.getApplicationContext(), categoryId, mPageCount).start();
+        return true;
+    }
+
+    // the next page of the category loaded so far, if any
+    public synchronized boolean loadNextPage(Context context) {
+        return mCategoryId != -1 && loadNextPage(context, mCategoryId);
+    }
+
+    // called from the station thread, false where the category has since changed
+    public synchronized boolean onPageLoaded(long categoryId, LinkedList<Station> page) {
+        if(categoryId != mCategoryId)
+            return false;
+        mIsLoading = false;
+        if(page.isEmpty())
+            mIsLastPage = true;
+        else
+            setStationList(page);
+        mQueue = PlaybackQueue.of(mGeneration, mList, mIsLastPage);
+        return true;
+    }
+
+    // the page failed to load, it's requested again next time. False where the category has since changed
+    public synchronized boolean onPageFailed(long categoryId) {
+        if(categoryId != mCategoryId)
+            return false;
+        mIsLoading = false;
+        --mPageCount;
+        return true;
+    }
+
+    public synchronized boolean isLoading() {
+        return mIsLoading;
+    }
+
+    // true once a page comes back empty, there's nothing more to load
+    public synchronized boolean isLastPage() {
+        return mIsLastPage;
     }
 
 }
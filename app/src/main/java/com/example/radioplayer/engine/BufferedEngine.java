@@ -0,0 +1,562 @@
+package com.example.radioplayer.engine;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import com.example.radioplayer.stream.RingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import timber.log.Timber;
+
+/**
+ * Engine decoding in process, MediaExtractor & MediaCodec into an AudioTrack, with the buffering
+ * MediaPlayer keeps to itself made explicit. Decoded PCM is queued in a ring between a decode
+ * and an audio thread: the engine is prepared as soon as the start threshold is buffered, and
+ * after an underrun waits for the larger rebuffer threshold rather than stuttering chunk by
+ * chunk. Decoding runs at most the buffer's length ahead of playback. Raw PCM skips the codec.
+ *
+ * Each prepared stream is a session whose threads release what they own once it's closed, so
+ * stopping never waits on a blocked network read. Events are posted to the creating thread's
+ * looper, the main looper otherwise, and dropped where their session has since been closed.
+ * Calls in the wrong state report ERROR_INVALID_OPERATION, as MediaPlayer does.
+ */
+public class BufferedEngine implements PlaybackEngine {
+
+    public static final String NAME = "buffered";
+
+    // buffered before playback starts, and before it resumes after an underrun
+    public static final long DEFAULT_START_MS = 500;
+    public static final long DEFAULT_REBUFFER_MS = 2000;
+    // how far decoding runs ahead of playback at most
+    public static final long DEFAULT_MAX_BUFFER_MS = 10 * 1000;
+
+    private static final String MIME_RAW = "audio/raw";
+    private static final int RAW_CHUNK_BYTES = 16 * 1024;
+    private static final long CODEC_TIMEOUT_US = 10 * 1000;
+    private static final long AWAIT_MS = 100;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_INITIALIZED = 1;
+    private static final int STATE_PREPARING = 2;
+    private static final int STATE_PREPARED = 3;
+    private static final int STATE_STARTED = 4;
+    private static final int STATE_PAUSED = 5;
+    private static final int STATE_STOPPED = 6;
+    private static final int STATE_COMPLETED = 7;
+    private static final int STATE_ERROR = 8;
+    private static final int STATE_RELEASED = 9;
+
+    private static final int MSG_PREPARED = 1;
+    private static final int MSG_INFO = 2;
+    private static final int MSG_ERROR = 3;
+    private static final int MSG_COMPLETION = 4;
+    private static final int MSG_INVALID_OPERATION = 5;
+
+    private final long mStartMs;
+    private final long mRebufferMs;
+    private final long mMaxBufferMs;
+    private final Handler mHandler;
+    private Listener mListener;
+    private int mState = STATE_IDLE;
+    private String mUrl;
+    private Session mSession; // null until prepared, and once reset
+
+    public BufferedEngine() {
+        this(DEFAULT_START_MS, DEFAULT_REBUFFER_MS, DEFAULT_MAX_BUFFER_MS);
+    }
+
+    public BufferedEngine(long startMs, long rebufferMs, long maxBufferMs) {
+        if(startMs > maxBufferMs || rebufferMs > maxBufferMs)
+            throw new IllegalArgumentException("Thresholds exceed the buffer");
+        mStartMs = startMs;
+        mRebufferMs = rebufferMs;
+        mMaxBufferMs = maxBufferMs;
+        Looper looper = Looper.myLooper();
+        mHandler = new Handler(looper != null ? looper : Looper.getMainLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                dispatch((Session) msg.obj, msg.what, msg.arg1, msg.arg2);
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    // the decode & audio threads are plain threads, the service holds the wake lock for them
+    @Override
+    public boolean holdsWakeLock() {
+        return false;
+    }
+
+    @Override
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public synchronized void setDataSource(String url) throws IOException {
+        if(mState != STATE_IDLE)
+            throw new IllegalStateException("setDataSource called in state " + mState);
+        mUrl = url;
+        mState = STATE_INITIALIZED;
+    }
+
+    @Override
+    public synchronized void prepareAsync() {
+        if(mState != STATE_INITIALIZED && mState != STATE_STOPPED) {
+            invalidOperation("prepareAsync");
+            return;
+        }
+        mSession = new Session(mUrl);
+        mSession.startDecoding();
+        mState = STATE_PREPARING;
+    }
+
+    @Override
+    public synchronized void start() {
+        if(mState == STATE_PREPARED)
+            mSession.startPlaying();
+        else if(mState == STATE_PAUSED)
+            mSession.setPaused(false);
+        else if(mState != STATE_STARTED) {
+            invalidOperation("start");
+            return;
+        }
+        mState = STATE_STARTED;
+    }
+
+    @Override
+    public synchronized void pause() {
+        if(mState == STATE_STARTED)
+            mSession.setPaused(true);
+        else if(mState != STATE_PAUSED) {
+            invalidOperation("pause");
+            return;
+        }
+        mState = STATE_PAUSED;
+    }
+
+    // also cancels preparing
+    @Override
+    public synchronized void stop() {
+        if(mState == STATE_IDLE || mState == STATE_INITIALIZED || mState == STATE_ERROR
+                || mState == STATE_RELEASED) {
+            invalidOperation("stop");
+            return;
+        }
+        mSession.close();
+        mState = STATE_STOPPED;
+    }
+
+    @Override
+    public synchronized void reset() {
+        if(mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+        mHandler.removeCallbacksAndMessages(null);
+        mUrl = null;
+        mState = STATE_IDLE;
+    }
+
+    @Override
+    public synchronized void release() {
+        reset();
+        mState = STATE_RELEASED;
+    }
+
+    // true while started, including while rebuffering
+    @Override
+    public synchronized boolean isPlaying() {
+        return mState == STATE_STARTED;
+    }
+
+    @Override
+    public synchronized long getCurrentPosition() {
+        return mSession != null ? mSession.getPosition() : 0;
+    }
+
+    // MediaPlayer moves to its error state & reports the call rather than throwing
+    private void invalidOperation(String operation) {
+        Timber.w("%s called in state %d", operation, mState);
+        if(mSession != null)
+            mSession.close();
+        mState = STATE_ERROR;
+        mHandler.obtainMessage(MSG_INVALID_OPERATION).sendToTarget();
+    }
+
+    private void post(Session session, int what, int arg1, int arg2) {
+        if(!session.mIsClosed)
+            mHandler.obtainMessage(what, arg1, arg2, session).sendToTarget();
+    }
+
+    // on the looper thread, the state is moved on under the lock & the listener called outside it
+    private void dispatch(Session session, int what, int arg1, int arg2) {
+        Listener listener;
+        synchronized (this) {
+            if(what == MSG_INVALID_OPERATION) {
+                if(mState != STATE_ERROR)
+                    return;
+            } else if(session != mSession || session.mIsClosed) {
+                return;
+            }
+            switch (what) {
+                case MSG_PREPARED:
+                    if(mState != STATE_PREPARING)
+                        return;
+                    mState = STATE_PREPARED;
+                    break;
+                case MSG_ERROR:
+                    session.close();
+                    mState = STATE_ERROR;
+                    break;
+                case MSG_COMPLETION:
+                    mState = STATE_COMPLETED;
+                    break;
+            }
+            listener = mListener;
+        }
+        if(listener == null)
+            return;
+        switch (what) {
+            case MSG_PREPARED:
+                listener.onPrepared(this);
+                break;
+            case MSG_INFO:
+                listener.onInfo(this, arg1, arg2);
+                break;
+            case MSG_ERROR:
+                listener.onError(this, arg1, arg2);
+                break;
+            case MSG_COMPLETION:
+                listener.onCompletion(this);
+                break;
+            case MSG_INVALID_OPERATION:
+                listener.onError(this, ERROR_INVALID_OPERATION, 0);
+                break;
+        }
+    }
+
+    private static int selectAudioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if(mime != null && mime.startsWith("audio/"))
+                return i;
+        }
+        return -1;
+    }
+
+    // a stream from preparing to closing, the decode thread owns the extractor & codec and the
+    // audio thread the track, each releasing them on the way out
+    private final class Session {
+
+        private final String mUrl;
+        private volatile boolean mIsClosed;
+        private volatile RingBuffer mRing; // created once the pcm format is known
+        private volatile int mSampleRate;
+        private volatile int mChannels;
+        private volatile int mBytesPerMs;
+        private boolean mIsBuffered; // decode thread only
+        private AudioTrack mTrack; // guarded by the session
+        private boolean mIsPaused; // guarded by the session
+        private long mPlayedMs; // guarded by the session, once the track is released
+
+        Session(String url) {
+            mUrl = url;
+        }
+
+        void startDecoding() {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    decode();
+                }
+            }, "BufferedEngine-decode");
+            thread.start();
+        }
+
+        void startPlaying() {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    play();
+                }
+            }, "BufferedEngine-audio");
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        }
+
+        synchronized void setPaused(boolean paused) {
+            mIsPaused = paused;
+            if(mTrack != null) {
+                if(paused)
+                    mTrack.pause();
+                else
+                    mTrack.play();
+            }
+            notifyAll();
+        }
+
+        // wakes both threads, a write blocked on the track returns once it's flushed
+        synchronized void close() {
+            if(mIsClosed)
+                return;
+            mIsClosed = true;
+            if(mRing != null)
+                mRing.close();
+            if(mTrack != null) {
+                mTrack.pause();
+                mTrack.flush();
+            }
+            notifyAll();
+        }
+
+        synchronized long getPosition() {
+            if(mTrack == null)
+                return mPlayedMs;
+            return (mTrack.getPlaybackHeadPosition() & 0xffffffffL) * 1000 / mSampleRate;
+        }
+
+        private void decode() {
+            MediaExtractor extractor = new MediaExtractor();
+            MediaCodec codec = null;
+            try {
+                extractor.setDataSource(mUrl); // connects, blocking
+                int track = selectAudioTrack(extractor);
+                if(track < 0)
+                    throw new IOException("No audio track");
+                extractor.selectTrack(track);
+                MediaFormat format = extractor.getTrackFormat(track);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if(MIME_RAW.equals(mime)) {
+                    setFormat(format);
+                    copy(extractor);
+                } else {
+                    codec = MediaCodec.createDecoderByType(mime);
+                    codec.configure(format, null, null, 0);
+                    codec.start();
+                    decode(extractor, codec);
+                }
+                if(mIsClosed)
+                    return;
+                if(mRing == null)
+                    throw new IOException("Stream ended before any audio");
+                // end of stream, whatever was buffered is played out
+                if(!mIsBuffered)
+                    post(this, MSG_PREPARED, 0, 0);
+                mRing.close();
+            } catch (IOException | RuntimeException e) {
+                if(!mIsClosed) {
+                    Timber.e("Error decoding stream: %s", e.getMessage());
+                    post(this, MSG_ERROR, e instanceof IOException ? ERROR_IO : ERROR_UNKNOWN, 0);
+                }
+            } catch (InterruptedException e) {
+                Timber.i("Decoding interrupted");
+            } finally {
+                if(codec != null) {
+                    try {
+                        codec.stop();
+                    } catch (IllegalStateException e) {
+                        // not started
+                    }
+                    codec.release();
+                }
+                extractor.release();
+            }
+        }
+
+        // decode with the api 16 buffer arrays, the output format arrives before the first output
+        private void decode(MediaExtractor extractor, MediaCodec codec) throws InterruptedException {
+            ByteBuffer[] inputs = codec.getInputBuffers();
+            ByteBuffer[] outputs = codec.getOutputBuffers();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean isInputDone = false;
+            while (!mIsClosed) {
+                if(!isInputDone) {
+                    int in = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if(in >= 0) {
+                        int size = extractor.readSampleData(inputs[in], 0); // reads the network
+                        if(size < 0) {
+                            codec.queueInputBuffer(in, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            isInputDone = true;
+                        } else {
+                            codec.queueInputBuffer(in, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int out = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                if(out >= 0) {
+                    if(mRing == null)
+                        setFormat(codec.getOutputFormat());
+                    ByteBuffer pcm = outputs[out];
+                    pcm.limit(info.offset + info.size);
+                    pcm.position(info.offset);
+                    boolean isBuffered = buffer(pcm);
+                    codec.releaseOutputBuffer(out, false);
+                    if(!isBuffered || (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+                        return;
+                } else if(out == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    outputs = codec.getOutputBuffers();
+                } else if(out == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    if(mRing == null)
+                        setFormat(codec.getOutputFormat());
+                    else
+                        Timber.w("Output format changed mid-stream, ignored: %s", codec.getOutputFormat());
+                }
+            }
+        }
+
+        // raw pcm straight into the ring
+        private void copy(MediaExtractor extractor) throws InterruptedException {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(RAW_CHUNK_BYTES);
+            while (!mIsClosed) {
+                chunk.clear();
+                int size = extractor.readSampleData(chunk, 0);
+                if(size < 0)
+                    return;
+                chunk.limit(size);
+                chunk.position(0);
+                if(!buffer(chunk))
+                    return;
+                extractor.advance();
+            }
+        }
+
+        // 16 bit pcm, the ring holds the maximum buffer of it
+        private synchronized void setFormat(MediaFormat format) {
+            mSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            mChannels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            mBytesPerMs = mSampleRate * mChannels * 2 / 1000;
+            RingBuffer ring = RingBuffer.allocate((int) (mMaxBufferMs * mBytesPerMs));
+            if(mIsClosed)
+                ring.close();
+            mRing = ring;
+            Timber.i("Decoding %dHz, %d channels: %s", mSampleRate, mChannels, mUrl);
+        }
+
+        // blocks while the ring is full, false once closed
+        private boolean buffer(ByteBuffer pcm) throws InterruptedException {
+            while (pcm.hasRemaining()) {
+                if(mRing.write(pcm) < 0)
+                    return false;
+            }
+            if(!mIsBuffered && mRing.available() >= mStartMs * mBytesPerMs) {
+                mIsBuffered = true;
+                post(this, MSG_PREPARED, 0, 0);
+            }
+            return true;
+        }
+
+        private void play() {
+            int channelConfig = mChannels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+            int minSize = AudioTrack.getMinBufferSize(mSampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+            AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, mSampleRate, channelConfig,
+                    AudioFormat.ENCODING_PCM_16BIT, 2 * minSize, AudioTrack.MODE_STREAM);
+            if(track.getState() != AudioTrack.STATE_INITIALIZED) {
+                Timber.e("Error creating audio track");
+                track.release();
+                post(this, MSG_ERROR, ERROR_UNKNOWN, 0);
+                return;
+            }
+            synchronized (this) {
+                if(mIsClosed) {
+                    track.release();
+                    return;
+                }
+                mTrack = track;
+                if(!mIsPaused)
+                    track.play();
+            }
+
+            TrackChannel channel = new TrackChannel(track, minSize);
+            int rebufferBytes = (int) (mRebufferMs * mBytesPerMs);
+            try {
+                while (!mIsClosed) {
+                    awaitResumed();
+                    if(mRing.available() == 0 && !mRing.isClosed()) {
+                        Timber.i("Buffer underrun, rebuffering %dms", mRebufferMs);
+                        post(this, MSG_INFO, INFO_BUFFERING_START, 0);
+                        while (!mIsClosed && !mRing.awaitAvailable(rebufferBytes, AWAIT_MS) && !mRing.isClosed()) {
+                            // until buffered, closed, or the stream ends
+                        }
+                        post(this, MSG_INFO, INFO_BUFFERING_END, 0);
+                    }
+                    if(mRing.drainTo(channel) < 0) {
+                        if(mIsClosed)
+                            return;
+                        // the end of the stream, what's written to the track plays out
+                        track.stop();
+                        post(this, MSG_COMPLETION, 0, 0);
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                Timber.e("Error playing stream: %s", e.getMessage());
+                post(this, MSG_ERROR, ERROR_UNKNOWN, 0);
+            } catch (InterruptedException e) {
+                Timber.i("Playback interrupted");
+            } finally {
+                synchronized (this) {
+                    mPlayedMs = (track.getPlaybackHeadPosition() & 0xffffffffL) * 1000 / mSampleRate;
+                    mTrack = null;
+                }
+                track.release();
+            }
+        }
+
+        private synchronized void awaitResumed() throws InterruptedException {
+            while (mIsPaused && !mIsClosed) {
+                wait();
+            }
+        }
+    }
+
+    // the ring drains into the track through a reused chunk, direct buffers can't be written
+    // to a track before api 21
+    private static final class TrackChannel implements WritableByteChannel {
+
+        private final AudioTrack mTrack;
+        private final byte[] mChunk;
+
+        TrackChannel(AudioTrack track, int chunkBytes) {
+            mTrack = track;
+            mChunk = new byte[chunkBytes];
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int count = Math.min(src.remaining(), mChunk.length);
+            src.get(mChunk, 0, count);
+            int written = mTrack.write(mChunk, 0, count); // blocks until the track has room
+            if(written < 0)
+                throw new IOException("Audio track write error " + written);
+            // a short write, when paused or stopped, leaves the rest to be written again
+            src.position(src.position() - (count - written));
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.example.radioplayer.engine;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.PowerManager;
+
+import java.io.IOException;
+
+/**
+ * The platform MediaPlayer as an engine, buffering & decoding out of process. Also wraps the
+ * standby players, already prepared on a station, as they're swapped in.
+ */
+public class MediaPlayerEngine implements PlaybackEngine,
+        MediaPlayer.OnPreparedListener,
+        MediaPlayer.OnInfoListener,
+        MediaPlayer.OnErrorListener,
+        MediaPlayer.OnCompletionListener {
+
+    public static final String NAME = "mediaplayer";
+
+    private final Context mContext;
+    private final MediaPlayer mPlayer;
+    private Listener mListener;
+
+    public MediaPlayerEngine(Context context) {
+        this(context, createPlayer());
+    }
+
+    // take over a player, in whatever state it's in
+    public MediaPlayerEngine(Context context, MediaPlayer player) {
+        mContext = context.getApplicationContext();
+        mPlayer = player;
+        mPlayer.setLooping(false);
+        mPlayer.setOnPreparedListener(this);
+        mPlayer.setOnInfoListener(this);
+        mPlayer.setOnErrorListener(this);
+        mPlayer.setOnCompletionListener(this);
+        // tell the system it needs to stay on
+        mPlayer.setWakeMode(mContext, PowerManager.PARTIAL_WAKE_LOCK);
+    }
+
+    private static MediaPlayer createPlayer() {
+        MediaPlayer player = new MediaPlayer();
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        return player;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    // MediaPlayer's own, set in the constructor
+    @Override
+    public boolean holdsWakeLock() {
+        return true;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void setDataSource(String url) throws IOException {
+        mPlayer.setDataSource(mContext, Uri.parse(url));
+    }
+
+    @Override
+    public void prepareAsync() {
+        mPlayer.prepareAsync();
+    }
+
+    @Override
+    public void start() {
+        mPlayer.start();
+    }
+
+    @Override
+    public void pause() {
+        mPlayer.pause();
+    }
+
+    @Override
+    public void stop() {
+        mPlayer.stop();
+    }
+
+    @Override
+    public void reset() {
+        mPlayer.reset();
+    }
+
+    @Override
+    public void release() {
+        mPlayer.reset();
+        mPlayer.release();
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mPlayer.isPlaying();
+    }
+
+    @Override
+    public long getCurrentPosition() {
+        return mPlayer.getCurrentPosition();
+    }
+
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        if(mListener != null)
+            mListener.onPrepared(this);
+    }
+
+    @Override
+    public boolean onInfo(MediaPlayer mp, int what, int extra) {
+        if(mListener != null)
+            mListener.onInfo(this, what, extra);
+        return false;
+    }
+
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        if(mListener != null)
+            mListener.onError(this, what, extra);
+        return true; // error handled, no completion follows
+    }
+
+    @Override
+    public void onCompletion(MediaPlayer mp) {
+        if(mListener != null)
+            mListener.onCompletion(this);
+    }
+
+}
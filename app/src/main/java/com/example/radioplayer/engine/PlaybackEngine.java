@@ -0,0 +1,64 @@
+package com.example.radioplayer.engine;
+
+import java.io.IOException;
+
+/**
+ * The part of a media player the playback service drives, so the pipeline behind it can be
+ * swapped and the service's handling of it exercised without one. Engines follow MediaPlayer's
+ * state rules: a data source is set on a reset engine, prepared asynchronously, then started,
+ * and stopped or reset before the next source.
+ *
+ * Listener callbacks arrive on the thread the engine was created on, the main thread in the
+ * service. Info & error codes share MediaPlayer's values.
+ */
+public interface PlaybackEngine {
+
+    int INFO_BUFFERING_START = 701;
+    int INFO_BUFFERING_END = 702;
+
+    int ERROR_UNKNOWN = 1;
+    int ERROR_INVALID_OPERATION = -38;
+    int ERROR_IO = -1004;
+
+    interface Listener {
+
+        void onPrepared(PlaybackEngine engine);
+
+        void onInfo(PlaybackEngine engine, int what, int extra);
+
+        void onError(PlaybackEngine engine, int what, int extra);
+
+        void onCompletion(PlaybackEngine engine);
+    }
+
+    // short name for logs & metrics
+    String getName();
+
+    // whether the engine keeps the cpu awake itself while playing
+    boolean holdsWakeLock();
+
+    void setListener(Listener listener);
+
+    void setDataSource(String url) throws IOException;
+
+    // calls onPrepared() once playback can start
+    void prepareAsync();
+
+    void start();
+
+    void pause();
+
+    void stop();
+
+    // back to idle, ready for a new data source
+    void reset();
+
+    // the engine can't be used again
+    void release();
+
+    boolean isPlaying();
+
+    // milliseconds of audio played
+    long getCurrentPosition();
+
+}
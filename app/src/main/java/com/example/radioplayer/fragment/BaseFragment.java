@@ -5,8 +5,8 @@ import android.os.Bundle;
 import android.support.v4.app.Fragment;
 
 import com.example.radioplayer.RadioPlayerApplication;
+import com.example.radioplayer.bus.EventBus;
 import com.example.radioplayer.event.BaseEvent;
-import com.squareup.otto.Bus;
 
 public class BaseFragment extends Fragment {
 
@@ -28,7 +28,7 @@ public class BaseFragment extends Fragment {
         RadioPlayerApplication.postToBus(event);
     }
 
-    protected Bus getAppBus() {
+    protected EventBus getAppBus() {
         return RadioPlayerApplication.getInstance().getBus();
     }
 
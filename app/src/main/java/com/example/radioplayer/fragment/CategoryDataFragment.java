@@ -8,13 +8,14 @@ import android.view.ViewGroup;
 
 import com.example.radioplayer.R;
 import com.example.radioplayer.RadioPlayerApplication;
+import com.example.radioplayer.bus.Subscribe;
+import com.example.radioplayer.bus.ThreadMode;
 import com.example.radioplayer.event.CategoryThreadCompletionEvent;
 import com.example.radioplayer.event.DataModelUpdateEvent;
 import com.example.radioplayer.event.MessageEvent;
 import com.example.radioplayer.model.Category;
 import com.example.radioplayer.network.CategoryThread;
 import com.example.radioplayer.util.Utils;
-import com.squareup.otto.Subscribe;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -24,8 +25,8 @@ import timber.log.Timber;
 public class CategoryDataFragment extends BaseFragment{
 
     public static final String CATEGORY_DATA_FRAGMENT_TAG = "category_data_fragment";
-    private List<Category> mCategoryList = new ArrayList<>();
-    private boolean mIsStarted = false;
+    private volatile List<Category> mCategoryList = new ArrayList<>();
+    private volatile boolean mIsStarted = false;
 
     public CategoryDataFragment() {}
 
@@ -71,19 +72,23 @@ public class CategoryDataFragment extends BaseFragment{
     }
 
 
-    @Subscribe
+    // map the icons off the main thread, the list is only published once complete
+    @Subscribe(threadMode = ThreadMode.BACKGROUND)
     public void getCategoryList(CategoryThreadCompletionEvent event) {
+        // acknowledge the retained event, the result is now held by this fragment
+        getAppBus().removeStickyEvent(event);
+        List<Category> categoryList = event.getCategoryList();
+        setCategoryIcon(categoryList);
+        mCategoryList = categoryList;
         mIsStarted = false; // thread complete
-        mCategoryList = event.getCategoryList();
-        setCategoryIcon();
         Timber.i("Category thread complete, category data model updated");
         RadioPlayerApplication
                 .postToBus(new DataModelUpdateEvent(DataModelUpdateEvent.CATEGORY_MODEL_DATA));
     }
 
-    private void setCategoryIcon() {
-        for (int i = 0; i < mCategoryList.size(); i++) {
-            Category item = mCategoryList.get(i);
+    private void setCategoryIcon(List<Category> categoryList) {
+        for (int i = 0; i < categoryList.size(); i++) {
+            Category item = categoryList.get(i);
             String title = item.getTitle().toLowerCase();
             if(title.contains("classical"))
                 item.setIcon(R.drawable.icon_classical);
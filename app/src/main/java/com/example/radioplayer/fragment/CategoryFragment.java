@@ -14,9 +14,9 @@ import com.example.radioplayer.R;
 import com.example.radioplayer.adapter.AutofitRecyclerView;
 import com.example.radioplayer.adapter.CustomItemDecoration;
 import com.example.radioplayer.adapter.GridItemAdapter;
+import com.example.radioplayer.bus.Subscribe;
 import com.example.radioplayer.event.RefreshUIEvent;
 import com.example.radioplayer.model.Category;
-import com.squareup.otto.Subscribe;
 
 import java.util.ArrayList;
 import java.util.List;
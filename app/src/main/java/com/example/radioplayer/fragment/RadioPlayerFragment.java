@@ -1,15 +1,9 @@
 package com.example.radioplayer.fragment;
 
-import android.app.Application;
-import android.content.ComponentName;
-import android.content.Intent;
-import android.content.ServiceConnection;
 import android.graphics.drawable.AnimationDrawable;
-import android.net.Uri;
 import android.os.Bundle;
-import android.os.IBinder;
-import android.os.RemoteException;
 import android.support.annotation.Nullable;
+import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.view.LayoutInflater;
@@ -21,21 +15,20 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import com.example.radioplayer.R;
+import com.example.radioplayer.bus.Subscribe;
+import com.example.radioplayer.data.PlaybackQueue;
 import com.example.radioplayer.data.StationDataCache;
 import com.example.radioplayer.event.PlaybackServiceEvent;
 import com.example.radioplayer.event.QueuePositionEvent;
-import com.example.radioplayer.model.Station;
-import com.example.radioplayer.service.PlaybackService;
+import com.example.radioplayer.service.PlaybackController;
+import com.example.radioplayer.service.PlaybackMetrics;
+import com.example.radioplayer.service.PlaybackStateMachine;
 import com.example.radioplayer.util.Constants;
 import com.example.radioplayer.util.Utils;
-import com.squareup.otto.Subscribe;
-
-import java.util.List;
 
 import timber.log.Timber;
 
-public class RadioPlayerFragment extends BaseFragment implements
-        View.OnClickListener, ServiceConnection{
+public class RadioPlayerFragment extends BaseFragment implements View.OnClickListener {
 
     private static final String BUNDLE_STATE = "state";
 
@@ -48,13 +41,13 @@ public class RadioPlayerFragment extends BaseFragment implements
     private AnimationDrawable mEqualizerAnimation;
     private ProgressBar mProgressBar;
     private MediaControllerCompat mMediaController;
-    private List<Station> mQueue;
+    private PlaybackQueue mQueue;
     private int mQueuePosition;
+    private boolean mIsAttached; // opened on the session playing, rather than to play a station
     private int mState;
     private View mView;
-    private Application mAppContext;
     private String mName;
-    private boolean mWasPlaying;
+    private String mNowPlaying;
     private boolean mFirstTimeIn;
 
 
@@ -68,29 +61,29 @@ public class RadioPlayerFragment extends BaseFragment implements
         return fragment;
     }
 
+    // shows the station the session is playing, which may have been restored, without starting one
+    public static RadioPlayerFragment attachToSession() {
+        RadioPlayerFragment fragment = new RadioPlayerFragment();
+        Bundle args = new Bundle();
+        args.putBoolean(Constants.KEY_ATTACH_TO_SESSION, true);
+        fragment.setArguments(args);
+        return fragment;
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setRetainInstance(true);
 
-        // retrieve the queue & queue position
+        // retrieve the queue & queue position, the session's own where attaching to it
+        mIsAttached = getArguments().getBoolean(Constants.KEY_ATTACH_TO_SESSION);
+        mQueue = StationDataCache.getStationDataCache().getQueue();
         mQueuePosition = getArguments().getInt(Constants.KEY_QUEUE_POSITION);
-        mQueue = StationDataCache.getStationDataCache().getStationList();
-
-        mAppContext = (Application) getActivity().getApplicationContext();
-
-        // create the intent used to both start & bind to the service
-        Intent intent = new Intent(mAppContext, PlaybackService.class);
-        mAppContext.bindService(intent, this, 0);
-        Timber.i("Binding Playback Service");
-        mAppContext.startService(intent);
-    }
-
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        mAppContext.unbindService(this);
-        Timber.i("Unbinding Playback Service");
+        if(mIsAttached) {
+            mQueue = PlaybackQueue.EMPTY;
+            mQueuePosition = -1;
+            useSessionQueue();
+        }
     }
 
     @Nullable
@@ -118,13 +111,9 @@ public class RadioPlayerFragment extends BaseFragment implements
         mNextBtn = (ImageButton) mView.findViewById(R.id.action_next_button);
         mNextBtn.setOnClickListener(this);
 
-        // hide prev/next btns to prevent use if starting from the first or last station
-        if(mQueuePosition == 0) {
-            mPrevBtn.setVisibility(View.GONE);
-        }
-        if(mQueuePosition == mQueue.size() - 1) {
-            mNextBtn.setVisibility(View.GONE);
-        }
+        // hide prev/next btns to prevent use if starting from the first or last station, the
+        // queue pages in more stations while skipping until the last page has been loaded
+        updateSkipButtons();
 
         // ensure that the correct play/stop btn state is shown on rotation
         if(savedInstanceState != null) {
@@ -151,43 +140,60 @@ public class RadioPlayerFragment extends BaseFragment implements
             mProgressBar.setVisibility(View.VISIBLE);
         }
 
+        // share the app's media controller, connected at once where the service is already bound
+        PlaybackController.getInstance().addListener(mControllerListener);
+
         return mView;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        PlaybackController.getInstance().removeListener(mControllerListener);
+        mMediaController = null;
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        mState = mMediaController.getPlaybackState().getState();
+        mState = PlaybackController.getInstance().getState();
         outState.putInt(BUNDLE_STATE, mState);
     }
 
     @Override
     public void onClick(View view) {
+        if(mMediaController == null)
+            return;
         mState = mMediaController.getPlaybackState().getState();
         Timber.i("Current state onClick: %d", mState);
         switch(view.getId()) {
 
             case R.id.action_play_stop_button:
                 // start playback
-                if(mState == PlaybackStateCompat.STATE_NONE || mState == PlaybackStateCompat.STATE_STOPPED) {
+                if(PlaybackStateMachine.canPlay(mState)) {
                     Timber.i("Clicked play");
-                    playFromStationUri();
-                    // stop playback
-                } else if(mState == PlaybackStateCompat.STATE_BUFFERING
-                        || mState == PlaybackStateCompat.STATE_PLAYING
-                        || mState == PlaybackStateCompat.STATE_CONNECTING){
+                    if(mIsAttached)
+                        mMediaController.getTransportControls().play(); // the session's last station
+                    else
+                        playFromStationUri();
+                    // resume from the time-shift buffer
+                } else if(PlaybackStateMachine.canResume(mState)) {
+                    mMediaController.getTransportControls().play();
+                    Timber.i("Clicked resume");
+                    // pause playback, the service stops it where it can't time-shift
+                } else if(PlaybackStateMachine.canPause(mState)) {
+                    mMediaController.getTransportControls().pause();
+                    Timber.i("Clicked pause");
+                    // stop playback, the service resets a stream still buffering
+                } else {
                     mMediaController.getTransportControls().stop();
                     Timber.i("Clicked stop");
                 }
                 break;
 
+            // the service moves straight to the station skipped to, whatever the state
             case R.id.action_prev_button:
-                if(mState == PlaybackStateCompat.STATE_BUFFERING
-                        || mState == PlaybackStateCompat.STATE_PLAYING
-                        || mState == PlaybackStateCompat.STATE_CONNECTING) {
-                    mMediaController.getTransportControls().stop();
-                    mWasPlaying = true;
-                }
+                PlaybackMetrics.getInstance().startTrace();
                 mMediaController.getTransportControls().skipToPrevious();
                 if(mPlayerBackground.getVisibility() == View.VISIBLE)
                     Utils.fadeViewElement(mPlayerBackground, View.INVISIBLE, 1, 0);
@@ -195,12 +201,7 @@ public class RadioPlayerFragment extends BaseFragment implements
                 break;
 
             case R.id.action_next_button:
-                if(mState == PlaybackStateCompat.STATE_BUFFERING
-                        || mState == PlaybackStateCompat.STATE_PLAYING
-                        || mState == PlaybackStateCompat.STATE_CONNECTING) {
-                    mMediaController.getTransportControls().stop();
-                    mWasPlaying = true;
-                }
+                PlaybackMetrics.getInstance().startTrace();
                 mMediaController.getTransportControls().skipToNext();
                 if(mPlayerBackground.getVisibility() == View.VISIBLE)
                     Utils.fadeViewElement(mPlayerBackground, View.INVISIBLE, 1, 0);
@@ -209,39 +210,40 @@ public class RadioPlayerFragment extends BaseFragment implements
         }
     }
 
-    @Override
-    public void onServiceConnected(ComponentName name, IBinder service) {
-        if(service instanceof PlaybackService.ServiceBinder) {
-            try {
-                mMediaController = new MediaControllerCompat(mAppContext,
-                        ((PlaybackService.ServiceBinder) service).getService().getMediaSessionToken());
-
-                mMediaController.registerCallback(mMediaControllerCallback);
-                mState = mMediaController.getPlaybackState().getState();
-                Timber.i("Launching PlayerActivity, connecting to PlaybackService, current mState: %d", mState);
-
-                // start playback as soon as player activity launches
-                if(mState == PlaybackStateCompat.STATE_NONE || mState == PlaybackStateCompat.STATE_STOPPED) {
-                    playFromStationUri();
-                } else if(mState == PlaybackStateCompat.STATE_BUFFERING || mState == PlaybackStateCompat.STATE_PLAYING){
-                    // if already playing, stop and start the new selected stn
-                    mMediaController.getTransportControls().stop();
-                    playFromStationUri();
-                }
+    private PlaybackController.Listener mControllerListener =
+            new PlaybackController.Listener() {
 
-            } catch (RemoteException e) {
-                Timber.e("Error instantiating the media controller: %s", e.getMessage());
-            }
-        }
-    }
-
-    @Override
-    public void onServiceDisconnected(ComponentName name) {
-        Timber.i("Service unexpectedly disconnected");
-    }
+                @Override
+                public void onConnected(MediaControllerCompat controller) {
+                    mMediaController = controller;
+                    mState = mMediaController.getPlaybackState().getState();
+                    Timber.i("Player connected to PlaybackService, current mState: %d", mState);
+                    if(!mFirstTimeIn) // stop restarting every time the device rotates
+                        return;
+                    mFirstTimeIn = false;
+
+                    // opened from the notification, show the session's station & state as they are
+                    if(mIsAttached) {
+                        useSessionQueue();
+                        setStationTitle();
+                        updateSkipButtons();
+                        onPlaybackStateChanged(mMediaController.getPlaybackState());
+                        if(mState != PlaybackStateCompat.STATE_BUFFERING)
+                            Utils.fadeViewElement(mProgressBar, View.GONE, 1, 0);
+                        return;
+                    }
 
-    private MediaControllerCompat.Callback mMediaControllerCallback =
-            new MediaControllerCompat.Callback() {
+                    // the station tap usually started playback already, show how far it's got
+                    if(PlaybackController.getInstance().claimPlay(mQueuePosition)) {
+                        if(mState == PlaybackStateCompat.STATE_BUFFERING || mState == PlaybackStateCompat.STATE_PLAYING)
+                            onPlaybackStateChanged(mMediaController.getPlaybackState());
+                        if(mState == PlaybackStateCompat.STATE_PLAYING)
+                            Utils.fadeViewElement(mProgressBar, View.GONE, 1, 0);
+                    } else {
+                        // otherwise start playback as soon as player activity launches, stopping any other stn
+                        playFromStationUri();
+                    }
+                }
 
                 @Override
                 public void onPlaybackStateChanged(PlaybackStateCompat state) {
@@ -250,11 +252,15 @@ public class RadioPlayerFragment extends BaseFragment implements
                         case PlaybackStateCompat.STATE_STOPPED:
                             Timber.i("State Stopped/None");
                             mPlayStopBtn.setImageResource(R.drawable.action_play);
-                            if(!mWasPlaying) {
-                                Utils.fadeViewElement(mPlayerBackground, View.VISIBLE, 0, 1);
-                            } else {
-                                mWasPlaying = false;
+                            Utils.fadeViewElement(mPlayerBackground, View.VISIBLE, 0, 1);
+                            if(mEqualizer.getVisibility() == View.VISIBLE){
+                                Utils.fadeViewElement(mEqualizer, View.INVISIBLE, 1, 0);
+                                mEqualizerAnimation.stop();
                             }
+                            break;
+                        case PlaybackStateCompat.STATE_PAUSED:
+                            Timber.i("State Paused");
+                            mPlayStopBtn.setImageResource(R.drawable.action_play);
                             if(mEqualizer.getVisibility() == View.VISIBLE){
                                 Utils.fadeViewElement(mEqualizer, View.INVISIBLE, 1, 0);
                                 mEqualizerAnimation.stop();
@@ -277,7 +283,16 @@ public class RadioPlayerFragment extends BaseFragment implements
                     }
                 }
 
-                // IMPL onMetaDataChanged ot update the station title
+                // show the now playing title from the stream under the station name
+                @Override
+                public void onMetadataChanged(MediaMetadataCompat metadata) {
+                    String nowPlaying = metadata != null
+                            ? metadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE) : null;
+                    if(nowPlaying == null ? mNowPlaying != null : !nowPlaying.equals(mNowPlaying)) {
+                        mNowPlaying = nowPlaying;
+                        setStationTitle();
+                    }
+                }
             };
 
     // HELPER METHODS ///////////////////////////////////////////////////////
@@ -301,60 +316,53 @@ public class RadioPlayerFragment extends BaseFragment implements
 
     @Subscribe
     public void getQueuePositionEvent(QueuePositionEvent event) {
-        // update queue position and station title
+        // update queue position and station title, the position is in the session's queue
         mQueuePosition = event.getQueuePosition();
+        useSessionQueue();
+        mNowPlaying = null;
         setStationTitle();
-        if(mQueuePosition == 0) {
-            mPrevBtn.setVisibility(View.GONE);
-        } else if(mQueuePosition == mQueue.size() - 1){
-            mNextBtn.setVisibility(View.GONE);
-        } else {
-            mNextBtn.setVisibility(View.VISIBLE);
-            mPrevBtn.setVisibility(View.VISIBLE);
-        }
+        updateSkipButtons();
         Timber.i("Queue position: %s", mQueuePosition);
     }
 
+    // the snapshot the session plays from, once bound, which pages in more as it grows
+    private void useSessionQueue() {
+        PlaybackController controller = PlaybackController.getInstance();
+        PlaybackQueue queue = controller.getQueue();
+        if(queue == null)
+            return;
+        mQueue = queue;
+        if(mIsAttached)
+            mQueuePosition = controller.getQueuePosition();
+    }
+
+    private void updateSkipButtons() {
+        boolean isLastStation = mQueuePosition >= mQueue.size() - 1 && mQueue.isLastPage();
+        mPrevBtn.setVisibility(mQueuePosition > 0 ? View.VISIBLE : View.GONE);
+        mNextBtn.setVisibility(mQueuePosition >= 0 && !isLastStation ? View.VISIBLE : View.GONE);
+    }
+
     private void setStationTitle() {
-        mName = mQueue.get(mQueuePosition).getName();
-        if(mName != null)
+        if(mQueuePosition >= 0 && mQueuePosition < mQueue.size()) {
+            mName = mQueue.getName(mQueuePosition);
+        } else {
+            // not in the queue, the station the session last described
+            MediaMetadataCompat metadata = mMediaController != null ? mMediaController.getMetadata() : null;
+            mName = metadata != null ? metadata.getString(MediaMetadataCompat.METADATA_KEY_DISPLAY_TITLE) : null;
+        }
+        if(mName != null && mNowPlaying != null)
+            mStationTitle.setText(mName + "\n" + mNowPlaying);
+        else if(mName != null)
             mStationTitle.setText(mName);
     }
 
     private void playFromStationUri() {
-        Station stn = mQueue.get(mQueuePosition);
-        if(stn != null) {
-            String name = stn.getName() != null? stn.getName() : "";
-            String slug = stn.getSlug() != null? stn.getSlug() : "";
-            String country = stn.getCountry() != null? stn.getCountry() : "";
-            String imageUrl = stn.getImage().getUrl() != null? stn.getImage().getUrl() : "";
-            String thumbUrl = stn.getImage().getThumb().getUrl() != null? stn.getImage().getThumb().getUrl() : "";
-            String url = Utils.getStream(stn);
-
-            if(url != null) {
-                Timber.i("Url: %s, station: %s", url, stn.getName());
-                Uri uri = Uri.parse(url);
-                Bundle extras = new Bundle();
-                extras.putParcelable(PlaybackService.EXTRA_STATION_URI, uri);
-                extras.putString(PlaybackService.EXTRA_STATION_NAME, name);
-                extras.putString(PlaybackService.EXTRA_STATION_SLUG, slug);
-                extras.putString(PlaybackService.EXTRA_STATION_COUNTRY, country);
-                extras.putString(PlaybackService.EXTRA_STATION_IMAGE_URL, imageUrl);
-                extras.putString(PlaybackService.EXTRA_STATION_THUMB_URL, thumbUrl);
-                extras.putInt(PlaybackService.EXTRA_STATION_QUEUE_POSITION, mQueuePosition);
-
-                // playFromUri() works on emulators api 16-19, not on api 21+
-                //mMediaController.getTransportControls().playFromUri(uri, extras);
-                mMediaController.getTransportControls().playFromSearch("", extras);
-
-                // show the progress bar while buffering the audio stream
-                Utils.fadeViewElement(mProgressBar, View.VISIBLE, 0, 1);
-
-            } else {
-                displayMessage(PlaybackServiceEvent.ON_NO_STREAM_FOUND);
-            }
+        if(PlaybackController.getInstance().play(mQueuePosition)) {
+            // show the progress bar while buffering the audio stream
+            Utils.fadeViewElement(mProgressBar, View.VISIBLE, 0, 1);
+        } else {
+            displayMessage(PlaybackServiceEvent.ON_NO_STREAM_FOUND);
         }
-
     }
 
     private void displayMessage(String message) {
@@ -12,14 +12,14 @@ import com.example.radioplayer.R;
 import com.example.radioplayer.RadioPlayerApplication;
 import com.example.radioplayer.adapter.CustomItemDecoration;
 import com.example.radioplayer.adapter.ListItemAdapter;
+import com.example.radioplayer.bus.Subscribe;
 import com.example.radioplayer.data.StationDataCache;
 import com.example.radioplayer.event.MessageEvent;
 import com.example.radioplayer.event.StationThreadCompletionEvent;
 import com.example.radioplayer.model.Station;
-import com.example.radioplayer.network.StationThread;
 import com.example.radioplayer.util.Constants;
 import com.example.radioplayer.util.Utils;
-import com.squareup.otto.Subscribe;
+import com.example.radioplayer.util.ViewPreloader;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -35,13 +35,10 @@ import timber.log.Timber;
 
 public class StationFragment extends BaseFragment{
 
-    private static final String BUNDLE_PAGE_NUMBER = "page_number";
     private List<Station> mStationList = new LinkedList<>();
     private ListItemAdapter mAdapter;
     private Long mCategoryId;
     private int mIcon;
-    private boolean mIsStarted = false;
-    private int mPageCount = 0;
     private RecyclerView mRecyclerView;
 
     private int mPreviousTotal, mVisibleThreshold, mFirstVisibleItem, mVisibleItemCount, mTotalItemCount;
@@ -75,15 +72,16 @@ public class StationFragment extends BaseFragment{
         View view = inflater.inflate(R.layout.list_recycler, container, false);
         mRecyclerView = (RecyclerView) view.findViewById(R.id.recycler_view);
         final LinearLayoutManager layoutManager = new LinearLayoutManager(getActivity());
+        // hand rows back to the shared pool when the fragment is replaced
+        layoutManager.setRecycleChildrenOnDetach(true);
         mRecyclerView.setLayoutManager(layoutManager);
+        mRecyclerView.setRecycledViewPool(ViewPreloader.getInstance().getStationViewPool());
         mRecyclerView.addItemDecoration(new CustomItemDecoration(getResources().getDimensionPixelSize(R.dimen.dimen_space)));
         mAdapter = new ListItemAdapter(mStationList, getActivity(), mIcon);
         if(isAdded())
             mRecyclerView.setAdapter(mAdapter);
 
         if(savedInstanceState != null) {
-            // retrieve page number from the bundle
-            mPageCount = savedInstanceState.getInt(BUNDLE_PAGE_NUMBER);
             // retrieve the station list from the cache on rotation
             setStationList();
         } else {
@@ -123,20 +121,10 @@ public class StationFragment extends BaseFragment{
     }
 
 
-    @Override
-    public void onSaveInstanceState(Bundle outState) {
-        super.onSaveInstanceState(outState);
-        outState.putInt(BUNDLE_PAGE_NUMBER, mPageCount);
-    }
-
-
     private void downloadStationData() {
         if(Utils.isClientConnected(getActivity())) {
-            if(!mIsStarted) {
-                mIsStarted = true;
-                ++mPageCount;
-                new StationThread("StationThread", getActivity(), mCategoryId, mPageCount).start();
-            }
+            // pages are counted by the cache, the playback queue may have loaded some already
+            StationDataCache.getStationDataCache().loadNextPage(getActivity(), mCategoryId);
         } else {
             Timber.i("Client not connected");
             RadioPlayerApplication.postToBus(new MessageEvent("Not connected, check connection"));
@@ -146,8 +134,12 @@ public class StationFragment extends BaseFragment{
 
     @Subscribe
     public void refreshUi(StationThreadCompletionEvent event) {
+        // acknowledge the retained event, stations are read from the cache from here on
+        getAppBus().removeStickyEvent(event);
         if(event.isThreadComplete()) {
-            mIsStarted = false;
+            // replayed on register before the view exists, onCreateView reads the cache
+            if(mAdapter == null)
+                return;
             // refresh the station list with the most up-to-date list from the cache
             mAdapter.clear();
             setStationList();
@@ -161,9 +153,8 @@ public class StationFragment extends BaseFragment{
 
 
     private void setStationList() {
-        // pass a copy of the station list to the adapter
-        List<Station> list = new LinkedList<>(StationDataCache.getStationDataCache().getStationList());
-        mAdapter.addAll(list);
+        // pass the latest snapshot of the station list to the adapter, which copies it
+        mAdapter.addAll(StationDataCache.getStationDataCache().getQueue().getStations());
         mAdapter.notifyDataSetChanged();
     }
 
@@ -31,6 +31,11 @@ public class Image implements Parcelable {
     public Image() {
     }
 
+    public Image(String url, Thumb thumb) {
+        this.url = url;
+        this.thumb = thumb;
+    }
+
     protected Image(Parcel in) {
         this.url = in.readString();
         this.thumb = in.readParcelable(Thumb.class.getClassLoader());
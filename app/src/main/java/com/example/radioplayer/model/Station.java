@@ -155,6 +155,11 @@ public class Station implements Parcelable {
     private String facebook;
     private List<Stream> streams;
 
+    // display values resolved once at ingest, not part of the json
+    private transient String displayName;
+    private transient String displayCountry;
+    private transient String logoUrl;
+
     public Long getId() {
         return id;
     }
@@ -191,6 +196,35 @@ public class Station implements Parcelable {
         return streams;
     }
 
+    // resolve the values used when binding list rows, call once after parsing
+    public void prepareForDisplay() {
+        displayName = name != null ? name : "";
+        displayCountry = country != null ? country : "";
+
+        // use the large image where the thumb is not available
+        String url = null;
+        if(image != null) {
+            if(image.getThumb() != null)
+                url = image.getThumb().getUrl();
+            if(url == null || url.isEmpty())
+                url = image.getUrl();
+        }
+        logoUrl = url != null && !url.isEmpty() ? url : null;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getDisplayCountry() {
+        return displayCountry;
+    }
+
+    // null where the station has no logo
+    public String getLogoUrl() {
+        return logoUrl;
+    }
+
     @Override
     public String toString() {
         return String.format("%s", getName());
@@ -218,6 +252,17 @@ public class Station implements Parcelable {
     public Station() {
     }
 
+    // a station rebuilt from storage rather than parsed, prepared for display as parsed ones are
+    public Station(Long id, String name, String country, Image image, String slug, List<Stream> streams) {
+        this.id = id;
+        this.name = name;
+        this.country = country;
+        this.image = image;
+        this.slug = slug;
+        this.streams = streams;
+        prepareForDisplay();
+    }
+
     protected Station(Parcel in) {
         this.id = (Long) in.readValue(Long.class.getClassLoader());
         this.name = in.readString();
@@ -228,6 +273,7 @@ public class Station implements Parcelable {
         this.twitter = in.readString();
         this.facebook = in.readString();
         this.streams = in.createTypedArrayList(Stream.CREATOR);
+        prepareForDisplay();
     }
 
     public static final Creator<Station> CREATOR = new Creator<Station>() {
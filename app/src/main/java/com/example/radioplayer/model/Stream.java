@@ -49,6 +49,13 @@ public class Stream implements Parcelable {
     public Stream() {
     }
 
+    public Stream(String stream, Integer bitrate, String contentType, Integer status) {
+        this.stream = stream;
+        this.bitrate = bitrate;
+        this.content_type = contentType;
+        this.status = status;
+    }
+
     protected Stream(Parcel in) {
         this.stream = in.readString();
         this.bitrate = (Integer) in.readValue(Integer.class.getClassLoader());
@@ -25,6 +25,10 @@ public class Thumb implements Parcelable {
     public Thumb() {
     }
 
+    public Thumb(String url) {
+        this.url = url;
+    }
+
     protected Thumb(Parcel in) {
         this.url = in.readString();
     }
@@ -56,7 +56,7 @@ public class CategoryThread extends Thread{
 
                 if(array != null) {
                     List<Category> categories = new ArrayList<>(Arrays.asList(array));
-                    RadioPlayerApplication.postToBus(new CategoryThreadCompletionEvent(categories));
+                    RadioPlayerApplication.postStickyToBus(new CategoryThreadCompletionEvent(categories));
                 } else {
                     Timber.i("No results received from remote server");
                     // post message to bus - display snackbar to user
@@ -59,6 +59,8 @@ public class StationThread extends Thread{
                 .build();
         Timber.i("Url: %s", stationUri);
 
+        StationDataCache cache = StationDataCache.getStationDataCache();
+        boolean isLoaded = false;
         try {
             OkHttpClient client = new OkHttpClient();
             client.networkInterceptors().add(new StethoInterceptor()); // intercept network traffic
@@ -72,15 +74,21 @@ public class StationThread extends Thread{
                 Station[] data = new Gson().fromJson(reader, Station[].class);
                 if(data != null) {
 
-                    if(data.length == 0 && mPage > 1) {
-                        Timber.i("END OF THE LINE!!!");
-                        RadioPlayerApplication.postToBus(new StationThreadCompletionEvent(true, true));
-                    } else {
-                        // stash the station list in the data cache
-                        StationDataCache.getStationDataCache().setStationList(new LinkedList<>(Arrays.asList(data)));
-                        // let the station fragment know the station list has been updated
-                        RadioPlayerApplication.postToBus(new StationThreadCompletionEvent(true, false));
+                    // resolve display strings & logo urls off the main thread
+                    for (Station stn : data) {
+                        stn.prepareForDisplay();
                     }
+                    // stash the page in the data cache, dropped if the category changed meanwhile
+                    if(cache.onPageLoaded(mCategoryId, new LinkedList<>(Arrays.asList(data)))) {
+                        if(data.length == 0 && mPage > 1) {
+                            Timber.i("END OF THE LINE!!!");
+                            RadioPlayerApplication.postStickyToBus(new StationThreadCompletionEvent(true, true));
+                        } else {
+                            // let the station fragment & playback queue know the station list has been updated
+                            RadioPlayerApplication.postStickyToBus(new StationThreadCompletionEvent(true, false));
+                        }
+                    }
+                    isLoaded = true;
 
                 } else {
                     Timber.i("No results received from remote server");
@@ -96,5 +104,9 @@ public class StationThread extends Thread{
             Timber.e("Exception parsing json: %s", e.getMessage());
         }
 
+        // allow the page to be requested again, a playback queue waiting on it gives up
+        if(!isLoaded && cache.onPageFailed(mCategoryId))
+            RadioPlayerApplication.postToBus(new StationThreadCompletionEvent(false, false));
+
     }
 }
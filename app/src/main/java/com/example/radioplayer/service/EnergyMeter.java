@@ -0,0 +1,97 @@
+package com.example.radioplayer.service;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+
+import com.example.radioplayer.stream.StreamStats;
+
+import java.io.PrintStream;
+
+/**
+ * Battery drain & radio active time while playing, kept separately for continuous and burst
+ * reading so the two can be compared, printed with ./dumpapp radioplayer energy. Time on the
+ * charger isn't counted. The battery level only moves in whole percents so figures need an hour
+ * or so to settle.
+ */
+class EnergyMeter {
+
+    private static final IntentFilter BATTERY_FILTER = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+
+    private final Context mContext;
+    private final StreamStats mStats;
+    private final Mode mContinuous = new Mode("Continuous");
+    private final Mode mBurst = new Mode("Burst");
+    private Mode mMode; // null while not playing or charging
+    private long mStartedAt;
+    private float mStartLevel;
+    private long mStartRadioIdle;
+
+    private static class Mode {
+        final String mName;
+        long mMillis;
+        long mRadioIdleMillis;
+        float mDrain; // percent
+
+        Mode(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String toString() {
+            if(mMillis < 60 * 1000)
+                return mName + ": under a minute measured";
+            return String.format("%s: %.1f%% battery per hour over %dmin, radio active %d%%", mName,
+                    mDrain * 60 * 60 * 1000 / mMillis, mMillis / 60 / 1000,
+                    (mMillis - mRadioIdleMillis) * 100 / mMillis);
+        }
+    }
+
+    EnergyMeter(Context context, StreamStats stats) {
+        mContext = context.getApplicationContext();
+        mStats = stats;
+    }
+
+    // playback started or resumed, or the mode changed while playing
+    synchronized void start(boolean burst) {
+        stop();
+        Intent battery = mContext.registerReceiver(null, BATTERY_FILTER);
+        if(battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0)
+            return;
+        mMode = burst ? mBurst : mContinuous;
+        mStartedAt = SystemClock.elapsedRealtime();
+        mStartLevel = getLevel(battery);
+        mStartRadioIdle = mStats.getTotalRadioIdleMillis();
+    }
+
+    // playback stopped or paused
+    synchronized void stop() {
+        if(mMode == null)
+            return;
+        Intent battery = mContext.registerReceiver(null, BATTERY_FILTER);
+        if(battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+            mMode.mMillis += SystemClock.elapsedRealtime() - mStartedAt;
+            mMode.mRadioIdleMillis += mStats.getTotalRadioIdleMillis() - mStartRadioIdle;
+            mMode.mDrain += Math.max(0, mStartLevel - getLevel(battery));
+        }
+        mMode = null;
+    }
+
+    // completed periods, the one in progress is folded in when playback stops
+    synchronized void dump(PrintStream out) {
+        out.println(mContinuous);
+        out.println(mBurst);
+        if(mMode != null)
+            out.println(String.format("Measuring %s for %ds", mMode.mName,
+                    (SystemClock.elapsedRealtime() - mStartedAt) / 1000));
+    }
+
+    private static float getLevel(Intent battery) {
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        return level * 100f / scale;
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.example.radioplayer.service;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+
+import com.example.radioplayer.data.LastPlayedStore;
+import com.example.radioplayer.model.Stream;
+import com.example.radioplayer.stream.StreamResolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Saves the station playing in the LastPlayedStore and restores it when the service starts
+ * in a new process. Restoring reads the file, puts the saved endpoint back in the resolver
+ * while it's fresh, otherwise resolves the stream again, and looks up the endpoint's host, so
+ * resuming only has to connect. All of it runs on the keeper's thread, the station restored
+ * is handed to the listener on the main thread.
+ */
+class LastPlayedKeeper implements Handler.Callback {
+
+    // on the keeper's thread
+    private static final int MSG_SAVE = 1;
+    private static final int MSG_RESTORE = 2;
+    private static final int MSG_QUIT = 3;
+    // on the main thread
+    private static final int MSG_RESTORED = 4;
+
+    interface Listener {
+
+        // null where nothing was saved or it couldn't be read
+        void onRestored(LastPlayedStore.LastPlayed lastPlayed);
+    }
+
+    private final LastPlayedStore mStore;
+    private final StreamResolver mResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper(), this);
+    private final Handler mHandler;
+    private Listener mListener;
+
+    LastPlayedKeeper(File directory, StreamResolver resolver) {
+        mStore = new LastPlayedStore(directory);
+        mResolver = resolver;
+        HandlerThread thread = new HandlerThread("LastPlayedKeeper");
+        thread.start();
+        mHandler = new Handler(thread.getLooper(), this);
+    }
+
+    void restore(Listener listener) {
+        mListener = listener;
+        mHandler.sendEmptyMessage(MSG_RESTORE);
+    }
+
+    // the station has started playing, its queue snapshot is immutable so is safe to hand over
+    void save(LastPlayedStore.LastPlayed lastPlayed) {
+        mHandler.obtainMessage(MSG_SAVE, lastPlayed).sendToTarget();
+    }
+
+    // saves still queued are written first, a restore in flight is never delivered
+    void quit() {
+        mListener = null;
+        mMainHandler.removeMessages(MSG_RESTORED);
+        mHandler.sendEmptyMessage(MSG_QUIT);
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_SAVE:
+                try {
+                    mStore.save((LastPlayedStore.LastPlayed) msg.obj);
+                } catch (IOException e) {
+                    Timber.e("Error saving the last station played: %s", e.getMessage());
+                }
+                return true;
+            case MSG_RESTORE:
+                mMainHandler.obtainMessage(MSG_RESTORED, load()).sendToTarget();
+                return true;
+            case MSG_QUIT:
+                Looper.myLooper().quit();
+                return true;
+            case MSG_RESTORED:
+                if(mListener != null)
+                    mListener.onRestored((LastPlayedStore.LastPlayed) msg.obj);
+                return true;
+        }
+        return false;
+    }
+
+    private LastPlayedStore.LastPlayed load() {
+        LastPlayedStore.LastPlayed lastPlayed;
+        try {
+            lastPlayed = mStore.load();
+        } catch (IOException e) {
+            Timber.e("Error restoring the last station played: %s", e.getMessage());
+            mStore.clear();
+            return null;
+        }
+        if(lastPlayed == null)
+            return null;
+
+        // the saved endpoint for the time it had left, or resolved afresh, playlists only touch the network
+        String url = lastPlayed.getStreamUrl();
+        long age = System.currentTimeMillis() - lastPlayed.getSavedAt();
+        String endpoint;
+        if(lastPlayed.getEndpoint() != null && age >= 0 && age < StreamResolver.RESOLVED_TTL_MS) {
+            mResolver.restore(url, lastPlayed.getEndpoint(), StreamResolver.RESOLVED_TTL_MS - age);
+            endpoint = lastPlayed.getEndpoint();
+        } else {
+            endpoint = mResolver.resolve(url, getContentType(lastPlayed, url));
+        }
+
+        // the address is cached by the platform, saving the lookup when connecting
+        String host = endpoint != null ? Uri.parse(endpoint).getHost() : null;
+        if(host != null) {
+            try {
+                InetAddress.getAllByName(host);
+            } catch (UnknownHostException e) {
+                Timber.i("Unable to look up %s: %s", host, e.getMessage());
+            }
+        }
+        Timber.i("Restored the last station played, %dmin old: %s", age / 60000, endpoint);
+        return lastPlayed;
+    }
+
+    // as listed for the station's stream played, null where it isn't known
+    private static String getContentType(LastPlayedStore.LastPlayed lastPlayed, String url) {
+        List<Stream> streams = lastPlayed.getQueue().getStation(lastPlayed.getPosition()).getStreams();
+        for (Stream stream : streams) {
+            if(url.equals(stream.getStream()))
+                return stream.getContent_type();
+        }
+        return null;
+    }
+
+}
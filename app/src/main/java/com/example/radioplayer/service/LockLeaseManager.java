@@ -0,0 +1,214 @@
+package com.example.radioplayer.service;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.support.v4.media.session.PlaybackStateCompat;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import timber.log.Timber;
+
+/**
+ * Holds the wifi lock, and a wake lock while buffering, for as long as the playback state needs
+ * them. Both are taken on entering playing or buffering and let go a grace period after stopping
+ * or pausing, so skipping stations doesn't churn them while a stopped session no longer keeps
+ * wifi up. MediaPlayer holds its own wake lock while playing; ours covers connecting and
+ * recovery, when it has none, and playing where the proxy's threads feed the player or the engine
+ * has none of its own. Paused on a time-shifting stream both are held while the buffer fills.
+ * The locks aren't reference counted so repeat acquires don't stack.
+ *
+ * Hold times are kept per session, from taking the locks to releasing them, and printed with
+ * ./dumpapp radioplayer locks.
+ */
+class LockLeaseManager {
+
+    static final long STOPPED_GRACE_MS = 15 * 1000;
+    // paused streams may carry on reading for a while
+    static final long PAUSED_GRACE_MS = 2 * 60 * 1000;
+    private static final int MAX_SESSIONS = 10;
+
+    private final WifiManager.WifiLock mWifiLock;
+    private final PowerManager.WakeLock mWakeLock;
+    private final Handler mHandler = new Handler();
+    private final Deque<Session> mSessions = new ArrayDeque<>(MAX_SESSIONS);
+    private Session mSession; // null while no lock is held
+    private int mState = PlaybackStateCompat.STATE_NONE;
+    private boolean mIsWakeNeededWhilePlaying;
+    private long mPausedFillMillis;
+
+    private static class Session {
+        long mStartedAt;
+        long mEndedAt;
+        long mWakeMillis;
+        long mWakeHeldAt; // 0 while not holding the wake lock
+        int mPlays; // times playback started or resumed under the lease
+
+        @Override
+        public String toString() {
+            return String.format("wifi %ds, wake %ds, %d plays",
+                    (mEndedAt - mStartedAt) / 1000, mWakeMillis / 1000, mPlays);
+        }
+    }
+
+    LockLeaseManager(Context context, String tag) {
+        context = context.getApplicationContext();
+        mWifiLock = ((WifiManager) context.getSystemService(Context.WIFI_SERVICE))
+                .createWifiLock(WifiManager.WIFI_MODE_FULL, tag);
+        mWifiLock.setReferenceCounted(false);
+        mWakeLock = ((PowerManager) context.getSystemService(Context.POWER_SERVICE))
+                .newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, tag);
+        mWakeLock.setReferenceCounted(false);
+    }
+
+    // called with each playback state the service moves to
+    synchronized void onStateChanged(int state) {
+        if(state == mState)
+            return;
+        mState = state;
+        mHandler.removeCallbacks(mExpire);
+        long now = SystemClock.elapsedRealtime();
+        switch (state) {
+            case PlaybackStateCompat.STATE_PLAYING:
+                acquireWifi(now);
+                if(mIsWakeNeededWhilePlaying)
+                    acquireWake(now);
+                else
+                    releaseWake(now);
+                ++mSession.mPlays;
+                break;
+            case PlaybackStateCompat.STATE_BUFFERING:
+            case PlaybackStateCompat.STATE_CONNECTING:
+                acquireWifi(now);
+                acquireWake(now);
+                break;
+            case PlaybackStateCompat.STATE_PAUSED:
+                if(mPausedFillMillis > 0) {
+                    // the stream carries on into the time-shift buffer until it's full
+                    acquireWifi(now);
+                    acquireWake(now);
+                    expireAfter(mPausedFillMillis);
+                } else {
+                    releaseWake(now);
+                    expireAfter(PAUSED_GRACE_MS);
+                }
+                break;
+            default:
+                releaseWake(now);
+                expireAfter(STOPPED_GRACE_MS);
+                break;
+        }
+    }
+
+    // where nothing else keeps the cpu awake while playing, our wake lock is held then too
+    synchronized void setWakeNeededWhilePlaying(boolean needed) {
+        if(needed == mIsWakeNeededWhilePlaying)
+            return;
+        mIsWakeNeededWhilePlaying = needed;
+        if(mState != PlaybackStateCompat.STATE_PLAYING)
+            return;
+        long now = SystemClock.elapsedRealtime();
+        if(needed)
+            acquireWake(now);
+        else
+            releaseWake(now);
+    }
+
+    // how long a pause keeps filling the time-shift buffer, 0 where the stream isn't time-shifted
+    synchronized void setPausedFillMillis(long millis) {
+        mPausedFillMillis = millis;
+    }
+
+    // release everything now, the service is going away
+    synchronized void release() {
+        mHandler.removeCallbacks(mExpire);
+        end(SystemClock.elapsedRealtime());
+    }
+
+    synchronized void dump(PrintStream out) {
+        long now = SystemClock.elapsedRealtime();
+        out.println("Wifi lock " + (mWifiLock.isHeld() ? "held" : "released")
+                + ", wake lock " + (mWakeLock.isHeld() ? "held" : "released"));
+        if(mSession != null) {
+            out.println("Current session " + snapshot(mSession, now));
+        }
+        long wifi = 0;
+        long wake = 0;
+        for (Session session : mSessions) {
+            out.println("Session " + session);
+            wifi += session.mEndedAt - session.mStartedAt;
+            wake += session.mWakeMillis;
+        }
+        if(!mSessions.isEmpty())
+            out.println(String.format("Last %d sessions: wifi %ds, wake %ds",
+                    mSessions.size(), wifi / 1000, wake / 1000));
+    }
+
+    private void acquireWifi(long now) {
+        if(mSession == null) {
+            mSession = new Session();
+            mSession.mStartedAt = now;
+        }
+        if(!mWifiLock.isHeld())
+            mWifiLock.acquire();
+    }
+
+    private void acquireWake(long now) {
+        if(mSession.mWakeHeldAt == 0) {
+            mWakeLock.acquire();
+            mSession.mWakeHeldAt = now;
+        }
+    }
+
+    private void releaseWake(long now) {
+        if(mSession == null || mSession.mWakeHeldAt == 0)
+            return;
+        mWakeLock.release();
+        mSession.mWakeMillis += now - mSession.mWakeHeldAt;
+        mSession.mWakeHeldAt = 0;
+    }
+
+    private void expireAfter(long graceMillis) {
+        if(mSession != null)
+            mHandler.postDelayed(mExpire, graceMillis);
+    }
+
+    private void end(long now) {
+        if(mSession == null)
+            return;
+        releaseWake(now);
+        if(mWifiLock.isHeld())
+            mWifiLock.release();
+        mSession.mEndedAt = now;
+        if(mSessions.size() == MAX_SESSIONS)
+            mSessions.removeFirst();
+        mSessions.addLast(mSession);
+        Timber.i("Released locks, held for %s", mSession);
+        mSession = null;
+    }
+
+    // the session as it would be were it ended now
+    private static Session snapshot(Session session, long now) {
+        Session copy = new Session();
+        copy.mStartedAt = session.mStartedAt;
+        copy.mEndedAt = now;
+        copy.mWakeMillis = session.mWakeMillis
+                + (session.mWakeHeldAt != 0 ? now - session.mWakeHeldAt : 0);
+        copy.mPlays = session.mPlays;
+        return copy;
+    }
+
+    private final Runnable mExpire = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (LockLeaseManager.this) {
+                end(SystemClock.elapsedRealtime());
+            }
+        }
+    };
+
+}
@@ -0,0 +1,213 @@
+package com.example.radioplayer.service;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.support.v4.media.session.MediaControllerCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+
+import com.example.radioplayer.data.PlaybackQueue;
+import com.example.radioplayer.data.StationDataCache;
+import com.example.radioplayer.model.Station;
+import com.example.radioplayer.util.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Singleton bound to the PlaybackService for the life of the app, so a station tap can start
+ * playback at once and buffering overlaps the player screen's transition & layout. The player
+ * UI claims the play when it appears and attaches to the session already in flight.
+ *
+ * The service is bound once & its session token cached, UI components share the one
+ * MediaController through listeners rather than each binding, so opening the player doesn't
+ * wait on a bind and nothing is left bound when they go.
+ */
+
+public class PlaybackController implements ServiceConnection {
+
+    private static PlaybackController sPlaybackController;
+
+    private Context mContext;
+    private MediaSessionCompat.Token mSessionToken;
+    private MediaControllerCompat mMediaController; // null until bound
+    private PlaybackService mService; // null until bound, it runs in the app's process
+    private final List<Listener> mListeners = new ArrayList<>();
+    private PlaybackQueue mPendingQueue;
+    private int mPendingPosition = -1; // tapped before the service was bound
+    private int mRequestedPosition = -1; // started from a tap, yet to be claimed by the player UI
+
+    // playback state & metadata callbacks for a UI component, which adds it while shown
+    public static abstract class Listener extends MediaControllerCompat.Callback {
+
+        // the service is bound, at once where it already was, transport controls can be used from here
+        public void onConnected(MediaControllerCompat controller) {}
+    }
+
+    private PlaybackController() {}
+
+    public static PlaybackController getInstance() {
+        if(sPlaybackController == null) {
+            sPlaybackController = new PlaybackController();
+        }
+        return sPlaybackController;
+    }
+
+    // called once from the application, must be called on the main thread
+    public void init(Context context) {
+        if(mContext != null)
+            return;
+        mContext = context.getApplicationContext();
+        mContext.bindService(new Intent(mContext, PlaybackService.class), this, Context.BIND_AUTO_CREATE);
+        Timber.i("Binding Playback Service");
+    }
+
+    // play the station at the queue position, false where it has no stream
+    public boolean play(int queuePosition) {
+        // the list shown, the cache's own list is still growing on the station thread
+        PlaybackQueue queue = StationDataCache.getStationDataCache().getQueue();
+        if(queuePosition < 0 || queuePosition >= queue.size()
+                || Utils.getStream(queue.getStation(queuePosition)) == null)
+            return false;
+        PlaybackMetrics.getInstance().startTrace();
+        mRequestedPosition = queuePosition;
+        // started as well as bound so playback outlives the UI
+        mContext.startService(new Intent(mContext, PlaybackService.class));
+        if(mMediaController != null) {
+            sendPlay(queue, queuePosition);
+        } else {
+            mPendingQueue = queue;
+            mPendingPosition = queuePosition;
+        }
+        return true;
+    }
+
+    // play the station last played again, the service restores it where the app was restarted
+    public void resume() {
+        Intent intent = new Intent(mContext, PlaybackService.class);
+        intent.setAction(PlaybackService.ACTION_PLAY);
+        // started as well as bound so playback outlives the UI
+        mContext.startService(intent);
+    }
+
+    // listeners must be removed again, at the latest when the component is destroyed
+    public void addListener(Listener listener) {
+        if(mListeners.contains(listener))
+            return;
+        mListeners.add(listener);
+        if(mMediaController != null) {
+            mMediaController.registerCallback(listener);
+            listener.onConnected(mMediaController);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        if(mListeners.remove(listener) && mMediaController != null)
+            mMediaController.unregisterCallback(listener);
+    }
+
+    public boolean isConnected() {
+        return mMediaController != null;
+    }
+
+    // null until the service is first bound
+    public MediaSessionCompat.Token getSessionToken() {
+        return mSessionToken;
+    }
+
+    // the session's state, STATE_NONE while unbound
+    public int getState() {
+        if(mMediaController == null || mMediaController.getPlaybackState() == null)
+            return PlaybackStateCompat.STATE_NONE;
+        return mMediaController.getPlaybackState().getState();
+    }
+
+    // the queue the session plays from, null until bound
+    public PlaybackQueue getQueue() {
+        return mService != null ? mService.getQueue() : null;
+    }
+
+    // the session's position in its queue, -1 until bound
+    public int getQueuePosition() {
+        return mService != null ? mService.getQueuePosition() : -1;
+    }
+
+    // true, once, where a tap already started this station, the player attaches rather than restarts
+    public boolean claimPlay(int queuePosition) {
+        if(mRequestedPosition != queuePosition)
+            return false;
+        mRequestedPosition = -1;
+        return true;
+    }
+
+    @Override
+    public void onServiceConnected(ComponentName name, IBinder service) {
+        if(!(service instanceof PlaybackService.ServiceBinder))
+            return;
+        try {
+            mService = ((PlaybackService.ServiceBinder) service).getService();
+            mSessionToken = mService.getMediaSessionToken();
+            mMediaController = new MediaControllerCompat(mContext, mSessionToken);
+        } catch (RemoteException e) {
+            Timber.e("Error instantiating the media controller: %s", e.getMessage());
+            return;
+        }
+        if(mPendingPosition >= 0) {
+            PlaybackMetrics.getInstance().markPhase(PlaybackMetrics.PHASE_BIND);
+            sendPlay(mPendingQueue, mPendingPosition);
+            mPendingQueue = null;
+            mPendingPosition = -1;
+        }
+        // copied, a listener may remove itself
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            mMediaController.registerCallback(listener);
+            listener.onConnected(mMediaController);
+        }
+    }
+
+    // the service died, it's rebound automatically & listeners reconnected
+    @Override
+    public void onServiceDisconnected(ComponentName name) {
+        Timber.i("Service unexpectedly disconnected");
+        for (Listener listener : mListeners) {
+            mMediaController.unregisterCallback(listener);
+        }
+        mMediaController = null;
+        mService = null;
+    }
+
+    // any other station playing is replaced by the service
+    private void sendPlay(PlaybackQueue queue, int queuePosition) {
+        Station stn = queue.getStation(queuePosition);
+        String name = queue.getName(queuePosition);
+        String slug = queue.getSlug(queuePosition);
+        String country = queue.getCountry(queuePosition);
+        String imageUrl = queue.getImageUrl(queuePosition);
+        String thumbUrl = queue.getThumbUrl(queuePosition);
+        String url = Utils.getStream(stn);
+        Timber.i("Url: %s, station: %s", url, stn.getName());
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(PlaybackService.EXTRA_STATION_URI, Uri.parse(url));
+        extras.putString(PlaybackService.EXTRA_STATION_NAME, name);
+        extras.putString(PlaybackService.EXTRA_STATION_SLUG, slug);
+        extras.putString(PlaybackService.EXTRA_STATION_COUNTRY, country);
+        extras.putString(PlaybackService.EXTRA_STATION_IMAGE_URL, imageUrl);
+        extras.putString(PlaybackService.EXTRA_STATION_THUMB_URL, thumbUrl);
+        extras.putInt(PlaybackService.EXTRA_STATION_QUEUE_POSITION, queuePosition);
+        if(stn.getId() != null)
+            extras.putLong(PlaybackService.EXTRA_STATION_ID, stn.getId());
+
+        // playFromUri() works on emulators api 16-19, not on api 21+
+        mMediaController.getTransportControls().playFromSearch("", extras);
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.example.radioplayer.service;
+
+import android.os.SystemClock;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Singleton holding playback timings, printed with ./dumpapp radioplayer playback
+ *
+ * A cold start is also traced phase by phase from the tap to first audio, each phase timed from
+ * the end of the one before, with rolling percentiles kept per phase & per stream host so the
+ * slowest stage stands out.
+ */
+
+public class PlaybackMetrics {
+
+    // the phases of a start, in order. Binding only happens when the player is opened
+    public static final int PHASE_BIND = 0;        // bindService() until onServiceConnected()
+    public static final int PHASE_REQUEST = 1;     // transport control until the session callback
+    public static final int PHASE_DATA_SOURCE = 2; // choosing the stream & setDataSource()
+    public static final int PHASE_PREPARE = 3;     // prepareAsync() until onPrepared()
+    public static final int PHASE_FOCUS = 4;       // the audio focus request & start()
+    private static final String[] PHASE_NAMES = {"Bind", "Request", "Data source", "Prepare", "Focus"};
+    private static final int PHASES = PHASE_NAMES.length;
+    private static final long TRACE_TIMEOUT_MS = 60 * 1000; // a trace older is abandoned
+    private static final int MAX_HOSTS = 16;
+
+    private static PlaybackMetrics sPlaybackMetrics;
+
+    // time from a play or skip request until audio starts, cold and from a standby player
+    private final Timing mColdStart = new Timing("Time to audio, cold start");
+    private final Timing mWarmStart = new Timing("Time to audio, standby player");
+    // from a stall or error mid-play until audio resumes
+    private final Timing mStallRecovery = new Timing("Stall recovery");
+
+    // the trace in progress, mTraceStartedAt is 0 when there's none
+    private long mTraceStartedAt;
+    private long mLastMarkAt;
+    private final long[] mPhaseMillis = new long[PHASES]; // -1 where not measured
+    // per phase followed by the total, overall & for the most recently played hosts
+    private final Percentiles[] mPhases = newPhasePercentiles();
+    private final Map<String, Percentiles[]> mHosts = new LinkedHashMap<String, Percentiles[]>(MAX_HOSTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Percentiles[]> eldest) {
+            return size() > MAX_HOSTS;
+        }
+    };
+
+    private PlaybackMetrics() {}
+
+    public static synchronized PlaybackMetrics getInstance() {
+        if(sPlaybackMetrics == null) {
+            sPlaybackMetrics = new PlaybackMetrics();
+        }
+        return sPlaybackMetrics;
+    }
+
+    public void recordTimeToAudio(boolean fromStandby, long millis) {
+        (fromStandby ? mWarmStart : mColdStart).record(millis);
+    }
+
+    public void recordStallRecovery(long millis) {
+        mStallRecovery.record(millis);
+    }
+
+    // the user asked for audio, replacing any trace not yet finished
+    public synchronized void startTrace() {
+        mTraceStartedAt = SystemClock.elapsedRealtime();
+        mLastMarkAt = mTraceStartedAt;
+        Arrays.fill(mPhaseMillis, -1);
+    }
+
+    // a phase has ended. Requests from outside the app, e.g. a headset skip, start their own trace
+    public synchronized void markPhase(int phase) {
+        long now = SystemClock.elapsedRealtime();
+        boolean isTracing = mTraceStartedAt != 0 && now - mTraceStartedAt < TRACE_TIMEOUT_MS;
+        if(phase == PHASE_REQUEST && (!isTracing || mPhaseMillis[PHASE_REQUEST] >= 0)) {
+            startTrace();
+            return;
+        }
+        if(!isTracing)
+            return;
+        mPhaseMillis[phase] = now - mLastMarkAt;
+        mLastMarkAt = now;
+    }
+
+    // audio has started from a cold start on the given host, recording the trace
+    public synchronized void finishTrace(String host) {
+        long now = SystemClock.elapsedRealtime();
+        if(mTraceStartedAt == 0 || now - mTraceStartedAt >= TRACE_TIMEOUT_MS) {
+            mTraceStartedAt = 0;
+            return;
+        }
+        Percentiles[] hostPhases = mHosts.get(host);
+        if(hostPhases == null) {
+            hostPhases = newPhasePercentiles();
+            mHosts.put(host, hostPhases);
+        }
+        for (int i = 0; i < PHASES; i++) {
+            if(mPhaseMillis[i] >= 0) {
+                mPhases[i].record(mPhaseMillis[i]);
+                hostPhases[i].record(mPhaseMillis[i]);
+            }
+        }
+        mPhases[PHASES].record(now - mTraceStartedAt);
+        hostPhases[PHASES].record(now - mTraceStartedAt);
+        mTraceStartedAt = 0;
+    }
+
+    // a trace that won't finish, the start was cancelled or came from a standby player
+    public synchronized void cancelTrace() {
+        mTraceStartedAt = 0;
+    }
+
+    public synchronized void dump(PrintStream out) {
+        out.println(mColdStart);
+        out.println(mWarmStart);
+        out.println(mStallRecovery);
+        out.println("Cold start phases, last " + Percentiles.WINDOW + " starts:");
+        for (int i = 0; i <= PHASES; i++) {
+            out.println("  " + getPhaseName(i) + ": " + mPhases[i]);
+        }
+        for (Map.Entry<String, Percentiles[]> entry : mHosts.entrySet()) {
+            Percentiles[] phases = entry.getValue();
+            StringBuilder line = new StringBuilder(entry.getKey()).append(": ").append(phases[PHASES]);
+            for (int i = 0; i < PHASES; i++) {
+                if(phases[i].getCount() > 0)
+                    line.append(", ").append(PHASE_NAMES[i].toLowerCase()).append(" p50 ")
+                            .append(phases[i].getPercentile(50)).append("ms");
+            }
+            out.println(line);
+        }
+    }
+
+    private static String getPhaseName(int phase) {
+        return phase < PHASES ? PHASE_NAMES[phase] : "Total";
+    }
+
+    private static Percentiles[] newPhasePercentiles() {
+        Percentiles[] phases = new Percentiles[PHASES + 1];
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Percentiles();
+        }
+        return phases;
+    }
+
+
+    private static class Timing {
+
+        private final String mName;
+        private long mCount;
+        private long mTotal;
+        private long mMin = Long.MAX_VALUE;
+        private long mMax;
+        private long mLast;
+
+        Timing(String name) {
+            mName = name;
+        }
+
+        synchronized void record(long millis) {
+            ++mCount;
+            mTotal += millis;
+            mMin = Math.min(mMin, millis);
+            mMax = Math.max(mMax, millis);
+            mLast = millis;
+        }
+
+        @Override
+        public synchronized String toString() {
+            if(mCount == 0)
+                return mName + ": no samples";
+            return String.format("%s: %d samples, avg %dms, min %dms, max %dms, last %dms",
+                    mName, mCount, mTotal / mCount, mMin, mMax, mLast);
+        }
+    }
+
+
+    // percentiles over the most recent WINDOW samples
+    private static class Percentiles {
+
+        static final int WINDOW = 100;
+
+        private final long[] mSamples = new long[WINDOW];
+        private long mCount;
+
+        void record(long millis) {
+            mSamples[(int) (mCount++ % WINDOW)] = millis;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getPercentile(int percent) {
+            return getPercentile(sorted(), percent);
+        }
+
+        private long[] sorted() {
+            long[] samples = Arrays.copyOf(mSamples, (int) Math.min(mCount, WINDOW));
+            Arrays.sort(samples);
+            return samples;
+        }
+
+        private static long getPercentile(long[] sorted, int percent) {
+            return sorted[Math.max(0, (sorted.length * percent + 99) / 100 - 1)];
+        }
+
+        @Override
+        public String toString() {
+            if(mCount == 0)
+                return "no samples";
+            long[] sorted = sorted();
+            return String.format("%d samples, p50 %dms, p90 %dms, p99 %dms, max %dms", mCount,
+                    getPercentile(sorted, 50), getPercentile(sorted, 90), getPercentile(sorted, 99),
+                    sorted[sorted.length - 1]);
+        }
+    }
+
+}
@@ -10,14 +10,15 @@ import android.content.IntentFilter;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.media.AudioManager;
-import android.media.MediaPlayer;
 import android.net.Uri;
-import android.net.wifi.WifiManager;
 import android.os.Binder;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
 import android.os.IBinder;
-import android.os.PowerManager;
+import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.media.MediaDescriptionCompat;
@@ -31,27 +32,59 @@ import android.support.v7.app.NotificationCompat;
 import com.example.radioplayer.R;
 import com.example.radioplayer.RadioPlayerApplication;
 import com.example.radioplayer.activity.RadioPlayerActivity;
+import com.example.radioplayer.bus.Subscribe;
+import com.example.radioplayer.data.LastPlayedStore;
+import com.example.radioplayer.data.PlaybackQueue;
 import com.example.radioplayer.data.StationDataCache;
+import com.example.radioplayer.engine.BufferedEngine;
+import com.example.radioplayer.engine.MediaPlayerEngine;
+import com.example.radioplayer.engine.PlaybackEngine;
 import com.example.radioplayer.event.MessageEvent;
 import com.example.radioplayer.event.PlaybackServiceEvent;
 import com.example.radioplayer.event.QueuePositionEvent;
+import com.example.radioplayer.event.StationThreadCompletionEvent;
 import com.example.radioplayer.model.Station;
-import com.example.radioplayer.util.Utils;
-
+import com.example.radioplayer.model.Stream;
+import com.example.radioplayer.stream.BandwidthMeter;
+import com.example.radioplayer.stream.RingBuffer;
+import com.example.radioplayer.stream.StallWatchdog;
+import com.example.radioplayer.stream.StreamProxy;
+import com.example.radioplayer.stream.StreamRecorder;
+import com.example.radioplayer.stream.StreamSelector;
+import com.example.radioplayer.util.DebugDumperPlugin;
+
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.List;
 
 import timber.log.Timber;
 
 public class PlaybackService extends Service implements
-        MediaPlayer.OnCompletionListener,
-        MediaPlayer.OnPreparedListener,
-        MediaPlayer.OnErrorListener,
+        PlaybackEngine.Listener,
         AudioManager.OnAudioFocusChangeListener{
 
     private static final String LOG_TAG = "PlaybackService";
     private static final int NOTIFY_ID = 101;
 
+    // the time-shift ring file, sized for the duration at the bitrate, higher bitrates get less
+    private static final String TIME_SHIFT_FILE = "timeshift.buf";
+    private static final int TIME_SHIFT_MINUTES = 30;
+    private static final int TIME_SHIFT_KBPS = 128;
+    private static final long REWIND_MS = 30 * 1000;
+
+    // now playing titles from the stream's metadata, updated at most once per interval
+    private static final int MSG_STREAM_TITLE = 1;
+    private static final int MSG_DEFERRED_STREAM_TITLE = 2;
+    private static final long TITLE_UPDATE_INTERVAL_MS = 5 * 1000;
+
+    // stall checks while playing, and the reconnect or failover scheduled after a stall
+    private static final int MSG_CHECK_STALL = 3;
+    private static final int MSG_RECOVER = 4;
+
+    // the queue's next page is fetched once playback is this close to the end of those loaded
+    private static final int QUEUE_PREFETCH_DISTANCE = 5;
+
     public static final String EXTRA_STATION_URI = "station_uri";
     public static final String EXTRA_STATION_NAME = "station_name";
     public static final String EXTRA_STATION_SLUG = "station_slug";
@@ -59,24 +92,74 @@ public class PlaybackService extends Service implements
     public static final String EXTRA_STATION_IMAGE_URL = "station_image_url";
     public static final String EXTRA_STATION_THUMB_URL = "station_thumb_url";
     public static final String EXTRA_STATION_QUEUE_POSITION = "queue_position";
+    public static final String EXTRA_STATION_ID = "station_id";
+    public static final String EXTRA_ENGINE = "engine";
     public static final String ACTION_PLAY = "play";
     public static final String ACTION_STOP = "updateSession";
+    public static final String ACTION_PAUSE = "pause";
     public static final String ACTION_NEXT = "next";
     public static final String ACTION_PREV = "prev";
     public static final String ACTION_OPEN = "open";
+    // sent with TransportControls.sendCustomAction()
+    public static final String CUSTOM_ACTION_START_RECORDING = "start_recording";
+    public static final String CUSTOM_ACTION_STOP_RECORDING = "stop_recording";
+    public static final String CUSTOM_ACTION_START_ENERGY_SAVING = "start_energy_saving";
+    public static final String CUSTOM_ACTION_STOP_ENERGY_SAVING = "stop_energy_saving";
+    public static final String CUSTOM_ACTION_SET_ENGINE = "set_engine"; // EXTRA_ENGINE names it
 
     private NotificationManager mNotificationManager;
-    private WifiManager.WifiLock mWifiLock;
+    private LockLeaseManager mLockLeases;
     private AudioManager mAudioManager;
     private MediaSessionCompat mMediaSession;
-    private PlaybackStateCompat mPlaybackState;
+    private PlaybackStateCompat mPlaybackState; // published from the state machine
+    private final PlaybackStateMachine mStateMachine = new PlaybackStateMachine();
     private MediaControllerCompat mMediaController;
-    private MediaPlayer mMediaPlayer;
+    private PlaybackEngine mEngine;
+    private String mEngineName = MediaPlayerEngine.NAME; // used for cold starts
     private Binder mBinder = new ServiceBinder();
     private boolean mIsRegistered;
-    private List<Station> mQueue;
+    private PlaybackQueue mQueue; // snapshot of the list last played from, swapped as it grows
     private int mQueuePosition;
+    private boolean mIsAwaitingPage; // skipped past the loaded stations, played when the page arrives
     private MediaMetadataCompat mMetadata;
+    private StandbyPlayerPool mStandbyPool;
+    private long mPlayRequestedAt;
+    private boolean mIsStandbyStart;
+    private StreamProxy mStreamProxy;
+    private boolean mIsTimeShifting;
+    private Uri mDataSource;
+    private String mContentType;
+    private StreamRecorder mRecorder;
+    private String mStreamTitle;
+    private StreamSelector mStreamSelector;
+    private Station mStation; // playing from the queue, null when played from a uri
+    private Stream mStream;
+    private Uri mPlayedUri; // played from a uri, null when played from the queue
+    private long mTitleUpdatedAt;
+    private StallWatchdog mWatchdog;
+    private EnergyMeter mEnergyMeter;
+    private LastPlayedKeeper mLastPlayedKeeper;
+    private boolean mIsRestoring; // the last station played is being read back
+    private boolean mIsResumePending; // play was pressed before it was
+
+    private final Handler mHandler = new Handler(new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_STREAM_TITLE:
+                case MSG_DEFERRED_STREAM_TITLE:
+                    updateStreamTitle((String) msg.obj);
+                    return true;
+                case MSG_CHECK_STALL:
+                    checkForStall();
+                    return true;
+                case MSG_RECOVER:
+                    reconnect((Stream) msg.obj);
+                    return true;
+            }
+            return false;
+        }
+    });
 
     private final IntentFilter mNoisyIntentFilter =
             new IntentFilter(AudioManager.ACTION_AUDIO_BECOMING_NOISY);
@@ -85,9 +168,9 @@ public class PlaybackService extends Service implements
         @Override
         public void onReceive(Context context, Intent intent) {
             if(AudioManager.ACTION_AUDIO_BECOMING_NOISY.equals(intent.getAction())) {
-                // stop playback
-                mMediaController.getTransportControls().stop();
+                // pause playback, stopping where there's no time-shift buffer or it's still buffering
                 Timber.i("Headphones removed");
+                applyPause(mStateMachine.noisy());
                 RadioPlayerApplication.postToBus(new PlaybackServiceEvent(PlaybackServiceEvent.ON_BECOMING_NOISY));
             }
         }
@@ -116,6 +199,15 @@ public class PlaybackService extends Service implements
         return mMediaSession.getSessionToken();
     }
 
+    // the queue played from, which may have been restored rather than the cache's, main thread only
+    public PlaybackQueue getQueue() {
+        return mQueue;
+    }
+
+    public int getQueuePosition() {
+        return mQueuePosition;
+    }
+
     @Override
     public int onStartCommand(Intent startIntent, int flags, int startId) {
         if(startIntent != null && startIntent.getAction() != null) {
@@ -129,6 +221,10 @@ public class PlaybackService extends Service implements
                     Timber.i("Calling Stop");
                     mMediaController.getTransportControls().stop();
                     break;
+                case ACTION_PAUSE:
+                    Timber.i("Calling pause");
+                    mMediaController.getTransportControls().pause();
+                    break;
                 case ACTION_NEXT:
                     Timber.i("Calling next");
                     mMediaController.getTransportControls().skipToNext();
@@ -151,10 +247,19 @@ public class PlaybackService extends Service implements
     public void onCreate() {
         super.onCreate();
 
-        mQueue = StationDataCache.getStationDataCache().getStationList();
-        Timber.i("Current queue: %s", mQueue);
+        mQueue = StationDataCache.getStationDataCache().getQueue();
+        Timber.i("Current queue: %d stations", mQueue.size());
+
+        // wifi & wake locks follow the playback state, so must exist before the first one is set
+        mLockLeases = new LockLeaseManager(this, LOG_TAG);
+        DebugDumperPlugin.addSection("locks", new DebugDumperPlugin.Section() {
+            @Override
+            public void dump(PrintStream out) {
+                mLockLeases.dump(out);
+            }
+        });
 
-        mPlaybackState = updatePlaybackState(PlaybackStateCompat.STATE_NONE);
+        mPlaybackState = updatePlaybackState(mStateMachine.getState());
 
         // instantiate the media session
         mMediaSession = new MediaSessionCompat(this, LOG_TAG);
@@ -168,8 +273,68 @@ public class PlaybackService extends Service implements
         // get and instance of the audio manager
         mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
 
-        // instantiate the media player
-        initMediaPlayer();
+        // instantiate the engine & the pool of players kept warm on adjacent stations
+        createEngine();
+        mStandbyPool = new StandbyPlayerPool(this);
+
+        // serve the player through the local proxy, streams are played directly if it can't start
+        mStreamProxy = new StreamProxy(createStreamBuffer());
+        try {
+            mStreamProxy.start();
+        } catch (IOException e) {
+            Timber.e("Error starting stream proxy: %s", e.getMessage());
+        }
+        DebugDumperPlugin.addSection("proxy", new DebugDumperPlugin.Section() {
+            @Override
+            public void dump(PrintStream out) {
+                mStreamProxy.dump(out);
+            }
+        });
+
+        // titles arrive on the upstream thread, shown once the player reaches them
+        mStreamProxy.setMetadataListener(new StreamProxy.MetadataListener() {
+            @Override
+            public void onStreamTitle(String title, long delayMillis) {
+                mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_STREAM_TITLE, title), delayMillis);
+            }
+        });
+
+        // picks each station's stream from the bandwidth measured by the proxy
+        mStreamSelector = new StreamSelector(BandwidthMeter.getInstance());
+        DebugDumperPlugin.addSection("selector", new DebugDumperPlugin.Section() {
+            @Override
+            public void dump(PrintStream out) {
+                mStreamSelector.dump(out);
+            }
+        });
+
+        // reconnects or fails over streams which stop delivering mid-play
+        mWatchdog = new StallWatchdog();
+        DebugDumperPlugin.addSection("watchdog", new DebugDumperPlugin.Section() {
+            @Override
+            public void dump(PrintStream out) {
+                mWatchdog.dump(out);
+            }
+        });
+
+        // battery drain with & without the proxy reading in bursts
+        mEnergyMeter = new EnergyMeter(this, mStreamProxy.getStats());
+        DebugDumperPlugin.addSection("energy", new DebugDumperPlugin.Section() {
+            @Override
+            public void dump(PrintStream out) {
+                mEnergyMeter.dump(out);
+            }
+        });
+
+        // recordings are teed off the proxy's upstream
+        mRecorder = new StreamRecorder(getRecordingDir());
+        mStreamProxy.setRecorder(mRecorder);
+        DebugDumperPlugin.addSection("recorder", new DebugDumperPlugin.Section() {
+            @Override
+            public void dump(PrintStream out) {
+                mRecorder.dump(out);
+            }
+        });
 
         // instantiate the media controller
         try {
@@ -178,9 +343,15 @@ public class PlaybackService extends Service implements
             Timber.e("Error instantiating Media Controller: %s", e.getMessage());
         }
 
-        // create the wifi lock
-        mWifiLock = ((WifiManager) getSystemService(Context.WIFI_SERVICE))
-                .createWifiLock(WifiManager.WIFI_MODE_FULL, LOG_TAG);
+        // the station last played, restored where the process was killed so play resumes it
+        mLastPlayedKeeper = new LastPlayedKeeper(getFilesDir(), mStreamProxy.getResolver());
+        mIsRestoring = true;
+        mLastPlayedKeeper.restore(new LastPlayedKeeper.Listener() {
+            @Override
+            public void onRestored(LastPlayedStore.LastPlayed lastPlayed) {
+                onLastPlayedRestored(lastPlayed);
+            }
+        });
 
         // register the event bus to enable event posting
         RadioPlayerApplication.getInstance().getBus().register(this);
@@ -191,6 +362,14 @@ public class PlaybackService extends Service implements
     public void onDestroy() {
         super.onDestroy();
         RadioPlayerApplication.getInstance().getBus().unregister(this);
+        mHandler.removeCallbacksAndMessages(null);
+        DebugDumperPlugin.removeSection("proxy");
+        DebugDumperPlugin.removeSection("recorder");
+        DebugDumperPlugin.removeSection("selector");
+        DebugDumperPlugin.removeSection("watchdog");
+        DebugDumperPlugin.removeSection("energy");
+        DebugDumperPlugin.removeSection("locks");
+        mLastPlayedKeeper.quit();
 
         Timber.i("Releasing resources");
         releaseResources();
@@ -204,17 +383,23 @@ public class PlaybackService extends Service implements
                 focusChange == AudioManager.AUDIOFOCUS_LOSS_TRANSIENT ||
                 focusChange == AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK) {
 
-            Timber.i("Focus lost, stopping playback");
-            mMediaPlayer.stop();
-            updateSession(PlaybackStateCompat.STATE_STOPPED, PlaybackServiceEvent.ON_AUDIO_FOCUS_LOSS);
-            raiseNotification();
+            int action = mStateMachine.focusLoss();
+            if(action != PlaybackStateMachine.ACTION_NONE) {
+                Timber.i("Focus lost, stopping playback");
+                stopPlayback(action, PlaybackServiceEvent.ON_AUDIO_FOCUS_LOSS);
+            }
         }
     }
 
 
     @Override
-    public void onPrepared(MediaPlayer mp) {
+    public void onPrepared(PlaybackEngine engine) {
+        // stopped since
+        if(mStateMachine.getState() != PlaybackStateMachine.STATE_BUFFERING)
+            return;
         Timber.i("Buffering complete");
+        PlaybackMetrics.getInstance().markPhase(PlaybackMetrics.PHASE_PREPARE);
+        onStreamConnected();
         // request audio focus
         int audioFocus = mAudioManager.requestAudioFocus(this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
 
@@ -224,39 +409,85 @@ public class PlaybackService extends Service implements
         // if we've gained focus, start playback
         if(audioFocus == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
             Timber.i("Gained audio focus, starting playback");
-            mMediaPlayer.start();
+            applyAction(mStateMachine.prepared());
+            PlaybackMetrics.getInstance().markPhase(PlaybackMetrics.PHASE_FOCUS);
 
             // set media session obj as the target for media buttons
             mMediaSession.setActive(true);
 
             // update playback state
-            mPlaybackState = updatePlaybackState(PlaybackStateCompat.STATE_PLAYING);
+            mPlaybackState = updatePlaybackState(mStateMachine.getState());
             mMediaSession.setPlaybackState(mPlaybackState);
             raiseNotification();
 
             // post event, allowing the PlayerActivity to hide the progress bar
             RadioPlayerApplication.postToBus(new PlaybackServiceEvent(PlaybackServiceEvent.ON_BUFFERING_COMPLETE));
+
+            mEnergyMeter.start(isBursting());
+
+            long recovery = mWatchdog.onPlaying(SystemClock.elapsedRealtime());
+            if(recovery >= 0) {
+                Timber.i("Recovered from stall in %dms", recovery);
+                PlaybackMetrics.getInstance().recordStallRecovery(recovery);
+            }
+
+            // not recorded when reconnecting to the time-shift buffer after a rewind
+            if(mPlayRequestedAt > 0) {
+                long timeToAudio = SystemClock.elapsedRealtime() - mPlayRequestedAt;
+                Timber.i("Time to audio: %dms, engine: %s, standby player: %b", timeToAudio,
+                        mEngine.getName(), mIsStandbyStart);
+                PlaybackMetrics.getInstance().recordTimeToAudio(mIsStandbyStart, timeToAudio);
+                // phases are only traced for cold starts, a standby player skips most
+                if(mIsStandbyStart)
+                    PlaybackMetrics.getInstance().cancelTrace();
+                else
+                    PlaybackMetrics.getInstance().finishTrace(getStreamHost());
+                saveLastPlayed();
+            }
+
+            // prepare the stations either side so skipping to them is near instant
+            warmAdjacentStations();
         } else {
             Timber.i("Failed to gain audio focus");
-            RadioPlayerApplication.postToBus(new PlaybackServiceEvent(PlaybackServiceEvent.ON_AUDIO_FOCUS_LOSS));
+            stopPlayback(mStateMachine.focusLoss(), PlaybackServiceEvent.ON_AUDIO_FOCUS_LOSS);
         }
     }
 
 
     @Override
-    public void onCompletion(MediaPlayer mp) {
+    public void onInfo(PlaybackEngine engine, int what, int extra) {
+        if(what == PlaybackEngine.INFO_BUFFERING_START && mStation != null) {
+            Timber.i("Playback stalled, buffering");
+            // switch to a lower bitrate once stalls repeat
+            Stream lower = mStreamSelector.onUnderrun(mStation, mStream, SystemClock.elapsedRealtime());
+            if(lower != null)
+                switchStream(lower);
+        }
+    }
+
+
+    @Override
+    public void onCompletion(PlaybackEngine engine) {
         Timber.i("Playback has come to an end");
-        mMediaPlayer.reset();
-        updateSession(PlaybackStateCompat.STATE_NONE, PlaybackServiceEvent.ON_PLAYBACK_COMPLETION);
+        // a live stream ending is a dropped connection
+        if(mWatchdog.isWatching()) {
+            recover();
+            return;
+        }
+        applyAction(mStateMachine.error());
+        updateSession(PlaybackServiceEvent.ON_PLAYBACK_COMPLETION);
     }
 
 
     @Override
-    public boolean onError(MediaPlayer mp, int what, int extra) {
-        Timber.e("Media Player has encountered an error, code: %d", what);
-        mMediaPlayer.reset();
-        updateSession(PlaybackStateCompat.STATE_NONE, PlaybackServiceEvent.ON_PLAYBACK_ERROR);
-        return true; // error handled
+    public void onError(PlaybackEngine engine, int what, int extra) {
+        Timber.e("Playback engine has encountered an error, code: %d", what);
+        if(mWatchdog.isWatching()) {
+            recover();
+            return;
+        }
+        applyAction(mStateMachine.error());
+        updateSession(PlaybackServiceEvent.ON_PLAYBACK_ERROR);
     }
 
 
@@ -265,59 +496,151 @@ public class PlaybackService extends Service implements
         // impl media player methods you want your player to handle
         @Override
         public void onPlayFromSearch(String query, Bundle extras) {
+            PlaybackMetrics.getInstance().markPhase(PlaybackMetrics.PHASE_REQUEST);
             Uri uri = extras.getParcelable(EXTRA_STATION_URI);
+            // play on from the list the station was picked from, dropping the queue of any other
+            mQueue = StationDataCache.getStationDataCache().getQueue();
             mQueuePosition = extras.getInt(EXTRA_STATION_QUEUE_POSITION);
-            onPlayFromUri(uri, extras);
+            long id = extras.getLong(EXTRA_STATION_ID, -1);
+            if(id != -1 && (mQueuePosition < 0 || mQueuePosition >= mQueue.size()
+                    || mQueue.getId(mQueuePosition) != id))
+                mQueuePosition = mQueue.indexOf(id);
+            // choose the station's stream here, the uri is only used outside the queue
+            if(mQueuePosition >= 0 && mQueuePosition < mQueue.size())
+                playFromQueue();
+            else
+                onPlayFromUri(uri, extras);
         }
 
         @Override
         public void onPlayFromUri(Uri uri, Bundle extras) {
 
             try {
-                int state = mPlaybackState.getState();
-                if(state == PlaybackStateCompat.STATE_NONE || state == PlaybackStateCompat.STATE_STOPPED) {
-
-                    Timber.i("MediaPlayer: %s", mMediaPlayer);
-                    mMediaPlayer.reset();
-                    mMediaPlayer.setDataSource(PlaybackService.this, uri);
-                    mMediaPlayer.prepareAsync(); // calls onPrepared() when complete
-                    Timber.i("Buffering audio stream");
-                    mPlaybackState = updatePlaybackState(PlaybackStateCompat.STATE_BUFFERING);
-                    mMediaSession.setPlaybackState(mPlaybackState);
-                    // set the station metadata
-                    mMediaSession.setMetadata(new MediaMetadataCompat.Builder()
-                                    .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_TITLE, extras.getString(EXTRA_STATION_NAME))
-                                    .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_SUBTITLE, extras.getString(EXTRA_STATION_SLUG))
-                                    .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_DESCRIPTION, extras.getString(EXTRA_STATION_COUNTRY))
-                                    .putString(MediaMetadataCompat.METADATA_KEY_ART_URI, extras.getString(EXTRA_STATION_IMAGE_URL))
-                                    .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI, extras.getString(EXTRA_STATION_THUMB_URL))
-                                    .build());
-                    raiseNotification();
-                    // acquire wifi lock to prevent wifi going to sleep while playing
-                    mWifiLock.acquire();
-                }
-
+                // any station playing is replaced
+                if(mStateMachine.isActive())
+                    endStream();
+                mStateMachine.skip();
+                mPlayRequestedAt = SystemClock.elapsedRealtime();
+                mContentType = null;
+                mStation = null;
+                mStream = null;
+                mPlayedUri = uri;
+                clearStreamTitle();
+                ensureEngine();
+                mEngine.reset();
+                mEngine.setDataSource(getDataSource(uri.toString(), null, 0).toString());
+                PlaybackMetrics.getInstance().markPhase(PlaybackMetrics.PHASE_DATA_SOURCE);
+                mEngine.prepareAsync(); // calls onPrepared() when complete
+                Timber.i("Buffering audio stream");
+                mPlaybackState = updatePlaybackState(mStateMachine.getState());
+                mMediaSession.setPlaybackState(mPlaybackState);
+                // set the station metadata
+                mMediaSession.setMetadata(new MediaMetadataCompat.Builder()
+                                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_TITLE, extras.getString(EXTRA_STATION_NAME))
+                                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_SUBTITLE, extras.getString(EXTRA_STATION_SLUG))
+                                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_DESCRIPTION, extras.getString(EXTRA_STATION_COUNTRY))
+                                .putString(MediaMetadataCompat.METADATA_KEY_ART_URI, extras.getString(EXTRA_STATION_IMAGE_URL))
+                                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI, extras.getString(EXTRA_STATION_THUMB_URL))
+                                .build());
+                raiseNotification();
+                startWatchdog();
             } catch (IOException e) {
                 Timber.e("Error buffering audio stream");
+                applyAction(mStateMachine.error());
+                updateSession(PlaybackServiceEvent.ON_PLAYBACK_ERROR);
             }
 
         }
 
 
+        // with the time-shift buffer the stream carries on buffering while paused
         @Override
-        public void onStop() {
-            int state = mPlaybackState.getState();
-            if(state == PlaybackStateCompat.STATE_PLAYING ||
-                    state == PlaybackStateCompat.STATE_BUFFERING) {
+        public void onPause() {
+            applyPause(mStateMachine.pause());
+        }
 
-                Timber.i("Stopping audio playback");
-                mMediaPlayer.stop();
-                updateSession(PlaybackStateCompat.STATE_STOPPED, PlaybackServiceEvent.ON_STOP);
+
+        // resume from the paused point, no reconnection. Where stopped the last station plays again
+        @Override
+        public void onPlay() {
+            int state = mStateMachine.getState();
+            if(PlaybackStateMachine.canPlay(state)) {
+                // held until the station's restored, where the service has only just started
+                if(!playLastStation() && mIsRestoring)
+                    mIsResumePending = true;
+                return;
+            }
+            if(!PlaybackStateMachine.canResume(state))
+                return;
+            int audioFocus = mAudioManager.requestAudioFocus(PlaybackService.this,
+                    AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
+            if(audioFocus == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+                Timber.i("Resuming audio playback");
+                applyAction(mStateMachine.play());
+                startWatchdog();
+                mEnergyMeter.start(isBursting());
+                mPlaybackState = updatePlaybackState(mStateMachine.getState());
+                mMediaSession.setPlaybackState(mPlaybackState);
                 raiseNotification();
+            }
+        }
+
+
+        // reconnect the player to the proxy, which serves it from further back in the buffer
+        @Override
+        public void onRewind() {
+            int state = mStateMachine.getState();
+            if(!isTimeShiftingStream() || mDataSource == null
+                    || (state != PlaybackStateMachine.STATE_PLAYING && state != PlaybackStateMachine.STATE_PAUSED))
+                return;
+            long rewound = mStreamProxy.rewind(REWIND_MS);
+            Timber.i("Rewound %dms", rewound);
+            if(rewound == 0)
+                return;
+            try {
+                mPlayRequestedAt = 0;
+                mStateMachine.reconnect();
+                mEngine.reset();
+                mEngine.setDataSource(mDataSource.toString());
+                mEngine.prepareAsync(); // calls onPrepared() when complete
+                mPlaybackState = updatePlaybackState(mStateMachine.getState());
+                mMediaSession.setPlaybackState(mPlaybackState);
+            } catch (IOException e) {
+                Timber.e("Error rewinding audio stream");
+            }
+        }
+
+
+        @Override
+        public void onCustomAction(String action, Bundle extras) {
+            switch (action) {
+                case CUSTOM_ACTION_START_RECORDING:
+                    startRecording();
+                    break;
+                case CUSTOM_ACTION_STOP_RECORDING:
+                    mRecorder.stop();
+                    break;
+                case CUSTOM_ACTION_START_ENERGY_SAVING:
+                case CUSTOM_ACTION_STOP_ENERGY_SAVING:
+                    setEnergySaving(CUSTOM_ACTION_START_ENERGY_SAVING.equals(action));
+                    break;
+                case CUSTOM_ACTION_SET_ENGINE:
+                    setEngine(extras != null ? extras.getString(EXTRA_ENGINE) : null);
+                    break;
+            }
+        }
 
+
+        @Override
+        public void onStop() {
+            int state = mStateMachine.getState();
+            int action = mStateMachine.stop();
+            if(action != PlaybackStateMachine.ACTION_NONE) {
+                Timber.i("Stopping audio playback");
+                stopPlayback(action, PlaybackServiceEvent.ON_STOP);
             }
             // if we're buffering post an event so the progress bar can be hidden
-            if(state == mPlaybackState.STATE_BUFFERING) {
+            if(state == PlaybackStateMachine.STATE_BUFFERING) {
                 RadioPlayerApplication.postToBus(new PlaybackServiceEvent(PlaybackServiceEvent.ON_BUFFERING_COMPLETE));
             }
         }
@@ -326,6 +649,7 @@ public class PlaybackService extends Service implements
         @Override
         public void onSkipToNext() {
             super.onSkipToNext();
+            PlaybackMetrics.getInstance().markPhase(PlaybackMetrics.PHASE_REQUEST);
             ++mQueuePosition;
             checkQueuePosition();
         }
@@ -334,6 +658,7 @@ public class PlaybackService extends Service implements
         @Override
         public void onSkipToPrevious() {
             super.onSkipToPrevious();
+            PlaybackMetrics.getInstance().markPhase(PlaybackMetrics.PHASE_REQUEST);
             --mQueuePosition;
             checkQueuePosition();
         }
@@ -342,55 +667,134 @@ public class PlaybackService extends Service implements
 
     private void checkQueuePosition() {
 
+        boolean wasAwaitingPage = mIsAwaitingPage;
+        mIsAwaitingPage = false;
         if(mQueuePosition >= 0 && mQueuePosition < mQueue.size()) {
             playFromQueue();
             RadioPlayerApplication.postToBus(new QueuePositionEvent(mQueuePosition));
+        } else if(mQueuePosition == mQueue.size() && canPageIn()) {
+            // the next page is normally prefetched, otherwise wait for it rather than blocking on it
+            Timber.i("Skipped past the loaded stations, waiting for the next page");
+            mIsAwaitingPage = true;
+            StationDataCache.getStationDataCache().loadNextPage(this);
+            // buffering with nothing to prepare until it arrives
+            if(mStateMachine.isActive())
+                endStream();
+            mStateMachine.skip();
+            mEngine.reset();
+            mPlaybackState = updatePlaybackState(mStateMachine.getState());
+            mMediaSession.setPlaybackState(mPlaybackState);
+        } else if(mQueuePosition < 0) {
+            // skipped back from the first station, stay on it
+            mQueuePosition = 0;
         } else {
-            // DEBUG
-            RadioPlayerApplication.postToBus(new MessageEvent("Index out of bounds"));
+            // skipped past the last station of the list
+            RadioPlayerApplication.postToBus(new MessageEvent("No more stations"));
+            mQueuePosition = Math.max(0, mQueue.size() - 1);
+            // nothing is playing while a page is awaited, the last station stays queued
+            if(wasAwaitingPage)
+                stopPlayback(mStateMachine.stop(), PlaybackServiceEvent.ON_STOP);
+        }
+    }
+
+    // a page of stations has been loaded, taking the longer snapshot where it's of the same list
+    @Subscribe
+    public void onStationsLoaded(StationThreadCompletionEvent event) {
+        PlaybackQueue latest = StationDataCache.getStationDataCache().getQueue();
+        if(latest.getGeneration() != mQueue.getGeneration()) {
+            // the list awaited was replaced, nothing more will be paged into the queue
+            if(mIsAwaitingPage)
+                checkQueuePosition();
+            return;
         }
+        mQueue = latest;
+        if(!mIsAwaitingPage)
+            return;
+        if(!event.isThreadComplete()) {
+            // the page awaited failed to load, stop on the last station rather than buffer on
+            Timber.i("The next page of stations failed to load, stopping");
+            mIsAwaitingPage = false;
+            mQueuePosition = Math.max(0, mQueue.size() - 1);
+            stopPlayback(mStateMachine.stop(), PlaybackServiceEvent.ON_STOP);
+        } else if(mQueuePosition < mQueue.size() || mQueue.isLastPage()) {
+            checkQueuePosition();
+        }
+    }
+
+    // more of the queue can be paged in, not once the cache has moved on to another list
+    private boolean canPageIn() {
+        return !mQueue.isLastPage()
+                && mQueue.getGeneration() == StationDataCache.getStationDataCache().getQueue().getGeneration();
     }
 
 
     private void playFromQueue() {
 
-        Station stn = mQueue.get(mQueuePosition);
-        String name = stn.getName() != null? stn.getName() : "";
-        String slug = stn.getSlug() != null? stn.getSlug() : "";
-        String country = stn.getCountry() != null? stn.getCountry() : "";
-        String imageUrl = stn.getImage().getUrl() != null? stn.getImage().getUrl() : "";
-        String thumbUrl = stn.getImage().getThumb().getUrl() != null? stn.getImage().getThumb().getUrl() : "";
-
-        String url = Utils.getStream(stn);
-        if(url != null) {
-            Uri uri = Uri.parse(url);
-            Timber.i("Url: %s, station: %s", url, stn.getName());
+        // page in more stations ahead of skipping through to the end of them
+        if(mQueue.size() - mQueuePosition <= QUEUE_PREFETCH_DISTANCE && canPageIn())
+            StationDataCache.getStationDataCache().loadNextPage(this);
+
+        Station stn = mQueue.getStation(mQueuePosition);
+        String name = mQueue.getName(mQueuePosition);
+        String slug = mQueue.getSlug(mQueuePosition);
+        String country = mQueue.getCountry(mQueuePosition);
+        String imageUrl = mQueue.getImageUrl(mQueuePosition);
+        String thumbUrl = mQueue.getThumbUrl(mQueuePosition);
+
+        List<Stream> candidates = mStreamSelector.rank(stn, SystemClock.elapsedRealtime(),
+                StreamProxy.MAX_RACE_STREAMS);
+        if(!candidates.isEmpty()) {
+            Stream stream = candidates.get(0);
+            String url = stream.getStream();
+            Timber.i("Url: %s, %dkbps, station: %s", url, stream.getBitrate(), stn.getName());
             try {
-                int state = mPlaybackState.getState();
-                if(state == PlaybackStateCompat.STATE_NONE || state == PlaybackStateCompat.STATE_STOPPED) {
-
-                    Timber.i("MediaPlayer: %s", mMediaPlayer);
-                    mMediaPlayer.reset();
-                    mMediaPlayer.setDataSource(PlaybackService.this, uri);
-                    mMediaPlayer.prepareAsync(); // calls onPrepared() when complete
+                // any station playing is replaced
+                if(mStateMachine.isActive())
+                    endStream();
+                mStateMachine.skip();
+                mPlayRequestedAt = SystemClock.elapsedRealtime();
+                mStation = stn;
+                mStream = stream;
+                mPlayedUri = null;
+                mContentType = stream.getContent_type();
+                mStreamSelector.onStreamStarted();
+                clearStreamTitle();
+                PlaybackEngine standby = mStandbyPool.take(mStreamProxy.getResolver().getCached(url));
+                mIsStandbyStart = standby != null;
+                mStateMachine.setTimeShifting(isTimeShiftingStream());
+                if(mIsStandbyStart) {
+                    // swap in the player already prepared on this station, whichever engine is chosen
+                    releaseEngine();
+                    mEngine = standby;
+                    mEngine.setListener(PlaybackService.this);
+                } else {
+                    ensureEngine();
+                    mEngine.reset();
+                    mEngine.setDataSource(getDataSource(candidates).toString());
+                    PlaybackMetrics.getInstance().markPhase(PlaybackMetrics.PHASE_DATA_SOURCE);
+                    mEngine.prepareAsync(); // calls onPrepared() when complete
                     Timber.i("Buffering audio stream");
-                    mPlaybackState = updatePlaybackState(PlaybackStateCompat.STATE_BUFFERING);
-                    mMediaSession.setPlaybackState(mPlaybackState);
-                    // set the station metadata
-                    mMediaSession.setMetadata(new MediaMetadataCompat.Builder()
-                            .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_TITLE, name)
-                            .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_SUBTITLE, slug)
-                            .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_DESCRIPTION, country)
-                            .putString(MediaMetadataCompat.METADATA_KEY_ART_URI, imageUrl)
-                            .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI, thumbUrl)
-                            .build());
-                    raiseNotification();
-                    // acquire wifi lock to prevent wifi going to sleep while playing
-                    mWifiLock.acquire();
                 }
+                mPlaybackState = updatePlaybackState(mStateMachine.getState());
+                mMediaSession.setPlaybackState(mPlaybackState);
+                // set the station metadata
+                mMediaSession.setMetadata(new MediaMetadataCompat.Builder()
+                        .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_TITLE, name)
+                        .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_SUBTITLE, slug)
+                        .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_DESCRIPTION, country)
+                        .putString(MediaMetadataCompat.METADATA_KEY_ART_URI, imageUrl)
+                        .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON_URI, thumbUrl)
+                        .build());
+                raiseNotification();
+                startWatchdog();
 
+                // the standby player is already prepared, start playback straight away
+                if(mIsStandbyStart)
+                    onPrepared(mEngine);
             } catch (IOException e) {
                 Timber.e("Error buffering audio stream");
+                applyAction(mStateMachine.error());
+                updateSession(PlaybackServiceEvent.ON_PLAYBACK_ERROR);
             }
         } else {
             // post message to player
@@ -399,49 +803,426 @@ public class PlaybackService extends Service implements
     }
 
 
+    // the station last played from the queue again, false where there's none
+    private boolean playLastStation() {
+        if(mStation == null || mQueuePosition < 0 || mQueuePosition >= mQueue.size())
+            return false;
+        Timber.i("Playing the last station again: %s", mQueue.getName(mQueuePosition));
+        PlaybackMetrics.getInstance().markPhase(PlaybackMetrics.PHASE_REQUEST);
+        playFromQueue();
+        return true;
+    }
+
+    // the station & queue played before the process was killed, unless another's been chosen since
+    private void onLastPlayedRestored(LastPlayedStore.LastPlayed lastPlayed) {
+        mIsRestoring = false;
+        boolean isResumePending = mIsResumePending;
+        mIsResumePending = false;
+        if(lastPlayed == null || mQueue.size() > 0 || mStation != null || mPlayedUri != null
+                || mStateMachine.isActive())
+            return;
+        mQueue = lastPlayed.getQueue();
+        mQueuePosition = lastPlayed.getPosition();
+        mStation = mQueue.getStation(mQueuePosition);
+        if(isResumePending) {
+            playLastStation();
+            return;
+        }
+        // warm a standby player on it, so resuming swaps it in rather than connecting
+        Stream stream = mStreamSelector.select(mQueue.getStation(mQueuePosition), SystemClock.elapsedRealtime());
+        if(stream != null)
+            mStandbyPool.warm(new String[] {mStreamProxy.getResolver().getCached(stream.getStream())},
+                    new int[] {StreamSelector.getKbps(stream)});
+    }
+
+    // kept for resuming after the process is killed, only stations played from a queue are
+    private void saveLastPlayed() {
+        if(mStation == null || mStream == null)
+            return;
+        String url = mStream.getStream();
+        String endpoint = mStreamProxy.getResolver().getCached(url);
+        mLastPlayedKeeper.save(new LastPlayedStore.LastPlayed(mQueue, mQueuePosition, url,
+                endpoint.equals(url) ? null : endpoint, System.currentTimeMillis()));
+    }
+
+
     ///// HELPER METHODS /////////////////////////////////////////////////////////////////////////
 
-    private void initMediaPlayer() {
-        Timber.i("Initializing media player");
-        mMediaPlayer = new MediaPlayer();
-        mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-        mMediaPlayer.setLooping(false);
-        mMediaPlayer.setOnPreparedListener(this);
-        mMediaPlayer.setOnCompletionListener(this);
-        mMediaPlayer.setOnErrorListener(this);
-        // tell the system it needs to stay on
-        mMediaPlayer.setWakeMode(getApplicationContext(), PowerManager.PARTIAL_WAKE_LOCK);
+    private void createEngine() {
+        Timber.i("Initializing %s engine", mEngineName);
+        if(BufferedEngine.NAME.equals(mEngineName))
+            mEngine = new BufferedEngine();
+        else
+            mEngine = new MediaPlayerEngine(this);
+        mEngine.setListener(this);
+    }
+
+    // the chosen engine for a cold start, where a standby player or another engine was last used
+    private void ensureEngine() {
+        if(mEngine != null && mEngine.getName().equals(mEngineName))
+            return;
+        releaseEngine();
+        createEngine();
+    }
+
+    // used from the next cold start, a stream playing carries on with its engine
+    private void setEngine(String name) {
+        if(!MediaPlayerEngine.NAME.equals(name) && !BufferedEngine.NAME.equals(name)) {
+            Timber.w("Unknown engine: %s", name);
+            return;
+        }
+        Timber.i("Engine %s from the next station played", name);
+        mEngineName = name;
+    }
+
+    // the proxied stream where the proxy is running, otherwise the stream itself
+    private Uri getDataSource(String url, String contentType, int kbps) {
+        // any standby player is replaced by the new connection
+        mIsStandbyStart = false;
+        mStateMachine.setTimeShifting(isTimeShiftingStream());
+        if(mStreamProxy.isRunning())
+            mDataSource = Uri.parse(mStreamProxy.open(url, contentType, kbps));
+        else
+            mDataSource = Uri.parse(url);
+        return mDataSource;
+    }
+
+    // the proxied stream racing the station's alternates, or the preferred stream itself
+    private Uri getDataSource(List<Stream> streams) {
+        if(!mStreamProxy.isRunning())
+            return getDataSource(streams.get(0).getStream(), null, 0);
+        mIsStandbyStart = false;
+        mStateMachine.setTimeShifting(isTimeShiftingStream());
+        String[] urls = new String[streams.size()];
+        String[] contentTypes = new String[urls.length];
+        int[] kbps = new int[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = streams.get(i).getStream();
+            contentTypes[i] = streams.get(i).getContent_type();
+            kbps[i] = StreamSelector.getKbps(streams.get(i));
+        }
+        mDataSource = Uri.parse(mStreamProxy.open(urls, contentTypes, kbps));
+        return mDataSource;
+    }
+
+    // an alternate may have won the proxy's race, play on as that stream
+    private void onStreamConnected() {
+        String url = mStreamProxy.getConnectedUrl();
+        if(url == null || mStation == null || mStream == null || url.equals(mStream.getStream()))
+            return;
+        for (Stream stream : mStation.getStreams()) {
+            if(url.equals(stream.getStream())) {
+                Timber.i("Playing alternate stream %dkbps: %s", StreamSelector.getKbps(stream), url);
+                mStream = stream;
+                mContentType = mStreamProxy.getContentType();
+                return;
+            }
+        }
+    }
+
+    // host of the endpoint playing, after any playlist was resolved
+    private String getStreamHost() {
+        String url = mStream != null ? mStream.getStream() : mPlayedUri != null ? mPlayedUri.toString() : null;
+        if(url == null)
+            return "unknown";
+        String host = Uri.parse(mStreamProxy.getResolver().getCached(url)).getHost();
+        return host != null ? host : "unknown";
+    }
+
+    // the time-shift ring file in the cache dir, mapped once & reused across sessions. Falls
+    // back to a small in-memory ring, without time-shift, if the file can't be mapped
+    private RingBuffer createStreamBuffer() {
+        int capacity = TIME_SHIFT_MINUTES * 60 * TIME_SHIFT_KBPS * 1000 / 8;
+        try {
+            RingBuffer ring = RingBuffer.map(new File(getCacheDir(), TIME_SHIFT_FILE), capacity);
+            mIsTimeShifting = true;
+            return ring;
+        } catch (IOException e) {
+            Timber.e("Error mapping time-shift buffer: %s", e.getMessage());
+            return RingBuffer.allocate(StreamProxy.DEFAULT_CAPACITY);
+        }
+    }
+
+    // the stream playing is served from the time-shift buffer, so pausing keeps it buffering
+    private boolean isTimeShiftingStream() {
+        return mIsTimeShifting && isProxiedStream();
+    }
+
+    // standby players connect directly, everything else plays through the proxy
+    private boolean isProxiedStream() {
+        return mStreamProxy.isRunning() && !mIsStandbyStart;
+    }
+
+    // warm standby players on the previous & next stations in the queue. They connect to the
+    // stream directly, so a station started from one plays without the proxy's titles, recording,
+    // time-shift, bandwidth samples & burst mode, until it's next reconnected through the proxy
+    private void warmAdjacentStations() {
+        String[] urls = new String[2];
+        int[] kbps = new int[2];
+        // next first, it's the most likely skip
+        int[] positions = {mQueuePosition + 1, mQueuePosition - 1};
+        for (int i = 0; i < positions.length; i++) {
+            if(positions[i] >= 0 && positions[i] < mQueue.size()) {
+                Station stn = mQueue.getStation(positions[i]);
+                Stream stream = mStreamSelector.select(stn, SystemClock.elapsedRealtime());
+                if(stream != null) {
+                    // the endpoint where known, saving the standby player the redirects
+                    urls[i] = mStreamProxy.getResolver().getCached(stream.getStream());
+                    kbps[i] = StreamSelector.getKbps(stream);
+                }
+            }
+        }
+        mStandbyPool.warm(urls, kbps);
+    }
+
+    // reconnect the player to another of the station's streams, keeping the session going
+    private void switchStream(Stream stream) {
+        if(mStateMachine.reconnect() == PlaybackStateMachine.ACTION_NONE)
+            return;
+        Timber.i("Switching from %dkbps to %dkbps: %s", StreamSelector.getKbps(mStream),
+                StreamSelector.getKbps(stream), stream.getStream());
+        mRecorder.stop(); // the content type may differ
+        mStream = stream;
+        mContentType = stream.getContent_type();
+        try {
+            mPlayRequestedAt = 0;
+            mEngine.reset();
+            mEngine.setDataSource(getDataSource(stream.getStream(), stream.getContent_type(), StreamSelector.getKbps(stream)).toString());
+            mEngine.prepareAsync(); // calls onPrepared() when complete
+            mPlaybackState = updatePlaybackState(mStateMachine.getState());
+            mMediaSession.setPlaybackState(mPlaybackState);
+        } catch (IOException e) {
+            Timber.e("Error switching audio stream");
+        }
+    }
+
+    // the engine's side of a transition, other than preparing a new source
+    private void applyAction(int action) {
+        switch (action) {
+            case PlaybackStateMachine.ACTION_START:
+                mEngine.start();
+                break;
+            case PlaybackStateMachine.ACTION_PAUSE:
+                mEngine.pause();
+                break;
+            case PlaybackStateMachine.ACTION_STOP:
+                mEngine.stop();
+                break;
+            case PlaybackStateMachine.ACTION_RESET:
+                mEngine.reset();
+                break;
+        }
+    }
+
+    // a pause, or the stop it becomes where there's no time-shift buffer
+    private void applyPause(int action) {
+        if(action == PlaybackStateMachine.ACTION_PAUSE) {
+            Timber.i("Pausing audio playback");
+            applyAction(action);
+            mWatchdog.stop();
+            mEnergyMeter.stop();
+            mPlaybackState = updatePlaybackState(mStateMachine.getState());
+            mMediaSession.setPlaybackState(mPlaybackState);
+            raiseNotification();
+        } else if(action != PlaybackStateMachine.ACTION_NONE) {
+            Timber.i("Stopping audio playback");
+            stopPlayback(action, PlaybackServiceEvent.ON_STOP);
+        }
+    }
+
+    private void stopPlayback(int action, String event) {
+        applyAction(action);
+        updateSession(event);
+        raiseNotification();
+    }
+
+    // read the proxied stream in bursts so the radio can idle between them, at the cost of
+    // being further behind live
+    private void setEnergySaving(boolean enabled) {
+        Timber.i("Energy saving %s", enabled ? "on" : "off");
+        mStreamProxy.setBurstMode(enabled);
+        if(mStateMachine.getState() == PlaybackStateMachine.STATE_PLAYING)
+            mEnergyMeter.start(isBursting());
+    }
+
+    // standby players aren't proxied so can't burst
+    private boolean isBursting() {
+        return mStreamProxy.isBurstMode() && isProxiedStream();
+    }
+
+    // watch the stream just started or resumed for stalls
+    private void startWatchdog() {
+        mWatchdog.watch(SystemClock.elapsedRealtime());
+        mHandler.removeMessages(MSG_CHECK_STALL);
+        mHandler.sendEmptyMessageDelayed(MSG_CHECK_STALL, StallWatchdog.CHECK_INTERVAL_MS);
+    }
+
+    private void checkForStall() {
+        if(!mWatchdog.isWatching())
+            return;
+        int state = mStateMachine.getState();
+        if((state == PlaybackStateMachine.STATE_PLAYING || state == PlaybackStateMachine.STATE_BUFFERING)
+                && !mHandler.hasMessages(MSG_RECOVER)
+                && mWatchdog.isStalled(getProgress(), SystemClock.elapsedRealtime())) {
+            Timber.w("No progress for %dms, stalled", StallWatchdog.STALL_TIMEOUT_MS);
+            recover();
+        }
+        mHandler.sendEmptyMessageDelayed(MSG_CHECK_STALL, StallWatchdog.CHECK_INTERVAL_MS);
+    }
+
+    // bytes received upstream when proxied, otherwise the player's position
+    private long getProgress() {
+        if(isProxiedStream())
+            return mStreamProxy.getStats().getBytesIn();
+        // the position can only be read once prepared
+        return mStateMachine.getState() == PlaybackStateMachine.STATE_PLAYING
+                ? mEngine.getCurrentPosition() : 0;
+    }
+
+    // schedule a reconnect or failover after a stall or error, keeping the session buffering
+    private void recover() {
+        int action = mWatchdog.onFailure(SystemClock.elapsedRealtime());
+        if(action == StallWatchdog.ACTION_GIVE_UP) {
+            Timber.e("Unable to recover playback, stopping");
+            applyAction(mStateMachine.error());
+            updateSession(PlaybackServiceEvent.ON_PLAYBACK_ERROR);
+            return;
+        }
+        int state = mStateMachine.getState();
+        applyAction(mStateMachine.stall());
+        Stream stream = mStream;
+        if(action == StallWatchdog.ACTION_FAILOVER && mStation != null) {
+            Stream next = mStreamSelector.next(mStation, mStream);
+            if(next != null)
+                stream = next;
+        }
+        long backoff = mWatchdog.getBackoff();
+        Timber.i("%s in %dms", action == StallWatchdog.ACTION_FAILOVER ? "Failing over" : "Reconnecting", backoff);
+        mHandler.removeMessages(MSG_RECOVER);
+        mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_RECOVER, stream), backoff);
+        if(state != mStateMachine.getState()) {
+            mPlaybackState = updatePlaybackState(mStateMachine.getState());
+            mMediaSession.setPlaybackState(mPlaybackState);
+            raiseNotification();
+        }
+    }
+
+    // the recovery attempt, to the given stream of the station or the uri played
+    private void reconnect(Stream stream) {
+        // the attempt gets the full timeout to show progress
+        mWatchdog.watch(SystemClock.elapsedRealtime());
+        if(stream != null) {
+            switchStream(stream);
+            return;
+        }
+        if(mPlayedUri == null || mStateMachine.reconnect() == PlaybackStateMachine.ACTION_NONE)
+            return;
+        try {
+            mPlayRequestedAt = 0;
+            mEngine.reset();
+            mEngine.setDataSource(getDataSource(mPlayedUri.toString(), null, 0).toString());
+            mEngine.prepareAsync(); // calls onPrepared() when complete
+        } catch (IOException e) {
+            Timber.e("Error reconnecting audio stream");
+        }
+    }
+
+    // record the stream being played, only possible through the proxy & not from a standby player
+    private void startRecording() {
+        int state = mStateMachine.getState();
+        if(state != PlaybackStateMachine.STATE_PLAYING && state != PlaybackStateMachine.STATE_PAUSED) {
+            Timber.i("Not playing, nothing to record");
+            return;
+        }
+        if(mIsStandbyStart || !mStreamProxy.isRunning()) {
+            Timber.i("Stream not proxied, unable to record");
+            return;
+        }
+        String contentType = mContentType != null ? mContentType : mStreamProxy.getContentType();
+        CharSequence title = mMediaController.getMetadata().getDescription().getTitle();
+        try {
+            mRecorder.start(title != null ? title.toString() : null, contentType);
+        } catch (IOException e) {
+            Timber.e("Error starting recording: %s", e.getMessage());
+        }
+    }
+
+    // show the now playing title in the session metadata & notification, rate limited
+    private void updateStreamTitle(String title) {
+        if(title.equals(mStreamTitle) || mMediaSession == null)
+            return;
+        long wait = mTitleUpdatedAt + TITLE_UPDATE_INTERVAL_MS - SystemClock.elapsedRealtime();
+        if(wait > 0) {
+            // only the latest title is kept while waiting
+            mHandler.removeMessages(MSG_DEFERRED_STREAM_TITLE);
+            mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_DEFERRED_STREAM_TITLE, title), wait);
+            return;
+        }
+        Timber.i("Now playing: %s", title);
+        mStreamTitle = title;
+        mTitleUpdatedAt = SystemClock.elapsedRealtime();
+        mMediaSession.setMetadata(new MediaMetadataCompat.Builder(mMediaController.getMetadata())
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
+                .build());
+        raiseNotification();
+    }
+
+    // drop titles still due from the previous stream
+    private void clearStreamTitle() {
+        mHandler.removeMessages(MSG_STREAM_TITLE);
+        mHandler.removeMessages(MSG_DEFERRED_STREAM_TITLE);
+        mStreamTitle = null;
+        mTitleUpdatedAt = 0;
     }
 
-    // abandon focus, set media btn target to false, unregister noisy receiver and update playback state
-    private void updateSession(int playbackState, String event) {
+    // app specific storage, needs no permission from api 19
+    private File getRecordingDir() {
+        File music = getExternalFilesDir(Environment.DIRECTORY_MUSIC);
+        return music != null ? music : new File(getFilesDir(), "recordings");
+    }
+
+    // abandon focus, set media btn target to false, unregister noisy receiver and publish the
+    // state the session has ended in
+    private void updateSession(String event) {
+        mIsAwaitingPage = false;
         mAudioManager.abandonAudioFocus(this);
+        endStream();
         mMediaSession.setActive(false);
 
         // unregister noisy broadcast receiver
         unregisterNoisy();
 
-        mPlaybackState = updatePlaybackState(playbackState);
+        mPlaybackState = updatePlaybackState(mStateMachine.getState());
         mMediaSession.setPlaybackState(mPlaybackState);
         RadioPlayerApplication.postToBus(new PlaybackServiceEvent(event));
     }
 
-    private void releaseMediaPlayer() {
-        if(mMediaPlayer != null) {
-            mMediaPlayer.reset();
-            mMediaPlayer.release();
-            mMediaPlayer = null;
+    // drop what belongs to the stream playing, whether or not another follows
+    private void endStream() {
+        mWatchdog.stop();
+        mEnergyMeter.stop();
+        mHandler.removeMessages(MSG_CHECK_STALL);
+        mHandler.removeMessages(MSG_RECOVER);
+        mRecorder.stop();
+        mStreamProxy.close();
+        clearStreamTitle();
+    }
+
+    private void releaseEngine() {
+        if(mEngine != null) {
+            mEngine.release();
+            mEngine = null;
         }
     }
 
     private void releaseResources() {
 
-        releaseMediaPlayer();
+        releaseEngine();
+        mStandbyPool.releaseAll();
+        mRecorder.stop();
+        mStreamProxy.stop();
 
-        if(mWifiLock.isHeld()) {
-            mWifiLock.release();
-            mWifiLock = null;
-        }
+        mLockLeases.release();
 
         if (mMediaSession != null) {
             mMediaSession.release();
@@ -456,6 +1237,11 @@ public class PlaybackService extends Service implements
     }
 
     private PlaybackStateCompat updatePlaybackState(int playbackState) {
+        // the proxy's upstream & player threads need the cpu as much as the engine does
+        mLockLeases.setWakeNeededWhilePlaying(isProxiedStream()
+                || (mEngine != null && !mEngine.holdsWakeLock()));
+        mLockLeases.setPausedFillMillis(isTimeShiftingStream() ? TIME_SHIFT_MINUTES * 60 * 1000L : 0);
+        mLockLeases.onStateChanged(playbackState);
         return new PlaybackStateCompat.Builder()
                 .setState(playbackState, 0, 1.0f)
                 .build();
@@ -493,7 +1279,9 @@ public class PlaybackService extends Service implements
         notification.setTicker(getString(R.string.notification_playing_stream));
         notification.setSmallIcon(R.drawable.icon_notification);
         notification.setContentTitle(description.getTitle());
-        notification.setContentText(description.getDescription());
+        // the now playing title where the stream has one, otherwise the station's country
+        String nowPlaying = mMetadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE);
+        notification.setContentText(nowPlaying != null ? nowPlaying : description.getDescription());
         notification.setColor(ContextCompat.getColor(this, R.color.colorPrimary));
         notification.setLargeIcon(bm);
         notification.setStyle(style);
@@ -507,8 +1295,10 @@ public class PlaybackService extends Service implements
         // TODO  -  wire up the action buttons - order in which you add the actions defines the order in which
         // they appear on the notification
         notification.addAction(generateAction(R.drawable.action_previous_white, "Previous", ACTION_PREV));
-        int state = mPlaybackState.getState();
-        if(state == PlaybackStateCompat.STATE_PLAYING)
+        int state = mStateMachine.getState();
+        if(PlaybackStateMachine.canPause(state) && isTimeShiftingStream())
+            notification.addAction(generateAction(R.drawable.action_stop, "Pause", ACTION_PAUSE));
+        else if(PlaybackStateMachine.canPause(state))
             notification.addAction(generateAction(R.drawable.action_stop, "Stop", ACTION_STOP));
         else
             notification.addAction(generateAction(R.drawable.action_play, "Play", ACTION_PLAY));
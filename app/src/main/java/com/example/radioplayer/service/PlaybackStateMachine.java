@@ -0,0 +1,143 @@
+package com.example.radioplayer.service;
+
+/**
+ * The playback session's state and every transition between states, kept apart from the
+ * service's callbacks so each event is handled in one place and can be run on the JVM. A
+ * transition moves the state and returns what the engine must do for it, or ACTION_NONE where
+ * the event doesn't apply in the current state.
+ *
+ * Engine actions respect the engine's own state rules. A stream still buffering is reset
+ * rather than stopped, because stopping a MediaPlayer mid-prepare fails with error -38.
+ *
+ * States share PlaybackStateCompat's values, so they're published as they are. Transitions
+ * are made on the main thread and allocate nothing.
+ */
+public final class PlaybackStateMachine {
+
+    public static final int STATE_NONE = 0;
+    public static final int STATE_STOPPED = 1;
+    public static final int STATE_PAUSED = 2;
+    public static final int STATE_PLAYING = 3;
+    public static final int STATE_BUFFERING = 6;
+
+    public static final int ACTION_NONE = 0; // the event is ignored in the state
+    public static final int ACTION_PREPARE = 1; // reset the engine & prepare the new source
+    public static final int ACTION_START = 2;
+    public static final int ACTION_PAUSE = 3;
+    public static final int ACTION_STOP = 4;
+    public static final int ACTION_RESET = 5;
+
+    private int mState = STATE_NONE;
+    private boolean mIsTimeShifting;
+
+    public int getState() {
+        return mState;
+    }
+
+    // paused streams keep buffering, without time-shift pausing stops
+    public void setTimeShifting(boolean timeShifting) {
+        mIsTimeShifting = timeShifting;
+    }
+
+    public boolean isActive() {
+        return isActive(mState);
+    }
+
+    // play from stopped, or resume where paused
+    public int play() {
+        switch (mState) {
+            case STATE_NONE:
+            case STATE_STOPPED:
+                return move(STATE_BUFFERING, ACTION_PREPARE);
+            case STATE_PAUSED:
+                return move(STATE_PLAYING, ACTION_START);
+        }
+        return ACTION_NONE;
+    }
+
+    // another station, from any state, the engine is reset whatever it's doing
+    public int skip() {
+        return move(STATE_BUFFERING, ACTION_PREPARE);
+    }
+
+    // the stream is buffered & focus gained, ignored where it's been stopped since
+    public int prepared() {
+        return mState == STATE_BUFFERING ? move(STATE_PLAYING, ACTION_START) : ACTION_NONE;
+    }
+
+    public int pause() {
+        if(mState != STATE_PLAYING)
+            return ACTION_NONE;
+        return mIsTimeShifting ? move(STATE_PAUSED, ACTION_PAUSE) : stop();
+    }
+
+    public int stop() {
+        return end(STATE_STOPPED);
+    }
+
+    // focus taken by another app, or refused once prepared
+    public int focusLoss() {
+        return end(STATE_STOPPED);
+    }
+
+    // headphones removed, playback pauses as it would for the user and stops if still buffering
+    public int noisy() {
+        if(mState == STATE_PLAYING)
+            return pause();
+        if(mState == STATE_BUFFERING)
+            return stop();
+        return ACTION_NONE;
+    }
+
+    // the stream failed or ended for good, the engine may be in its error state so is reset
+    public int error() {
+        return isActive(mState) ? move(STATE_NONE, ACTION_RESET) : ACTION_NONE;
+    }
+
+    // a stall or error mid-stream, buffering with the engine reset until reconnected
+    public int stall() {
+        if(mState == STATE_PLAYING || mState == STATE_BUFFERING)
+            return move(STATE_BUFFERING, ACTION_RESET);
+        return ACTION_NONE;
+    }
+
+    // the same station again, to another of its streams or further back in the time-shift buffer
+    public int reconnect() {
+        return isActive(mState) ? move(STATE_BUFFERING, ACTION_PREPARE) : ACTION_NONE;
+    }
+
+    // playing or on the way to it
+    public static boolean isActive(int state) {
+        return state == STATE_BUFFERING || state == STATE_PLAYING || state == STATE_PAUSED;
+    }
+
+    // nothing is playing, so a new stream can be started
+    public static boolean canPlay(int state) {
+        return state == STATE_NONE || state == STATE_STOPPED;
+    }
+
+    public static boolean canResume(int state) {
+        return state == STATE_PAUSED;
+    }
+
+    public static boolean canPause(int state) {
+        return state == STATE_PLAYING;
+    }
+
+    private int end(int state) {
+        switch (mState) {
+            case STATE_PLAYING:
+            case STATE_PAUSED:
+                return move(state, ACTION_STOP);
+            case STATE_BUFFERING:
+                return move(state, ACTION_RESET);
+        }
+        return ACTION_NONE;
+    }
+
+    private int move(int state, int action) {
+        mState = state;
+        return action;
+    }
+
+}
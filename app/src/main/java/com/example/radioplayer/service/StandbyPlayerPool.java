@@ -0,0 +1,192 @@
+package com.example.radioplayer.service;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.net.ConnectivityManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v4.net.ConnectivityManagerCompat;
+
+import com.example.radioplayer.engine.MediaPlayerEngine;
+import com.example.radioplayer.engine.PlaybackEngine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Keeps MediaPlayers prepared on the stations either side of the one playing, so skipping to
+ * them only swaps players rather than connecting & buffering from scratch. Warming is limited
+ * by a player count and combined bitrate budget, only happens on unmetered networks and
+ * standby players are released when not used within a timeout.
+ *
+ * Standby players connect to their stream directly rather than through the stream proxy, a
+ * station swapped in from one goes through the proxy once it's reconnected.
+ */
+class StandbyPlayerPool implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener {
+
+    static final int MAX_STANDBY_PLAYERS = 2;
+    static final int MAX_STANDBY_KBPS = 384; // combined bitrate of all standby streams
+    static final int DEFAULT_KBPS = 128; // assumed where a stream has no bitrate
+    static final long STANDBY_TIMEOUT_MS = 3 * 60 * 1000;
+
+    private final Context mContext;
+    private final ConnectivityManager mConnectivityManager;
+    private final Handler mHandler = new Handler();
+    private final List<Standby> mStandbys = new ArrayList<>(MAX_STANDBY_PLAYERS);
+
+    private static class Standby {
+        MediaPlayer mPlayer;
+        String mUrl;
+        int mKbps;
+        boolean mIsPrepared;
+        long mCreatedAt;
+    }
+
+    StandbyPlayerPool(Context context) {
+        mContext = context.getApplicationContext();
+        mConnectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    // prepare players for the given streams within the budget, dropping any no longer needed
+    void warm(String[] urls, int[] kbps) {
+        // release standbys for streams that are no longer neighbours
+        for (int i = mStandbys.size() - 1; i >= 0; i--) {
+            if(indexOf(urls, mStandbys.get(i).mUrl) < 0)
+                release(mStandbys.remove(i));
+        }
+
+        if(ConnectivityManagerCompat.isActiveNetworkMetered(mConnectivityManager)) {
+            Timber.i("Metered network, not warming standby players");
+            return;
+        }
+
+        int budget = MAX_STANDBY_KBPS;
+        for (Standby standby : mStandbys) {
+            budget -= standby.mKbps;
+        }
+        for (int i = 0; i < urls.length; i++) {
+            String url = urls[i];
+            if(url == null || find(url) != null)
+                continue;
+            int rate = kbps[i] > 0 ? kbps[i] : DEFAULT_KBPS;
+            if(mStandbys.size() >= MAX_STANDBY_PLAYERS || rate > budget)
+                break;
+            Standby standby = prepare(url, rate);
+            if(standby != null) {
+                mStandbys.add(standby);
+                budget -= rate;
+            }
+        }
+
+        mHandler.removeCallbacks(mExpireStandbys);
+        mHandler.postDelayed(mExpireStandbys, STANDBY_TIMEOUT_MS);
+    }
+
+    // hand over a prepared player for the url as an engine, null where none is ready
+    PlaybackEngine take(String url) {
+        Standby standby = find(url);
+        if(standby == null)
+            return null;
+        mStandbys.remove(standby);
+        if(!standby.mIsPrepared) {
+            // still connecting, the caller's cold start is no slower
+            release(standby);
+            return null;
+        }
+        Timber.i("Using standby player for %s", url);
+        return new MediaPlayerEngine(mContext, standby.mPlayer); // takes over the listeners
+    }
+
+    void releaseAll() {
+        mHandler.removeCallbacks(mExpireStandbys);
+        for (Standby standby : mStandbys) {
+            release(standby);
+        }
+        mStandbys.clear();
+    }
+
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        Standby standby = find(mp);
+        if(standby != null) {
+            standby.mIsPrepared = true;
+            Timber.i("Standby player ready in %dms: %s",
+                    SystemClock.elapsedRealtime() - standby.mCreatedAt, standby.mUrl);
+        }
+    }
+
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        Standby standby = find(mp);
+        if(standby != null) {
+            Timber.i("Standby player error %d, dropping %s", what, standby.mUrl);
+            mStandbys.remove(standby);
+            release(standby);
+        }
+        return true;
+    }
+
+    private Standby prepare(String url, int kbps) {
+        Standby standby = new Standby();
+        standby.mUrl = url;
+        standby.mKbps = kbps;
+        standby.mCreatedAt = SystemClock.elapsedRealtime();
+        standby.mPlayer = new MediaPlayer();
+        standby.mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        standby.mPlayer.setOnPreparedListener(this);
+        standby.mPlayer.setOnErrorListener(this);
+        try {
+            standby.mPlayer.setDataSource(mContext, Uri.parse(url));
+            standby.mPlayer.prepareAsync();
+            Timber.i("Warming standby player: %s", url);
+            return standby;
+        } catch (IOException | IllegalStateException e) {
+            Timber.e("Error warming standby player: %s", e.getMessage());
+            release(standby);
+            return null;
+        }
+    }
+
+    private final Runnable mExpireStandbys = new Runnable() {
+        @Override
+        public void run() {
+            Timber.i("Standby players unused, releasing");
+            releaseAll();
+        }
+    };
+
+    private Standby find(String url) {
+        for (Standby standby : mStandbys) {
+            if(standby.mUrl.equals(url))
+                return standby;
+        }
+        return null;
+    }
+
+    private Standby find(MediaPlayer player) {
+        for (Standby standby : mStandbys) {
+            if(standby.mPlayer == player)
+                return standby;
+        }
+        return null;
+    }
+
+    private static int indexOf(String[] urls, String url) {
+        for (int i = 0; i < urls.length; i++) {
+            if(url.equals(urls[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    private static void release(Standby standby) {
+        standby.mPlayer.reset();
+        standby.mPlayer.release();
+    }
+
+}
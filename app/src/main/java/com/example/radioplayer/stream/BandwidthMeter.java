@@ -0,0 +1,90 @@
+package com.example.radioplayer.stream;
+
+/**
+ * Live bandwidth estimate fed by the proxy's upstream reads. Only time spent waiting on the
+ * network counts, not time blocked on a full ring, so a sample is the rate the link delivered.
+ * Streams are sent at their bitrate once the server's initial burst is over, which says nothing
+ * of the link beyond it, so only reads clearing a backlog are sampled: the initial burst, and in
+ * burst mode what queued at the server while idling.
+ *
+ * Samples feed a fast and a slow moving average, the estimate is the lower of the two so it
+ * drops quickly as the link degrades and recovers slowly.
+ */
+public class BandwidthMeter {
+
+    private static final long MIN_SAMPLE_BYTES = 64 * 1024;
+    // servers send at least this much ahead of real time on connecting, icecast's default burst
+    static final int INITIAL_BURST_BYTES = 64 * 1024;
+    private static final long MIN_SAMPLE_NANOS = 2000L * 1000000L;
+    private static final double FAST_WEIGHT = 0.5;
+    private static final double SLOW_WEIGHT = 0.1;
+
+    private static BandwidthMeter sBandwidthMeter;
+
+    private long mBytes;
+    private long mNanos;
+    private double mFastKbps;
+    private double mSlowKbps;
+    private int mSamples;
+    private long mBacklogBytes; // still to arrive at link speed
+
+    BandwidthMeter() {}
+
+    public static synchronized BandwidthMeter getInstance() {
+        if(sBandwidthMeter == null) {
+            sBandwidthMeter = new BandwidthMeter();
+        }
+        return sBandwidthMeter;
+    }
+
+    // a stream connected, the server's initial burst follows
+    public synchronized void onConnected() {
+        mBacklogBytes = INITIAL_BURST_BYTES;
+    }
+
+    // reads resume after idling, the bytes queued at the server meanwhile follow
+    public synchronized void onBacklog(long bytes) {
+        mBacklogBytes = bytes;
+    }
+
+    // bytes received & the time spent waiting for them, ignored once the backlog is cleared
+    public synchronized void onTransfer(int bytes, long nanos) {
+        if(mBacklogBytes <= 0)
+            return;
+        mBacklogBytes -= bytes;
+        mBytes += bytes;
+        mNanos += nanos;
+        if(mBytes < MIN_SAMPLE_BYTES && mNanos < MIN_SAMPLE_NANOS)
+            return;
+        double kbps = mBytes * 8 * 1000000.0 / Math.max(1, mNanos);
+        if(mSamples == 0) {
+            mFastKbps = kbps;
+            mSlowKbps = kbps;
+        } else {
+            mFastKbps += FAST_WEIGHT * (kbps - mFastKbps);
+            mSlowKbps += SLOW_WEIGHT * (kbps - mSlowKbps);
+        }
+        ++mSamples;
+        mBytes = 0;
+        mNanos = 0;
+    }
+
+    // the estimate in kbps, 0 until there's a sample
+    public synchronized int getEstimateKbps() {
+        return mSamples == 0 ? 0 : (int) Math.min(mFastKbps, mSlowKbps);
+    }
+
+    public synchronized void reset() {
+        mBacklogBytes = 0;
+        mBytes = 0;
+        mNanos = 0;
+        mSamples = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Bandwidth: %dkbps estimate, fast %dkbps, slow %dkbps, %d samples",
+                getEstimateKbps(), (int) mFastKbps, (int) mSlowKbps, mSamples);
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.example.radioplayer.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Separates the Shoutcast/Icecast metadata blocks from the audio of a stream requested with
+ * Icy-MetaData: 1. A block follows every icy-metaint audio bytes, a length byte (x16) then
+ * text such as StreamTitle='Artist - Title';StreamUrl='';
+ *
+ * The audio is never copied, read() consumes any metadata at the buffer's position and
+ * returns how many audio bytes follow it, which the caller passes on from the same buffer.
+ * Only the metadata is copied out, and a title is only decoded when its block changes.
+ */
+public class IcyMetadataReader {
+
+    public interface Listener {
+        void onStreamTitle(String title);
+    }
+
+    private static final int MAX_METADATA = 255 * 16;
+    private static final String TITLE_START = "StreamTitle='";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int mMetaInt;
+    private final Listener mListener;
+    private final byte[] mMetadata = new byte[MAX_METADATA];
+    private byte[] mLastMetadata = new byte[0];
+    private int mAudioRemaining;
+    private int mMetadataLength = -1; // -1 while the length byte is due
+    private int mMetadataRead;
+
+    public IcyMetadataReader(int metaInt, Listener listener) {
+        mMetaInt = metaInt;
+        mListener = listener;
+        mAudioRemaining = metaInt;
+    }
+
+    // the icy-metaint response header, 0 where the stream has no metadata
+    public static int parseMetaInt(String header) {
+        if(header == null)
+            return 0;
+        try {
+            return Math.max(0, Integer.parseInt(header.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // consume metadata at the buffer's position, returning the number of audio bytes which
+    // follow - the caller must consume those before calling again. 0 once the buffer is used up
+    public int read(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            if(mAudioRemaining > 0) {
+                int audio = Math.min(mAudioRemaining, buffer.remaining());
+                mAudioRemaining -= audio;
+                return audio;
+            }
+            if(mMetadataLength < 0) {
+                mMetadataLength = (buffer.get() & 0xff) * 16;
+                mMetadataRead = 0;
+            } else {
+                int count = Math.min(mMetadataLength - mMetadataRead, buffer.remaining());
+                buffer.get(mMetadata, mMetadataRead, count);
+                mMetadataRead += count;
+            }
+            if(mMetadataLength >= 0 && mMetadataRead == mMetadataLength) {
+                // most blocks are empty or repeat the last title
+                if(mMetadataLength > 0)
+                    onMetadata();
+                mMetadataLength = -1;
+                mAudioRemaining = mMetaInt;
+            }
+        }
+        return 0;
+    }
+
+    private void onMetadata() {
+        int length = mMetadataLength;
+        while (length > 0 && mMetadata[length - 1] == 0) {
+            --length; // zero padded to a multiple of 16
+        }
+        if(length == mLastMetadata.length && equals(mMetadata, mLastMetadata, length))
+            return;
+        mLastMetadata = Arrays.copyOf(mMetadata, length);
+
+        String title = parseTitle(new String(mMetadata, 0, length, UTF_8));
+        if(title != null)
+            mListener.onStreamTitle(title);
+    }
+
+    static String parseTitle(String metadata) {
+        int start = metadata.indexOf(TITLE_START);
+        if(start < 0)
+            return null;
+        start += TITLE_START.length();
+        int end = metadata.indexOf("';", start);
+        if(end < 0)
+            end = metadata.lastIndexOf('\'');
+        if(end < start)
+            return null;
+        return metadata.substring(start, end).trim();
+    }
+
+    private static boolean equals(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if(a[i] != b[i])
+                return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.example.radioplayer.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Fixed size byte ring with a single writer and a single reader, backed by a direct buffer
+ * allocated once and reused. Bytes are copied in from the writer's buffer and written straight
+ * from the ring to the reader's channel. The writer blocks while the ring is full.
+ *
+ * Positions are absolute byte counts, the ring offset being position % capacity. Only the
+ * positions are guarded by the lock, the writer and reader never touch the same region.
+ *
+ * An overwriting ring doesn't block the writer on the reader, when full the oldest unread bytes
+ * are dropped. Bytes being written to the reader's channel are never dropped, the writer waits
+ * for them to be sent, so the reader is handed at most MAX_DRAIN_BYTES at a time. Backed by a
+ * memory mapped file this is the time-shift buffer: the stream keeps being written while the
+ * reader is paused, and the reader can be moved back over retained bytes.
+ */
+public class RingBuffer {
+
+    static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int mCapacity;
+    private final ByteBuffer mWriteView;
+    private final ByteBuffer mReadView;
+    private final boolean mIsOverwriting;
+
+    private long mWritePosition;
+    private long mReadPosition;
+    private int mSeekCount; // bumped whenever the read position is moved other than by reading
+    private long mDrainPosition = -1; // start of the bytes being written to the reader's channel
+    private boolean mIsClosed;
+
+    public RingBuffer(ByteBuffer buffer, boolean overwrite) {
+        mCapacity = buffer.capacity();
+        mWriteView = buffer.duplicate();
+        mReadView = buffer.duplicate();
+        mIsOverwriting = overwrite;
+    }
+
+    public static RingBuffer allocate(int capacity) {
+        return new RingBuffer(ByteBuffer.allocateDirect(capacity), false);
+    }
+
+    // an overwriting ring over the file, the file is only resized where its length differs so
+    // the same blocks are reused each time it's mapped
+    public static RingBuffer map(File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if(raf.length() != capacity)
+                raf.setLength(capacity);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new RingBuffer(buffer, true);
+        } finally {
+            raf.close(); // the mapping stays valid
+        }
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public boolean isOverwriting() {
+        return mIsOverwriting;
+    }
+
+    // empty the ring and reopen it for a new stream
+    public synchronized void reset() {
+        mWritePosition = 0;
+        mReadPosition = 0;
+        ++mSeekCount;
+        mIsClosed = false;
+        notifyAll();
+    }
+
+    // wake the writer & reader, reads return -1 once the remaining bytes are drained
+    public synchronized void close() {
+        mIsClosed = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return mIsClosed;
+    }
+
+    // bytes written but not yet read
+    public synchronized int available() {
+        return (int) (mWritePosition - mReadPosition);
+    }
+
+    // bytes before the read position which haven't been overwritten yet
+    public synchronized int retained() {
+        return (int) (mReadPosition - Math.max(0, mWritePosition - mCapacity));
+    }
+
+    public synchronized long getWritePosition() {
+        return mWritePosition;
+    }
+
+    // move the read position back over retained bytes, returning the bytes moved
+    public synchronized int rewind(int bytes) {
+        long position = Math.max(Math.max(0, mWritePosition - mCapacity), mReadPosition - bytes);
+        int moved = (int) (mReadPosition - position);
+        mReadPosition = position;
+        ++mSeekCount;
+        notifyAll();
+        return moved;
+    }
+
+    // copy as much of src as fits, blocking while there's no space, -1 once closed
+    public int write(ByteBuffer src) throws InterruptedException {
+        long writePosition;
+        int count;
+        synchronized (this) {
+            while (!mIsClosed && getWritable() == 0) {
+                wait();
+            }
+            if(mIsClosed)
+                return -1;
+            writePosition = mWritePosition;
+            count = Math.min(getWritable(), src.remaining());
+            // drop the oldest unread bytes about to be overwritten
+            long oldest = writePosition + count - mCapacity;
+            if(mIsOverwriting && mReadPosition < oldest) {
+                mReadPosition = oldest;
+                ++mSeekCount;
+            }
+        }
+
+        int offset = (int) (writePosition % mCapacity);
+        int first = Math.min(count, mCapacity - offset);
+        int limit = src.limit();
+
+        mWriteView.clear();
+        mWriteView.position(offset);
+        src.limit(src.position() + first);
+        mWriteView.put(src);
+        if(count > first) {
+            mWriteView.position(0);
+            src.limit(src.position() + count - first);
+            mWriteView.put(src);
+        }
+        src.limit(limit);
+
+        synchronized (this) {
+            mWritePosition += count;
+            notifyAll();
+        }
+        return count;
+    }
+
+    // the bytes which can be written without blocking
+    private int getWritable() {
+        if(!mIsOverwriting)
+            return mCapacity - (int) (mWritePosition - mReadPosition);
+        if(mDrainPosition < 0)
+            return mCapacity;
+        // up to the bytes being sent, which mustn't change under the reader
+        return (int) Math.max(0, Math.min(mCapacity, mDrainPosition + mCapacity - mWritePosition));
+    }
+
+    // block until at least the given number of bytes are buffered, false on timeout or close
+    public synchronized boolean awaitAvailable(int bytes, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        bytes = Math.min(bytes, mCapacity);
+        while (!mIsClosed && mWritePosition - mReadPosition < bytes) {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0)
+                return false;
+            wait(remaining);
+        }
+        return mWritePosition - mReadPosition >= bytes;
+    }
+
+    // block until the ring is closed, false on timeout
+    public synchronized boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!mIsClosed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0)
+                return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    // write buffered bytes to the channel, blocking until there is data, -1 once closed & drained
+    public int drainTo(WritableByteChannel channel) throws IOException, InterruptedException {
+        long readPosition;
+        int available;
+        int seekCount;
+        synchronized (this) {
+            while ((available = (int) (mWritePosition - mReadPosition)) == 0) {
+                if(mIsClosed)
+                    return -1;
+                wait();
+            }
+            readPosition = mReadPosition;
+            seekCount = mSeekCount;
+            mDrainPosition = readPosition;
+        }
+
+        // write the contiguous region, the wrapped remainder goes on the next call
+        int count = 0;
+        try {
+            int offset = (int) (readPosition % mCapacity);
+            mReadView.clear();
+            mReadView.position(offset);
+            mReadView.limit(offset + Math.min(Math.min(available, MAX_DRAIN_BYTES), mCapacity - offset));
+            count = channel.write(mReadView);
+        } finally {
+            synchronized (this) {
+                // unless the position was moved while writing to the channel
+                if(seekCount == mSeekCount)
+                    mReadPosition = readPosition + count;
+                if(mDrainPosition == readPosition)
+                    mDrainPosition = -1;
+                notifyAll();
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.example.radioplayer.stream;
+
+import java.io.PrintStream;
+
+/**
+ * Decides when playback has stalled and how to recover. Progress is whatever counter the caller
+ * samples each check - the proxy's upstream bytes, or the player's position when not proxied -
+ * so a stream which quietly stops delivering is caught without waiting on MediaPlayer's error
+ * callback, which may never come.
+ *
+ * Each failure, a stall or an error, is answered with a reconnect to the same stream and, once
+ * those are used up, a failover to the station's next stream, each after an exponential backoff.
+ * Recovery gives up once MAX_ATTEMPTS fail without playback resuming.
+ */
+public class StallWatchdog {
+
+    public static final long CHECK_INTERVAL_MS = 1000;
+    public static final long STALL_TIMEOUT_MS = 10 * 1000; // without progress
+    public static final int RECONNECTS_PER_STREAM = 1;
+    public static final int MAX_ATTEMPTS = 6;
+    private static final long BACKOFF_BASE_MS = 500;
+    private static final long BACKOFF_MAX_MS = 8000;
+
+    public static final int ACTION_RECONNECT = 1;
+    public static final int ACTION_FAILOVER = 2;
+    public static final int ACTION_GIVE_UP = 3;
+
+    private boolean mIsWatching;
+    private long mProgress;
+    private long mProgressAt;
+
+    // the recovery in progress, mStalledAt is 0 when there's none
+    private long mStalledAt;
+    private int mAttempts;
+    private int mStreamAttempts;
+
+    // totals
+    private int mStalls;
+    private int mReconnects;
+    private int mFailovers;
+    private int mGiveUps;
+    private int mRecoveries;
+    private long mLastRecoveryMillis;
+
+    // start watching a stream just opened, resumed or reconnected, progress is measured from here
+    public synchronized void watch(long now) {
+        mIsWatching = true;
+        mProgressAt = now;
+        mProgress = -1;
+    }
+
+    // stop watching, abandoning any recovery - a user stop or pause
+    public synchronized void stop() {
+        mIsWatching = false;
+        mStalledAt = 0;
+        mAttempts = 0;
+        mStreamAttempts = 0;
+    }
+
+    public synchronized boolean isWatching() {
+        return mIsWatching;
+    }
+
+    public synchronized boolean isRecovering() {
+        return mStalledAt != 0;
+    }
+
+    // sample the progress counter, true when it hasn't moved for STALL_TIMEOUT_MS
+    public synchronized boolean isStalled(long progress, long now) {
+        if(!mIsWatching)
+            return false;
+        if(progress != mProgress) {
+            mProgress = progress;
+            mProgressAt = now;
+            return false;
+        }
+        return now - mProgressAt >= STALL_TIMEOUT_MS;
+    }
+
+    // playback has resumed, returning the millis the recovery took or -1 where there wasn't one
+    public synchronized long onPlaying(long now) {
+        watch(now);
+        if(mStalledAt == 0)
+            return -1;
+        long millis = now - mStalledAt;
+        ++mRecoveries;
+        mLastRecoveryMillis = millis;
+        mStalledAt = 0;
+        mAttempts = 0;
+        mStreamAttempts = 0;
+        return millis;
+    }
+
+    // the stream stalled or errored, returning the action to take after getBackoff()
+    public synchronized int onFailure(long now) {
+        if(mStalledAt == 0) {
+            mStalledAt = now;
+            ++mStalls;
+        }
+        if(mAttempts >= MAX_ATTEMPTS) {
+            ++mGiveUps;
+            stop();
+            return ACTION_GIVE_UP;
+        }
+        ++mAttempts;
+        if(mStreamAttempts < RECONNECTS_PER_STREAM) {
+            ++mStreamAttempts;
+            ++mReconnects;
+            return ACTION_RECONNECT;
+        }
+        mStreamAttempts = 0;
+        ++mFailovers;
+        return ACTION_FAILOVER;
+    }
+
+    // the wait before the attempt onFailure() just returned, the first is immediate
+    public synchronized long getBackoff() {
+        if(mAttempts <= 1)
+            return 0;
+        return Math.min(BACKOFF_BASE_MS << (mAttempts - 2), BACKOFF_MAX_MS);
+    }
+
+    public synchronized void dump(PrintStream out) {
+        out.println((mIsWatching ? "Watching" : "Not watching")
+                + (mStalledAt != 0 ? ", recovering, attempt " + mAttempts : ""));
+        out.println(String.format("Stalls: %d, reconnects %d, failovers %d, recovered %d, gave up %d",
+                mStalls, mReconnects, mFailovers, mRecoveries, mGiveUps));
+        if(mRecoveries > 0)
+            out.println("Last recovery: " + mLastRecoveryMillis + "ms");
+    }
+
+}
@@ -0,0 +1,607 @@
+package com.example.radioplayer.stream;
+
+import android.os.SystemClock;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.OkHttpClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Loopback HTTP proxy sitting between MediaPlayer and the station's stream. The upstream stream
+ * is read into a fixed size {@link RingBuffer} and MediaPlayer, handed the url returned by
+ * open(), is served from it once the start threshold for the stream's bitrate is buffered.
+ *
+ * One stream is proxied at a time, opening a stream ends the previous one. The ring is
+ * allocated once and reused. Throughput & fill level are kept in {@link StreamStats}.
+ *
+ * Streams are requested with their ICY metadata, which is stripped from the audio in place by
+ * {@link IcyMetadataReader} and titles passed to the {@link MetadataListener}.
+ *
+ * A stream may be opened with alternates, which are raced by {@link StreamRace} should the
+ * first be slow to produce audio. The session plays whichever produces audio first.
+ *
+ * In burst mode the player is started BURST_START_MS behind live rather than the usual start
+ * threshold, and that lead is spent idling: upstream reads stop once the audio buffered ahead of
+ * the player reaches BURST_HIGH_MS and resume when it's down to BURST_LOW_MS. Live servers only
+ * send in real time, so while reads are stopped the stream queues at the server and the backlog
+ * arrives in one burst at link speed, letting the radio drop to its low power state in between.
+ * MediaPlayer reads ahead greedily, so the lead is estimated from the bytes received and the
+ * playing time rather than the ring's fill. Idling is capped at BURST_MAX_IDLE_MS to stay
+ * within what servers queue for a slow client before disconnecting it.
+ *
+ * Given an overwriting ring the proxy time-shifts: upstream keeps filling the ring while the
+ * player is paused, and rewind() moves the player back over what's retained.
+ */
+public class StreamProxy {
+
+    public interface MetadataListener {
+        // called on the upstream thread as the title changes, the delay being the audio
+        // buffered ahead of the player when the title arrived
+        void onStreamTitle(String title, long delayMillis);
+    }
+
+    public static final int DEFAULT_CAPACITY = 512 * 1024; // ~32s at 128kbps
+    public static final int MAX_RACE_STREAMS = 3;
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MIN_START_BYTES = 8 * 1024; // enough for MediaPlayer to sniff the format
+    private static final long START_TIMEOUT_MS = 10 * 1000;
+    private static final long CONNECT_TIMEOUT_MS = 3 * 1000;
+    private static final long READ_TIMEOUT_MS = 10 * 1000;
+    private static final long RACE_STAGGER_MS = 500; // before starting the next alternate
+    private static final long FIRST_AUDIO_TIMEOUT_MS = 6 * 1000;
+    private static final long BURST_START_MS = 12 * 1000;
+    private static final long BURST_HIGH_MS = 10 * 1000;
+    private static final long BURST_LOW_MS = 4 * 1000; // lead left when a burst starts
+    private static final long BURST_MAX_IDLE_MS = 20 * 1000; // icecast queues ~32s at 128kbps
+    private static final String PATH = "/stream/";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final RingBuffer mRing;
+    private final StreamStats mStats = new StreamStats();
+    private final OkHttpClient mClient;
+    private final StreamResolver mResolver;
+    private volatile ServerSocketChannel mServer;
+    private volatile Session mSession;
+    private volatile StreamRecorder mRecorder;
+    private volatile MetadataListener mMetadataListener;
+    private volatile boolean mIsBurstMode;
+    private int mSessionId;
+
+    // audio buffered before MediaPlayer is served, by bitrate tier - up to & including the kbps
+    private int[] mThresholdKbps = {64, 128, Integer.MAX_VALUE};
+    private long[] mThresholdMillis = {2000, 1500, 1000};
+
+    public StreamProxy() {
+        this(RingBuffer.allocate(DEFAULT_CAPACITY));
+    }
+
+    public StreamProxy(RingBuffer ring) {
+        mRing = ring;
+        mClient = new OkHttpClient();
+        mClient.setConnectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        mClient.setReadTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        // no stetho interceptor, it would copy the endless response body
+        mResolver = new StreamResolver(mClient);
+    }
+
+    // bind to a free port on localhost and start accepting player connections
+    public void start() throws IOException {
+        if(mServer != null)
+            return;
+        mServer = ServerSocketChannel.open();
+        mServer.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "StreamProxy-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        Timber.i("Stream proxy listening on port %d", getPort());
+    }
+
+    public void stop() {
+        close();
+        if(mServer != null) {
+            try {
+                mServer.close();
+            } catch (IOException e) {
+                Timber.e("Error closing stream proxy: %s", e.getMessage());
+            }
+            mServer = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return mServer != null;
+    }
+
+    // -1 once stopped
+    public int getPort() {
+        ServerSocketChannel server = mServer;
+        return server != null ? server.socket().getLocalPort() : -1;
+    }
+
+    // set the audio buffered before starting streams up to the given bitrate
+    public synchronized void setStartThreshold(int maxKbps, long millis) {
+        for (int i = 0; i < mThresholdKbps.length; i++) {
+            if(mThresholdKbps[i] == maxKbps) {
+                mThresholdMillis[i] = millis;
+                return;
+            }
+        }
+        int index = 0;
+        while (mThresholdKbps[index] < maxKbps) {
+            ++index;
+        }
+        mThresholdKbps = insert(mThresholdKbps, index, maxKbps);
+        mThresholdMillis = insert(mThresholdMillis, index, millis);
+    }
+
+    // move the player back over retained audio, it must reconnect to the same url to hear it.
+    // Returns the millis actually rewound, bounded by what the ring retains
+    public long rewind(long millis) {
+        Session session = mSession;
+        if(session == null)
+            return 0;
+        int kbps = session.mKbps > 0 ? session.mKbps : 128;
+        int bytes = mRing.rewind((int) Math.min(millis * kbps / 8, Integer.MAX_VALUE));
+        return bytes * 8L / kbps;
+    }
+
+    // the bytes buffered before starting a stream of the given bitrate, 128kbps assumed if unknown
+    public synchronized int getStartThreshold(int kbps) {
+        int rate = kbps > 0 ? kbps : 128;
+        int index = 0;
+        while (mThresholdKbps[index] < rate) {
+            ++index;
+        }
+        // kbps * ms / 8 = bytes
+        int bytes = (int) (rate * mThresholdMillis[index] / 8);
+        return Math.min(Math.max(bytes, MIN_START_BYTES), mRing.capacity() / 2);
+    }
+
+    // start pulling the stream, returning the local url to hand to MediaPlayer. The content type
+    // listed for the stream, null where there's none, tells playlists from streams
+    public String open(String url, String contentType, int kbps) {
+        return open(new String[] {url}, new String[] {contentType}, new int[] {kbps});
+    }
+
+    // as open(url, contentType, kbps) racing the alternates which follow the preferred stream
+    public String open(String[] urls, String[] contentTypes, int[] kbps) {
+        int port = getPort();
+        if(port < 0)
+            throw new IllegalStateException("Stream proxy not started");
+        Session previous = mSession;
+        if(previous != null)
+            previous.cancel();
+        Session session = new Session(++mSessionId, urls, contentTypes, kbps, previous);
+        mSession = session;
+        session.start();
+        return "http://127.0.0.1:" + port + PATH + session.mId;
+    }
+
+    // end the current stream, disconnecting upstream & the player
+    public void close() {
+        Session session = mSession;
+        mSession = null;
+        if(session != null)
+            session.cancel();
+    }
+
+    // tee the upstream bytes into the recorder, null to stop
+    public void setRecorder(StreamRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    // read upstream in bursts rather than continuously, applies to the current stream
+    public void setBurstMode(boolean burst) {
+        mIsBurstMode = burst;
+    }
+
+    public boolean isBurstMode() {
+        return mIsBurstMode;
+    }
+
+    public void setMetadataListener(MetadataListener listener) {
+        mMetadataListener = listener;
+    }
+
+    // the current stream's content type, null until connected
+    public String getContentType() {
+        Session session = mSession;
+        return session != null ? session.mContentType : null;
+    }
+
+    // the url of the stream which won the race, null until connected
+    public String getConnectedUrl() {
+        Session session = mSession;
+        return session != null && session.mContentType != null ? session.mUrl : null;
+    }
+
+    public StreamStats getStats() {
+        return mStats;
+    }
+
+    public StreamResolver getResolver() {
+        return mResolver;
+    }
+
+    public void dump(PrintStream out) {
+        int port = getPort();
+        out.println(port >= 0 ? "Listening on port " + port : "Not running");
+        mStats.dump(out, mRing);
+        mResolver.dump(out);
+        Session session = mSession;
+        if(session != null && mRing.isOverwriting()) {
+            int kbps = session.mKbps > 0 ? session.mKbps : 128;
+            out.println(String.format("Time-shift: %ds behind live, %ds retained behind the player",
+                    mRing.available() * 8L / kbps / 1000, mRing.retained() * 8L / kbps / 1000));
+        }
+    }
+
+
+    private void accept() {
+        ServerSocketChannel server = mServer;
+        while (server != null && server.isOpen()) {
+            try {
+                SocketChannel client = server.accept();
+                new ClientThread(client).start();
+            } catch (IOException e) {
+                Timber.i("Stream proxy stopped accepting: %s", e.getMessage());
+                return;
+            }
+        }
+    }
+
+
+    // reads the upstream stream into the ring
+    private final class Session extends Thread implements IcyMetadataReader.Listener {
+
+        private final int mId;
+        private final String[] mCandidateUrls;
+        private final String[] mCandidateTypes;
+        private final int[] mCandidateKbps;
+        private final Object mConnectLock = new Object(); // players wait on it for the upstream response
+        private volatile String mUrl; // the preferred stream until the race is won
+        private volatile int mKbps;
+        private Session mPrevious;
+        private volatile StreamRace mRace;
+        private volatile Call mCall;
+        private volatile String mContentType;
+        private volatile ClientThread mReader; // the ring's only reader, the latest player connection
+        private volatile boolean mIsCancelled;
+        private volatile boolean mIsFinished;
+
+        Session(int id, String[] urls, String[] contentTypes, int[] kbps, Session previous) {
+            super("StreamProxy-upstream-" + id);
+            mId = id;
+            mCandidateUrls = urls;
+            mCandidateTypes = contentTypes;
+            mCandidateKbps = kbps;
+            mUrl = urls[0];
+            mKbps = kbps[0];
+            mPrevious = previous;
+        }
+
+        @Override
+        public void run() {
+            ReadableByteChannel in = null;
+            try {
+                // the ring has a single writer, wait for the previous session to let go of it
+                if(mPrevious != null) {
+                    mPrevious.join();
+                    mPrevious = null;
+                }
+                if(mIsCancelled)
+                    return;
+                mRing.reset();
+                mStats.reset(mUrl, mKbps, getStartThreshold(mKbps));
+
+                StreamRace race = new StreamRace(mClient, mResolver, mCandidateUrls, mCandidateTypes,
+                        RACE_STAGGER_MS, FIRST_AUDIO_TIMEOUT_MS);
+                mRace = race;
+                if(mIsCancelled)
+                    return;
+                StreamRace.Connection connection = race.run();
+                if(connection == null)
+                    return;
+                in = connection.mChannel;
+                mCall = connection.mCall;
+                if(mIsCancelled)
+                    return;
+                mUrl = connection.mUrl;
+                mKbps = mCandidateKbps[connection.mIndex];
+                mStats.onConnected(mUrl, mKbps, getStartThreshold(mKbps), connection.mIndex,
+                        mCandidateUrls.length, connection.mMillis);
+                if(connection.mIndex > 0)
+                    Timber.i("Stream %d of %d won the race after %dms: %s", connection.mIndex + 1,
+                            mCandidateUrls.length, connection.mMillis, mUrl);
+                int metaInt = connection.mMetaInt;
+                IcyMetadataReader icy = metaInt > 0 ? new IcyMetadataReader(metaInt, this) : null;
+                // set last, players wait on it
+                mContentType = connection.mContentType;
+                signalConnect();
+
+                // the bytes read while racing come first
+                mStats.onBytesIn(connection.mFirstBytes.remaining());
+                if(!writeChunk(connection.mFirstBytes, icy))
+                    return;
+                ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+                BandwidthMeter meter = BandwidthMeter.getInstance();
+                meter.onConnected();
+                boolean wasIdle = false;
+                long burstEnd = 0; // the write position the current burst runs to at least
+                while (!mIsCancelled) {
+                    if(mIsBurstMode && mRing.getWritePosition() >= burstEnd
+                            && mStats.getLeadMillis() >= BURST_HIGH_MS) {
+                        // then take in the backlog queued at the server while idle
+                        int backlog = getBurstBytes(idle());
+                        burstEnd = mRing.getWritePosition() + backlog;
+                        meter.onBacklog(backlog);
+                        wasIdle = true;
+                        continue;
+                    }
+                    chunk.clear();
+                    long readStart = System.nanoTime();
+                    int count = in.read(chunk);
+                    if(count < 0)
+                        break;
+                    // the first read after idling comes from the socket buffer, not the link
+                    if(!wasIdle)
+                        meter.onTransfer(count, System.nanoTime() - readStart);
+                    wasIdle = false;
+                    chunk.flip();
+                    mStats.onBytesIn(count);
+                    if(!writeChunk(chunk, icy))
+                        return;
+                }
+            } catch (IOException e) {
+                if(!mIsCancelled)
+                    Timber.e("Stream proxy upstream error: %s", e.getMessage());
+            } catch (InterruptedException e) {
+                Timber.i("Stream proxy upstream interrupted");
+            } finally {
+                closeQuietly(in);
+                // let the player drain what's buffered, then end its response
+                mRing.close();
+                mIsFinished = true;
+                signalConnect();
+            }
+        }
+
+        // stop reading until the player's down to the low watermark, returning the millis
+        private long idle() throws InterruptedException {
+            long start = SystemClock.elapsedRealtime();
+            mRing.awaitClosed(Math.min(mStats.getLeadMillis() - BURST_LOW_MS, BURST_MAX_IDLE_MS));
+            long millis = SystemClock.elapsedRealtime() - start;
+            mStats.onIdle(millis);
+            return millis;
+        }
+
+        // the bytes of audio at the stream's bitrate, within the ring
+        private int getBurstBytes(long millis) {
+            int kbps = mKbps > 0 ? mKbps : 128;
+            return (int) Math.min(kbps * millis / 8, mRing.capacity() * 3L / 4);
+        }
+
+        // pass on each run of audio between the metadata blocks, false once the ring is closed
+        private boolean writeChunk(ByteBuffer chunk, IcyMetadataReader icy) throws InterruptedException {
+            if(icy == null)
+                return writeAudio(chunk);
+            int limit = chunk.limit();
+            int audio;
+            while ((audio = icy.read(chunk)) > 0) {
+                chunk.limit(chunk.position() + audio);
+                boolean written = writeAudio(chunk);
+                chunk.limit(limit);
+                if(!written)
+                    return false;
+            }
+            return true;
+        }
+
+        // tee the audio to the recorder & into the ring, false once the ring is closed
+        private boolean writeAudio(ByteBuffer audio) throws InterruptedException {
+            StreamRecorder recorder = mRecorder;
+            if(recorder != null)
+                recorder.write(audio);
+            while (audio.hasRemaining()) {
+                if(mRing.write(audio) < 0)
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void onStreamTitle(String title) {
+            MetadataListener listener = mMetadataListener;
+            if(listener == null || mSession != this)
+                return;
+            int kbps = mKbps > 0 ? mKbps : 128;
+            listener.onStreamTitle(title, mRing.available() * 8L / kbps);
+        }
+
+        void cancel() {
+            mIsCancelled = true;
+            mRing.close();
+            StreamRace race = mRace;
+            if(race != null)
+                race.cancel();
+            Call call = mCall;
+            if(call != null)
+                call.cancel();
+            ClientThread reader = mReader;
+            if(reader != null)
+                closeQuietly(reader.mChannel);
+            signalConnect();
+        }
+
+        // a reconnecting player replaces the previous connection, which has stopped reading the
+        // ring once this returns
+        void takeOver(ClientThread reader) throws InterruptedException {
+            ClientThread previous;
+            synchronized (mConnectLock) {
+                previous = mReader;
+                mReader = reader;
+            }
+            if(previous == null)
+                return;
+            closeQuietly(previous.mChannel);
+            previous.interrupt();
+            previous.join();
+        }
+
+        // wait for the upstream response, false if it failed or the session ended
+        boolean awaitConnected(long deadline) throws InterruptedException {
+            synchronized (mConnectLock) {
+                while (mContentType == null && !mIsCancelled && !mIsFinished) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if(wait <= 0)
+                        break;
+                    mConnectLock.wait(wait);
+                }
+            }
+            return mContentType != null && !mIsCancelled;
+        }
+
+        // wake players waiting for the upstream response
+        private void signalConnect() {
+            synchronized (mConnectLock) {
+                mConnectLock.notifyAll();
+            }
+        }
+    }
+
+
+    // serves one player connection from the ring
+    private final class ClientThread extends Thread {
+
+        private final SocketChannel mChannel;
+
+        ClientThread(SocketChannel channel) {
+            super("StreamProxy-client");
+            mChannel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int id = readRequest();
+                Session session = mSession;
+                if(session == null || session.mId != id) {
+                    writeHeader("HTTP/1.0 404 Not Found\r\n\r\n");
+                    return;
+                }
+                session.takeOver(this);
+
+                long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+                if(!session.awaitConnected(deadline)) {
+                    writeHeader("HTTP/1.0 502 Bad Gateway\r\n\r\n");
+                    return;
+                }
+                int threshold = getStartThreshold(session.mKbps);
+                if(mIsBurstMode) {
+                    // the lead burst mode idles on
+                    threshold = Math.max(threshold, session.getBurstBytes(BURST_START_MS));
+                    deadline += BURST_START_MS;
+                }
+                mRing.awaitAvailable(threshold, deadline - System.currentTimeMillis());
+                mStats.onStarted(threshold);
+                Timber.i("Stream proxy serving %s after %d bytes", session.mUrl, mRing.available());
+
+                writeHeader("HTTP/1.0 200 OK\r\nContent-Type: " + session.mContentType
+                        + "\r\nConnection: close\r\n\r\n");
+                while (mSession == session && session.mReader == this) {
+                    int fill = mRing.available();
+                    if(fill == 0 && !mRing.isClosed())
+                        mStats.onUnderrun();
+                    int count = mRing.drainTo(mChannel);
+                    if(count < 0)
+                        break;
+                    mStats.onBytesOut(count, fill);
+                }
+            } catch (IOException e) {
+                // the player disconnected, normal on stop or reset
+                Timber.i("Stream proxy client closed: %s", e.getMessage());
+            } catch (InterruptedException e) {
+                Timber.i("Stream proxy client interrupted");
+            } finally {
+                closeQuietly(mChannel);
+            }
+        }
+
+        // read the request header, returning the session id from the path or -1
+        private int readRequest() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(2048);
+            String request = "";
+            while (buffer.hasRemaining() && !request.contains("\r\n\r\n")) {
+                if(mChannel.read(buffer) < 0)
+                    break;
+                request = new String(buffer.array(), 0, buffer.position(), ASCII);
+            }
+            int start = request.indexOf(PATH);
+            if(start < 0)
+                return -1;
+            start += PATH.length();
+            int end = start;
+            while (end < request.length() && Character.isDigit(request.charAt(end))) {
+                ++end;
+            }
+            try {
+                return Integer.parseInt(request.substring(start, end));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private void writeHeader(String header) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(header.getBytes(ASCII));
+            while (buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+        }
+    }
+
+
+    private static int[] insert(int[] array, int index, int value) {
+        int[] copy = new int[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        copy[index] = value;
+        System.arraycopy(array, index, copy, index + 1, array.length - index);
+        return copy;
+    }
+
+    private static long[] insert(long[] array, int index, long value) {
+        long[] copy = new long[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        copy[index] = value;
+        System.arraycopy(array, index, copy, index + 1, array.length - index);
+        return copy;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if(closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
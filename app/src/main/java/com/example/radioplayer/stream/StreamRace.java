@@ -0,0 +1,267 @@
+package com.example.radioplayer.stream;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Connects to a station's candidate streams and keeps the first to produce audio, cancelling
+ * the rest. The preferred stream starts alone, the next candidate joins each time the stagger
+ * passes without audio, or straight away when those racing have all failed. So a healthy
+ * primary costs one connection while a dead one costs at most the stagger.
+ *
+ * Connections are bounded by the client's connect timeout and the whole race by the deadline
+ * for the first audio bytes. Each url is resolved through the {@link StreamResolver} as it
+ * joins, so playlists are only fetched when the cache doesn't already know their endpoint.
+ */
+final class StreamRace {
+
+    private static final int SNIFF_BYTES = 2048;
+
+    // the winning connection, its first bytes read & not yet passed on
+    static final class Connection {
+        final int mIndex;
+        final String mUrl;
+        final String mContentType;
+        final int mMetaInt;
+        final Call mCall;
+        final ReadableByteChannel mChannel;
+        final ByteBuffer mFirstBytes;
+        final long mMillis; // from the start of the race
+
+        Connection(int index, String url, String contentType, int metaInt, Call call,
+                   ReadableByteChannel channel, ByteBuffer firstBytes, long millis) {
+            mIndex = index;
+            mUrl = url;
+            mContentType = contentType;
+            mMetaInt = metaInt;
+            mCall = call;
+            mChannel = channel;
+            mFirstBytes = firstBytes;
+            mMillis = millis;
+        }
+    }
+
+    private final OkHttpClient mClient;
+    private final StreamResolver mResolver;
+    private final String[] mUrls;
+    private final String[] mContentTypes; // as listed for the streams, null where unknown
+    private final long mStaggerMillis;
+    private final long mDeadlineMillis;
+    private final Racer[] mRacers;
+    private long mStartedAt;
+    private int mFailed;
+    private Connection mWinner;
+    private boolean mIsOver;
+
+    StreamRace(OkHttpClient client, StreamResolver resolver, String[] urls, String[] contentTypes,
+               long staggerMillis, long deadlineMillis) {
+        mClient = client;
+        mResolver = resolver;
+        mUrls = urls;
+        mContentTypes = contentTypes;
+        mStaggerMillis = staggerMillis;
+        mDeadlineMillis = deadlineMillis;
+        mRacers = new Racer[urls.length];
+    }
+
+    // race the candidates, returning the winner or null where none produced audio in time
+    synchronized Connection run() throws InterruptedException {
+        mStartedAt = elapsedMillis();
+        long deadline = mStartedAt + mDeadlineMillis;
+        int started = 0;
+        try {
+            while (mWinner == null && !mIsOver) {
+                long now = elapsedMillis();
+                if(now >= deadline)
+                    break;
+                if(started < mUrls.length) {
+                    mRacers[started] = new Racer(started, mUrls[started]);
+                    mRacers[started].start();
+                    ++started;
+                } else if(mFailed == started) {
+                    break; // all failed
+                }
+                // wait for a result, or the stagger to start the next candidate
+                long wait = deadline - now;
+                if(started < mUrls.length && mFailed < started)
+                    wait = Math.min(wait, mStaggerMillis);
+                if(mFailed < started)
+                    wait(wait);
+            }
+            if(mWinner == null)
+                Timber.e("No stream produced audio within %dms, %d of %d failed",
+                        elapsedMillis() - mStartedAt, mFailed, started);
+            return mWinner;
+        } finally {
+            mIsOver = true;
+            cancelLosers();
+        }
+    }
+
+    // abandon the race, from any thread
+    synchronized void cancel() {
+        mIsOver = true;
+        cancelLosers();
+        notifyAll();
+    }
+
+    private synchronized boolean offer(Connection connection) {
+        if(mIsOver || mWinner != null)
+            return false;
+        mWinner = connection;
+        notifyAll();
+        return true;
+    }
+
+    private synchronized void onFailed(int index, String url, String reason) {
+        ++mFailed;
+        Timber.i("Stream %d failed after %dms, %s: %s", index,
+                elapsedMillis() - mStartedAt, reason, url);
+        notifyAll();
+    }
+
+    private synchronized boolean isOver() {
+        return mIsOver || mWinner != null;
+    }
+
+    private void cancelLosers() {
+        for (Racer racer : mRacers) {
+            if(racer != null && (mWinner == null || racer.mIndex != mWinner.mIndex))
+                racer.cancel();
+        }
+    }
+
+    // plausibly audio: not a text body & either an audio type or frame sync in the first bytes
+    static boolean isAudio(String contentType, ByteBuffer first) {
+        if(!first.hasRemaining())
+            return false;
+        String type = contentType.toLowerCase(Locale.US);
+        if(type.startsWith("text/") || type.contains("mpegurl") || type.contains("scpls"))
+            return false;
+        int b0 = first.get(first.position()) & 0xff;
+        if(b0 == '<' || b0 == '[' || b0 == '#')
+            return false; // html, a .pls or .m3u playlist
+        if(type.startsWith("audio/") || type.contains("ogg"))
+            return true;
+        for (int i = first.position(); i < first.limit() - 1; i++) {
+            // mpeg audio & adts frame sync
+            if((first.get(i) & 0xff) == 0xff && (first.get(i + 1) & 0xe0) == 0xe0)
+                return true;
+        }
+        return startsWith(first, "ID3") || startsWith(first, "OggS") || startsWith(first, "fLaC");
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, String magic) {
+        if(buffer.remaining() < magic.length())
+            return false;
+        for (int i = 0; i < magic.length(); i++) {
+            if(buffer.get(buffer.position() + i) != magic.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+
+    private final class Racer extends Thread {
+
+        private final int mIndex;
+        private final String mUrl;
+        private volatile Call mCall;
+        private volatile ReadableByteChannel mChannel;
+
+        Racer(int index, String url) {
+            super("StreamRace-" + index);
+            mIndex = index;
+            mUrl = url;
+        }
+
+        @Override
+        public void run() {
+            ReadableByteChannel channel = null;
+            boolean won = false;
+            String endpoint = null;
+            try {
+                endpoint = mResolver.resolve(mUrl, mContentTypes[mIndex]);
+                if(endpoint == null) {
+                    onFailed(mIndex, mUrl, "unresolved");
+                    return;
+                }
+                Request request = new Request.Builder()
+                        .url(endpoint)
+                        .header("Icy-MetaData", "1")
+                        .build();
+                mCall = mClient.newCall(request);
+                if(isOver())
+                    return;
+                Response response = mCall.execute();
+                if(!response.isSuccessful()) {
+                    response.body().close();
+                    onFailed(mIndex, mUrl, "http " + response.code());
+                    mResolver.invalidate(mUrl);
+                    return;
+                }
+                mResolver.onRedirected(mUrl, response.request().urlString());
+                String contentType = response.header("Content-Type", "audio/mpeg");
+                channel = Channels.newChannel(response.body().byteStream());
+                mChannel = channel;
+
+                // read enough to tell it's audio, the winner passes these on first
+                ByteBuffer first = ByteBuffer.allocateDirect(SNIFF_BYTES);
+                while (first.hasRemaining() && channel.read(first) >= 0 && !isOver()) {
+                    // until full, the end of the stream or the race is decided
+                }
+                first.flip();
+                if(!isAudio(contentType, first)) {
+                    onFailed(mIndex, mUrl, "not audio, " + contentType);
+                    return;
+                }
+                int metaInt = IcyMetadataReader.parseMetaInt(response.header("icy-metaint"));
+                won = offer(new Connection(mIndex, mUrl, contentType, metaInt, mCall, channel, first,
+                        elapsedMillis() - mStartedAt));
+            } catch (IOException e) {
+                if(!isOver()) {
+                    onFailed(mIndex, mUrl, e.getMessage());
+                    if(endpoint != null && !endpoint.equals(mUrl))
+                        mResolver.invalidate(mUrl); // perhaps moved, resolve afresh next time
+                }
+            } finally {
+                if(!won)
+                    closeQuietly(channel);
+            }
+        }
+
+        void cancel() {
+            Call call = mCall;
+            if(call != null)
+                call.cancel();
+            closeQuietly(mChannel);
+        }
+    }
+
+    // only intervals are timed, within the race
+    private static long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static void closeQuietly(ReadableByteChannel channel) {
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
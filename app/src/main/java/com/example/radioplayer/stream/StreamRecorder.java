@@ -0,0 +1,184 @@
+package com.example.radioplayer.stream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import timber.log.Timber;
+
+/**
+ * Records the proxied stream by writing the upstream's direct buffers straight to a
+ * FileChannel, so the audio is never copied onto the Java heap or decoded. The recording is
+ * split into parts once a part reaches the duration or size limit, files are named after the
+ * station and given the extension for the stream's content type.
+ *
+ * write() is called on the proxy's upstream thread & allocates nothing, start() and stop()
+ * may be called from any thread. Time spent writing is kept to gauge the recording overhead.
+ */
+public class StreamRecorder {
+
+    public static final long DEFAULT_MAX_DURATION_MS = 60 * 60 * 1000;
+    public static final long DEFAULT_MAX_BYTES = 100 * 1024 * 1024;
+
+    private final File mDirectory;
+    private final long mMaxDurationNanos;
+    private final long mMaxBytes;
+
+    private FileChannel mChannel;
+    private String mBaseName;
+    private String mExtension;
+    private int mPart;
+    private long mPartStartedAt;
+    private long mPartBytes;
+
+    // overhead, across all recordings
+    private long mBytesWritten;
+    private long mWrites;
+    private long mWriteNanos;
+    private long mMaxWriteNanos;
+    private long mRecordingNanos;
+    private long mRecordingStartedAt;
+    private int mErrors;
+
+    public StreamRecorder(File directory) {
+        this(directory, DEFAULT_MAX_DURATION_MS, DEFAULT_MAX_BYTES);
+    }
+
+    public StreamRecorder(File directory, long maxDurationMillis, long maxBytes) {
+        mDirectory = directory;
+        mMaxDurationNanos = maxDurationMillis * 1000000L;
+        mMaxBytes = maxBytes;
+    }
+
+    // the container extension for a stream's content type, as given by Stream.getContent_type()
+    // or the response header
+    public static String getExtension(String contentType) {
+        if(contentType == null)
+            return "mp3";
+        String type = contentType.toLowerCase(Locale.US);
+        int params = type.indexOf(';');
+        if(params >= 0)
+            type = type.substring(0, params);
+        switch (type.trim()) {
+            case "audio/aac":
+            case "audio/aacp":
+            case "audio/x-aac":
+                return "aac";
+            case "audio/mp4":
+            case "audio/m4a":
+            case "audio/x-m4a":
+                return "m4a";
+            case "audio/ogg":
+            case "application/ogg":
+            case "audio/vorbis":
+                return "ogg";
+            case "audio/opus":
+                return "opus";
+            case "audio/flac":
+            case "audio/x-flac":
+                return "flac";
+            case "audio/wav":
+            case "audio/x-wav":
+                return "wav";
+            default:
+                return "mp3"; // audio/mpeg & the unlabelled shoutcast streams
+        }
+    }
+
+    public synchronized boolean isRecording() {
+        return mChannel != null;
+    }
+
+    // begin recording to a new file, ending any recording in progress
+    public synchronized void start(String name, String contentType) throws IOException {
+        stop();
+        if(!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            throw new IOException("Unable to create " + mDirectory);
+        String safeName = name != null ? name.replaceAll("[^A-Za-z0-9_-]+", "_") : "";
+        mBaseName = (safeName.isEmpty() ? "recording" : safeName) + "_"
+                + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        mExtension = getExtension(contentType);
+        mPart = 0;
+        mRecordingStartedAt = System.nanoTime();
+        openPart();
+    }
+
+    public synchronized void stop() {
+        if(mChannel == null)
+            return;
+        closePart();
+        mRecordingNanos += System.nanoTime() - mRecordingStartedAt;
+        Timber.i("Recording stopped: %s, %d parts", mBaseName, mPart);
+    }
+
+    // write the buffer's remaining bytes, leaving its position unchanged for the caller
+    public synchronized void write(ByteBuffer buffer) {
+        if(mChannel == null)
+            return;
+        long start = System.nanoTime();
+        int position = buffer.position();
+        try {
+            if(mPartBytes > 0 && (mPartBytes + buffer.remaining() > mMaxBytes
+                    || start - mPartStartedAt >= mMaxDurationNanos)) {
+                closePart();
+                openPart();
+            }
+            while (buffer.hasRemaining()) {
+                mPartBytes += mChannel.write(buffer);
+            }
+            mBytesWritten += buffer.position() - position;
+        } catch (IOException e) {
+            // stop rather than fail the playback feeding us
+            ++mErrors;
+            Timber.e("Recording failed, stopping: %s", e.getMessage());
+            closePart();
+            mRecordingNanos += start - mRecordingStartedAt;
+        } finally {
+            buffer.position(position);
+        }
+        long elapsed = System.nanoTime() - start;
+        ++mWrites;
+        mWriteNanos += elapsed;
+        mMaxWriteNanos = Math.max(mMaxWriteNanos, elapsed);
+    }
+
+    public synchronized void dump(PrintStream out) {
+        long recording = mRecordingNanos + (mChannel != null ? System.nanoTime() - mRecordingStartedAt : 0);
+        out.println(mChannel != null
+                ? "Recording " + mBaseName + ", part " + mPart + ": " + mPartBytes + " bytes"
+                : "Not recording");
+        if(mWrites == 0)
+            return;
+        out.println(String.format("Written: %d bytes in %d writes, %d errors", mBytesWritten, mWrites, mErrors));
+        out.println(String.format("Write time: avg %dus, max %dus, %.3f%% of recording time",
+                mWriteNanos / mWrites / 1000, mMaxWriteNanos / 1000,
+                recording > 0 ? mWriteNanos * 100.0 / recording : 0.0));
+    }
+
+    private void openPart() throws IOException {
+        ++mPart;
+        File file = new File(mDirectory, mBaseName + (mPart > 1 ? "_" + mPart : "") + "." + mExtension);
+        mChannel = new FileOutputStream(file).getChannel();
+        mPartStartedAt = System.nanoTime();
+        mPartBytes = 0;
+        Timber.i("Recording to %s", file);
+    }
+
+    private void closePart() {
+        if(mChannel == null)
+            return;
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            Timber.e("Error closing recording: %s", e.getMessage());
+        }
+        mChannel = null;
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.example.radioplayer.stream;
+
+import android.os.SystemClock;
+
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Resolves station stream urls to the media endpoint actually served, expanding .pls & .m3u
+ * playlists and remembering where redirects lead. Results are cached per url for RESOLVED_TTL_MS
+ * so replays & skips connect straight to the endpoint, failures are cached for FAILED_TTL_MS so
+ * a dead playlist host doesn't hold up each play.
+ *
+ * Plain stream urls aren't fetched ahead of connecting, the redirects followed while connecting
+ * are reported with onRedirected() instead. resolve() blocks on the network so is called from
+ * the proxy's race threads, never the main thread.
+ */
+public class StreamResolver {
+
+    public interface Clock {
+
+        // monotonic milliseconds, counting time asleep so entries expire across it
+        long now();
+    }
+
+    public static final long RESOLVED_TTL_MS = 30 * 60 * 1000;
+    public static final long FAILED_TTL_MS = 2 * 60 * 1000;
+    private static final int MAX_ENTRIES = 64;
+    private static final int MAX_DEPTH = 3; // playlists of playlists
+    private static final int MAX_PLAYLIST_BYTES = 16 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final class Entry {
+        final String mResolved; // null where resolution failed
+        final long mExpiresAt;
+
+        Entry(String resolved, long expiresAt) {
+            mResolved = resolved;
+            mExpiresAt = expiresAt;
+        }
+    }
+
+    private final OkHttpClient mClient;
+    private final Clock mClock;
+    private final Map<String, Entry> mCache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private int mHits;
+    private int mFailedHits;
+    private int mMisses;
+
+    public StreamResolver(OkHttpClient client) {
+        this(client, new Clock() {
+            @Override
+            public long now() {
+                return SystemClock.elapsedRealtime();
+            }
+        });
+    }
+
+    public StreamResolver(OkHttpClient client, Clock clock) {
+        mClient = client;
+        mClock = clock;
+    }
+
+    // the endpoint to connect to for the url, null where it's known to fail to resolve. The
+    // content type listed for the stream, where there is one, marks playlists without an extension
+    public String resolve(String url, String contentType) {
+        Entry entry = get(url);
+        if(entry != null)
+            return entry.mResolved;
+        if(!isPlaylist(url, contentType))
+            return url; // connected to directly, redirects reported as they're followed
+
+        String resolved = null;
+        try {
+            resolved = expand(url, 0);
+        } catch (IOException e) {
+            Timber.e("Error resolving playlist %s: %s", url, e.getMessage());
+        }
+        put(url, resolved, resolved != null ? RESOLVED_TTL_MS : FAILED_TTL_MS);
+        return resolved;
+    }
+
+    // the cached endpoint for the url without touching the network, the url itself if none
+    public synchronized String getCached(String url) {
+        Entry entry = mCache.get(url);
+        boolean isValid = entry != null && entry.mResolved != null
+                && mClock.now() < entry.mExpiresAt;
+        return isValid ? entry.mResolved : url;
+    }
+
+    // connecting to the url ended up at another, remember it for next time
+    public void onRedirected(String url, String finalUrl) {
+        if(finalUrl != null && !finalUrl.equals(url))
+            put(url, finalUrl, RESOLVED_TTL_MS);
+    }
+
+    // an endpoint resolved before the process was restarted, for the time it had left
+    public void restore(String url, String resolved, long ttl) {
+        if(resolved != null && ttl > 0)
+            put(url, resolved, ttl);
+    }
+
+    // the endpoint resolved for the url failed, resolve afresh next time
+    public synchronized void invalidate(String url) {
+        mCache.remove(url);
+    }
+
+    public synchronized void clear() {
+        mCache.clear();
+    }
+
+    public synchronized void dump(PrintStream out) {
+        out.println(String.format("Resolver: %d entries, %d hits, %d failed hits, %d misses",
+                mCache.size(), mHits, mFailedHits, mMisses));
+    }
+
+    // playlists need resolving before they can be played, by the listed content type or the url
+    public static boolean isPlaylist(String url, String contentType) {
+        if(contentType != null) {
+            String type = contentType.toLowerCase(Locale.US);
+            if(type.contains("mpegurl") || type.contains("scpls"))
+                return true;
+        }
+        String path = url.toLowerCase(Locale.US);
+        int end = path.indexOf('?');
+        if(end >= 0)
+            path = path.substring(0, end);
+        return path.endsWith(".pls") || path.endsWith(".m3u") || path.endsWith(".m3u8");
+    }
+
+    // the first stream url in a .pls or .m3u playlist, null where there are none
+    static String parsePlaylist(String playlist) {
+        boolean isPls = playlist.trim().startsWith("[playlist]");
+        for (String line : playlist.split("\r?\n")) {
+            String entry = line.trim();
+            if(isPls) {
+                int equals = entry.indexOf('=');
+                if(!entry.regionMatches(true, 0, "File", 0, 4) || equals < 0)
+                    continue;
+                entry = entry.substring(equals + 1).trim();
+            } else if(entry.startsWith("#EXT-X-")) {
+                return null; // HLS, not a single stream the proxy can play
+            }
+            if(entry.startsWith("http://") || entry.startsWith("https://"))
+                return entry;
+        }
+        return null;
+    }
+
+    private String expand(String url, int depth) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .build();
+        Response response = mClient.newCall(request).execute();
+        InputStream in = response.body().byteStream();
+        try {
+            if(!response.isSuccessful())
+                throw new IOException("http " + response.code());
+            // bounded, a mislabelled stream would never end
+            byte[] buffer = new byte[MAX_PLAYLIST_BYTES];
+            int length = 0;
+            int count;
+            while (length < buffer.length && (count = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += count;
+            }
+            String entry = parsePlaylist(new String(buffer, 0, length, UTF_8));
+            if(entry == null)
+                throw new IOException("no stream in playlist");
+            Timber.i("Playlist %s resolved to %s", url, entry);
+            return isPlaylist(entry, null) && depth < MAX_DEPTH ? expand(entry, depth + 1) : entry;
+        } finally {
+            in.close();
+        }
+    }
+
+    private synchronized Entry get(String url) {
+        Entry entry = mCache.get(url);
+        if(entry != null && mClock.now() >= entry.mExpiresAt) {
+            mCache.remove(url);
+            entry = null;
+        }
+        if(entry == null)
+            ++mMisses;
+        else if(entry.mResolved == null)
+            ++mFailedHits;
+        else
+            ++mHits;
+        return entry;
+    }
+
+    private synchronized void put(String url, String resolved, long ttl) {
+        mCache.put(url, new Entry(resolved, mClock.now() + ttl));
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.example.radioplayer.stream;
+
+import com.example.radioplayer.model.Station;
+import com.example.radioplayer.model.Stream;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Chooses which of a station's streams to play from their bitrate & content type and the
+ * live bandwidth estimate. With no estimate yet the choice is conservative, the best stream
+ * up to STARTUP_KBPS, as a lower bitrate reaches the proxy's start threshold sooner.
+ *
+ * rank() orders the station's other streams behind the selected one for the proxy to race
+ * when the selected stream is slow to produce audio.
+ *
+ * Repeated underruns on a stream cap the bitrate chosen below it, the cap is lifted after a
+ * period without underruns.
+ */
+public class StreamSelector {
+
+    public static final int STARTUP_KBPS = 96;
+    public static final int UNDERRUNS_TO_SWITCH = 3;
+    public static final long UNDERRUN_WINDOW_MS = 60 * 1000;
+    public static final long CAP_EXPIRY_MS = 10 * 60 * 1000;
+    private static final double BANDWIDTH_FRACTION = 0.75; // headroom for the link varying
+    private static final int UNKNOWN_KBPS = 128;
+
+    private final BandwidthMeter mBandwidthMeter;
+    private int mCapKbps = Integer.MAX_VALUE;
+    private long mCappedAt;
+    private long[] mUnderrunTimes = new long[UNDERRUNS_TO_SWITCH];
+    private int mUnderruns;
+
+    public StreamSelector(BandwidthMeter bandwidthMeter) {
+        mBandwidthMeter = bandwidthMeter;
+    }
+
+    // the stream to play, null where the station has none
+    public synchronized Stream select(Station stn, long now) {
+        List<Stream> candidates = getCandidates(stn);
+        if(candidates.isEmpty())
+            return null;
+        if(mCapKbps != Integer.MAX_VALUE && now - mCappedAt > CAP_EXPIRY_MS)
+            mCapKbps = Integer.MAX_VALUE;
+
+        int estimate = mBandwidthMeter.getEstimateKbps();
+        int limit = estimate > 0 ? (int) (estimate * BANDWIDTH_FRACTION) : STARTUP_KBPS;
+        return highestUpTo(candidates, Math.min(limit, mCapKbps));
+    }
+
+    // the selected stream followed by up to max - 1 alternates to race it at startup, those
+    // nearest its bitrate first & lower before higher at the same distance
+    public synchronized List<Stream> rank(Station stn, long now, int max) {
+        List<Stream> ranked = new ArrayList<>();
+        final Stream selected = select(stn, now);
+        if(selected == null)
+            return ranked;
+        List<Stream> alternates = getCandidates(stn);
+        alternates.remove(selected);
+        final int kbps = getKbps(selected);
+        Collections.sort(alternates, new Comparator<Stream>() {
+            @Override
+            public int compare(Stream a, Stream b) {
+                int ka = getKbps(a);
+                int kb = getKbps(b);
+                int byDistance = Math.abs(ka - kbps) - Math.abs(kb - kbps);
+                return byDistance != 0 ? byDistance : ka - kb;
+            }
+        });
+        ranked.add(selected);
+        for (int i = 0; i < alternates.size() && ranked.size() < max; i++) {
+            ranked.add(alternates.get(i));
+        }
+        return ranked;
+    }
+
+    // the stream to fail over to from one which stopped, the next lower bitrate wrapping round
+    // to the highest. Null where the station has no other
+    public synchronized Stream next(Station stn, Stream current) {
+        List<Stream> candidates = getCandidates(stn);
+        Collections.sort(candidates, new Comparator<Stream>() {
+            @Override
+            public int compare(Stream a, Stream b) {
+                return getKbps(b) - getKbps(a);
+            }
+        });
+        int index = candidates.indexOf(current);
+        if(candidates.isEmpty() || (candidates.size() == 1 && index == 0))
+            return null;
+        return candidates.get((index + 1) % candidates.size());
+    }
+
+    // record an underrun on the stream playing, returning a lower bitrate stream of the
+    // station to switch to once they're repeated, otherwise null
+    public synchronized Stream onUnderrun(Station stn, Stream playing, long now) {
+        mUnderrunTimes[mUnderruns++ % UNDERRUNS_TO_SWITCH] = now;
+        if(mUnderruns < UNDERRUNS_TO_SWITCH)
+            return null;
+        // the oldest of the last few underruns
+        long oldest = mUnderrunTimes[mUnderruns % UNDERRUNS_TO_SWITCH];
+        if(now - oldest > UNDERRUN_WINDOW_MS)
+            return null;
+
+        mUnderruns = 0;
+        int playingKbps = getKbps(playing);
+        Stream lower = highestUpTo(getCandidates(stn), playingKbps - 1);
+        if(lower == null || getKbps(lower) >= playingKbps)
+            return null; // already on the lowest
+        mCapKbps = getKbps(lower);
+        mCappedAt = now;
+        return lower;
+    }
+
+    // a new stream resets the underrun count
+    public synchronized void onStreamStarted() {
+        mUnderruns = 0;
+    }
+
+    public synchronized void dump(PrintStream out) {
+        out.println(mBandwidthMeter);
+        out.println("Cap: " + (mCapKbps == Integer.MAX_VALUE ? "none" : mCapKbps + "kbps")
+                + ", underruns: " + mUnderruns);
+    }
+
+    public static int getKbps(Stream stream) {
+        Integer bitrate = stream.getBitrate();
+        return bitrate != null && bitrate > 0 ? bitrate : UNKNOWN_KBPS;
+    }
+
+    // playlist urls need resolving before MediaPlayer can play them
+    public static boolean isPlaylist(Stream stream) {
+        return StreamResolver.isPlaylist(stream.getStream(), stream.getContent_type());
+    }
+
+    // the playable streams, playlists only where there's nothing else
+    private static List<Stream> getCandidates(Station stn) {
+        List<Stream> direct = new ArrayList<>();
+        List<Stream> playlists = new ArrayList<>();
+        if(stn.getStreams() != null) {
+            for (Stream stream : stn.getStreams()) {
+                Integer status = stream.getStatus();
+                String url = stream.getStream();
+                if(status == null || status < 0 || url == null || url.isEmpty())
+                    continue;
+                String type = stream.getContent_type();
+                if(type != null && type.startsWith("video/"))
+                    continue;
+                (isPlaylist(stream) ? playlists : direct).add(stream);
+            }
+        }
+        return direct.isEmpty() ? playlists : direct;
+    }
+
+    // the highest bitrate within the limit, the lowest bitrate where none are
+    private static Stream highestUpTo(List<Stream> streams, int limitKbps) {
+        Stream best = null;
+        Stream lowest = null;
+        for (Stream stream : streams) {
+            int kbps = getKbps(stream);
+            if(kbps <= limitKbps && (best == null || kbps > getKbps(best)))
+                best = stream;
+            if(lowest == null || kbps < getKbps(lowest))
+                lowest = stream;
+        }
+        return best != null ? best : lowest;
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.example.radioplayer.stream;
+
+import android.os.SystemClock;
+
+import java.io.PrintStream;
+
+/**
+ * Throughput & buffer fill figures for the current proxy session. Upstream figures are written
+ * by the upstream thread and player figures by the client thread, all are read when dumped.
+ */
+public class StreamStats {
+
+    private static final long RATE_WINDOW_MS = 1000;
+    // a cellular radio stays in its high power state this long after the last transfer
+    private static final long RADIO_TAIL_MS = 5000;
+
+    private volatile String mUrl;
+    private volatile int mKbps;
+    private volatile long mOpenedAt;
+    private volatile long mTimeToFirstByte;
+    private volatile long mTimeToStart;
+    private volatile long mStartedAt; // 0 until the player is served
+    private volatile int mStartThreshold;
+    private volatile int mCandidates;
+    private volatile int mWinner; // index of the stream which won the race
+    private volatile long mTimeToConnect;
+
+    // upstream
+    private volatile long mBytesIn;
+    private volatile int mRateIn; // kbps over the last window
+    private long mWindowStart;
+    private long mWindowBytes;
+
+    // player
+    private volatile long mBytesOut;
+    private volatile int mUnderruns;
+    private volatile int mMinFill = Integer.MAX_VALUE;
+
+    // burst mode
+    private volatile int mBursts;
+    private volatile long mIdleMillis;
+    private volatile long mRadioIdleMillis; // idle beyond the radio's tail
+    private volatile long mTotalRadioIdleMillis; // across streams, never reset
+
+    void reset(String url, int kbps, int startThreshold) {
+        mUrl = url;
+        mKbps = kbps;
+        mStartThreshold = startThreshold;
+        mOpenedAt = SystemClock.elapsedRealtime();
+        mCandidates = 0;
+        mWinner = 0;
+        mTimeToConnect = 0;
+        mTimeToFirstByte = 0;
+        mTimeToStart = 0;
+        mStartedAt = 0;
+        mBytesIn = 0;
+        mRateIn = 0;
+        mWindowStart = mOpenedAt;
+        mWindowBytes = 0;
+        mBytesOut = 0;
+        mUnderruns = 0;
+        mMinFill = Integer.MAX_VALUE;
+        mBursts = 0;
+        mIdleMillis = 0;
+        mRadioIdleMillis = 0;
+    }
+
+    // the race was won by the given stream, its first audio read after millis
+    void onConnected(String url, int kbps, int startThreshold, int winner, int candidates, long millis) {
+        mUrl = url;
+        mKbps = kbps;
+        mStartThreshold = startThreshold;
+        mWinner = winner;
+        mCandidates = candidates;
+        mTimeToConnect = millis;
+    }
+
+    void onBytesIn(int count) {
+        long now = SystemClock.elapsedRealtime();
+        if(mBytesIn == 0)
+            mTimeToFirstByte = now - mOpenedAt;
+        mBytesIn += count;
+        mWindowBytes += count;
+        long elapsed = now - mWindowStart;
+        if(elapsed >= RATE_WINDOW_MS) {
+            mRateIn = (int) (mWindowBytes * 8 / elapsed);
+            mWindowStart = now;
+            mWindowBytes = 0;
+        }
+    }
+
+    void onStarted(int startThreshold) {
+        mStartThreshold = startThreshold;
+        mStartedAt = SystemClock.elapsedRealtime();
+        mTimeToStart = mStartedAt - mOpenedAt;
+    }
+
+    // called before each write to the player with the bytes buffered at that point
+    void onBytesOut(int count, int fill) {
+        mBytesOut += count;
+        mMinFill = Math.min(mMinFill, fill);
+    }
+
+    void onUnderrun() {
+        ++mUnderruns;
+    }
+
+    // upstream reads stopped for the given time, a burst follows
+    void onIdle(long millis) {
+        ++mBursts;
+        mIdleMillis += millis;
+        long radioIdle = Math.max(0, millis - RADIO_TAIL_MS);
+        mRadioIdleMillis += radioIdle;
+        mTotalRadioIdleMillis += radioIdle;
+    }
+
+    public long getBytesIn() {
+        return mBytesIn;
+    }
+
+    public int getUnderruns() {
+        return mUnderruns;
+    }
+
+    // the audio received ahead of the player, assuming it's played in real time since starting.
+    // Pauses make this an underestimate
+    public long getLeadMillis() {
+        int kbps = mKbps > 0 ? mKbps : 128;
+        long received = mBytesIn * 8 / kbps;
+        return mStartedAt == 0 ? received : received - (SystemClock.elapsedRealtime() - mStartedAt);
+    }
+
+    public long getTotalRadioIdleMillis() {
+        return mTotalRadioIdleMillis;
+    }
+
+    // the time the radio's been kept active by this stream, all of it unless bursting
+    public long getRadioActiveMillis() {
+        return Math.max(0, SystemClock.elapsedRealtime() - mOpenedAt - mRadioIdleMillis);
+    }
+
+    public void dump(PrintStream out, RingBuffer ring) {
+        if(mUrl == null) {
+            out.println("No stream opened");
+            return;
+        }
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - mOpenedAt);
+        int fill = ring.available();
+        out.println("Url: " + mUrl + ", " + mKbps + "kbps");
+        if(mCandidates > 0)
+            out.println(String.format("Race: stream %d of %d won, audio after %dms",
+                    mWinner + 1, mCandidates, mTimeToConnect));
+        out.println(String.format("Upstream: %d bytes, %dkbps now, %dkbps avg, first byte after %dms",
+                mBytesIn, mRateIn, mBytesIn * 8 / elapsed, mTimeToFirstByte));
+        out.println(String.format("Player: %d bytes, started after %dms at %d bytes, %d underruns",
+                mBytesOut, mTimeToStart, mStartThreshold, mUnderruns));
+        out.println(String.format("Buffer: %d of %d bytes (%d%%), min while playing %d bytes",
+                fill, ring.capacity(), fill * 100 / ring.capacity(),
+                mMinFill == Integer.MAX_VALUE ? 0 : mMinFill));
+        if(mBursts > 0) {
+            // continuous reads keep the radio active for the whole stream
+            out.println(String.format("Bursts: %d, idle %ds, radio active ~%ds of %ds (%d%%)",
+                    mBursts, mIdleMillis / 1000, getRadioActiveMillis() / 1000, elapsed / 1000,
+                    getRadioActiveMillis() * 100 / elapsed));
+        }
+    }
+
+}
@@ -3,6 +3,7 @@ package com.example.radioplayer.util;
 public class Constants {
 
     public static final String KEY_QUEUE_POSITION = "queue_position";
+    public static final String KEY_ATTACH_TO_SESSION = "attach_to_session";
     public static final String KEY_CATEGORY_ID = "category_id";
     public static final String KEY_CATEGORY_TITLE = "category_title";
     public static final String KEY_CATEGORY_ICON = "category_icon";
@@ -0,0 +1,64 @@
+package com.example.radioplayer.util;
+
+import com.facebook.stetho.dumpapp.DumpException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Stetho dumpapp plugin printing the app's runtime metrics, usage:
+ * ./dumpapp radioplayer [section]
+ * Components add a named section which is printed on request, all sections by default.
+ */
+public class DebugDumperPlugin implements DumperPlugin {
+
+    private static final String NAME = "radioplayer";
+    private static final Map<String, Section> sSections = new ConcurrentSkipListMap<>();
+
+    public interface Section {
+        void dump(PrintStream out);
+    }
+
+    public static void addSection(String name, Section section) {
+        sSections.put(name, section);
+    }
+
+    public static void removeSection(String name) {
+        sSections.remove(name);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void dump(DumperContext dumpContext) throws DumpException {
+        PrintStream out = dumpContext.getStdout();
+        List<String> args = dumpContext.getArgsAsList();
+
+        if(args.isEmpty()) {
+            for (Map.Entry<String, Section> entry : sSections.entrySet()) {
+                dumpSection(out, entry.getKey(), entry.getValue());
+            }
+        } else {
+            for (String name : args) {
+                Section section = sSections.get(name);
+                if(section == null)
+                    throw new DumpException("Unknown section: " + name + ", available: " + sSections.keySet());
+                dumpSection(out, name, section);
+            }
+        }
+    }
+
+    private static void dumpSection(PrintStream out, String name, Section section) {
+        out.println("== " + name + " ==");
+        section.dump(out);
+        out.println();
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.example.radioplayer.util;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.ContextThemeWrapper;
+
+import com.example.radioplayer.R;
+import com.example.radioplayer.adapter.ListItemAdapter;
+import com.example.radioplayer.model.Station;
+
+import java.util.ArrayList;
+
+/**
+ * Singleton holding the RecycledViewPool shared by every station list. Rows are inflated one
+ * at a time while the main thread is idle, using a themed application context so pooled views
+ * never hold onto an activity, and topped up again as lists take them from the pool.
+ *
+ * Every row is inflated with the same context, pooled or not, so they're identical. The player
+ * layout isn't preloaded, it needs the activity's theme & AppCompat's inflater to match.
+ */
+
+public class ViewPreloader {
+
+    private static final int STATION_ROW_TYPE = 0;
+    private static final int MAX_STATION_ROWS = 16;
+
+    private static ViewPreloader sViewPreloader;
+
+    private Context mContext;
+    private ListItemAdapter mStationAdapter;
+    private RecyclerView mStationParent;
+    private int mPooledRows; // station rows waiting in the pool
+    private boolean mIsScheduled;
+
+    // counts the rows pooled, the pool can't be asked
+    private final RecyclerView.RecycledViewPool mStationViewPool = new RecyclerView.RecycledViewPool() {
+        @Override
+        public RecyclerView.ViewHolder getRecycledView(int viewType) {
+            RecyclerView.ViewHolder holder = super.getRecycledView(viewType);
+            if(holder != null && viewType == STATION_ROW_TYPE) {
+                --mPooledRows;
+                schedulePreload();
+            }
+            return holder;
+        }
+
+        @Override
+        public void putRecycledView(RecyclerView.ViewHolder holder) {
+            super.putRecycledView(holder);
+            if(holder.getItemViewType() == STATION_ROW_TYPE)
+                mPooledRows = Math.min(mPooledRows + 1, MAX_STATION_ROWS); // any more are dropped
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            mPooledRows = 0;
+            schedulePreload();
+        }
+    };
+
+    private ViewPreloader() {}
+
+    public static ViewPreloader getInstance() {
+        if(sViewPreloader == null) {
+            sViewPreloader = new ViewPreloader();
+        }
+        return sViewPreloader;
+    }
+
+    // called once from the application, must be called on the main thread
+    public void init(Context context) {
+        if(mContext != null)
+            return;
+        mContext = new ContextThemeWrapper(context.getApplicationContext(), R.style.AppTheme_NoActionBar);
+        mStationViewPool.setMaxRecycledViews(STATION_ROW_TYPE, MAX_STATION_ROWS);
+
+        // the parent is only used to generate the correct layout params, views are never attached
+        mStationParent = new RecyclerView(mContext);
+        mStationParent.setLayoutManager(new LinearLayoutManager(mContext));
+        mStationAdapter = new ListItemAdapter(new ArrayList<Station>(), mContext, R.drawable.icon_pop);
+
+        schedulePreload();
+    }
+
+    // context used to inflate rows which may end up in the shared pool
+    public Context getContext() {
+        return mContext;
+    }
+
+    public RecyclerView.RecycledViewPool getStationViewPool() {
+        return mStationViewPool;
+    }
+
+    // top up the station row pool the next time the main thread is idle
+    public void schedulePreload() {
+        if(mContext == null || mIsScheduled)
+            return;
+        mIsScheduled = true;
+        Looper.myQueue().addIdleHandler(mIdleHandler);
+    }
+
+    private final MessageQueue.IdleHandler mIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            // inflate a single view per idle pass to keep each slice short
+            if(mPooledRows < MAX_STATION_ROWS) {
+                RecyclerView.ViewHolder holder = mStationAdapter.createViewHolder(mStationParent, STATION_ROW_TYPE);
+                mStationViewPool.putRecycledView(holder);
+                return true;
+            }
+            mIsScheduled = false;
+            return false; // the pool is full, remove the handler
+        }
+    };
+
+}
@@ -0,0 +1,27 @@
+package com.example.radioplayer;
+
+import org.junit.Assume;
+
+import java.util.Locale;
+
+/**
+ * Wall clock throughput depends on the machine & whatever else it's running, so strict timing
+ * checks are left out of the unit test run. They only run with ./gradlew test -Pbenchmarks, and
+ * only then print their results.
+ */
+public final class Benchmarks {
+
+    public static final String PROPERTY = "radioplayer.benchmarks";
+
+    private Benchmarks() {}
+
+    // skips the rest of the test unless benchmarks were asked for
+    public static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks run with -Pbenchmarks", Boolean.getBoolean(PROPERTY));
+    }
+
+    public static void report(String format, Object... args) {
+        System.out.println(String.format(Locale.US, format, args));
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.example.radioplayer.bus;
+
+import com.example.radioplayer.Benchmarks;
+import com.example.radioplayer.event.MessageEvent;
+import com.example.radioplayer.event.PlaybackServiceEvent;
+import com.example.radioplayer.event.QueuePositionEvent;
+import com.squareup.otto.Bus;
+import com.squareup.otto.ThreadEnforcer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput of the generated-table EventBus against the reflective Otto bus it replaced,
+ * both dispatching the same events to the same subscriber on a single thread. A loose check,
+ * with room for a noisy machine, runs with the unit tests so a slower dispatch path fails the
+ * build. The strict one only runs as a benchmark, see {@link Benchmarks}.
+ */
+public class EventBusBenchmarkTest {
+
+    private static final int WARM_UP = 200000;
+    private static final int EVENTS = 2000000;
+    private static final int GUARD_EVENTS = 500000;
+
+    public static class Listener {
+
+        int mQueuePositions;
+        int mMessages;
+
+        @Subscribe
+        @com.squareup.otto.Subscribe
+        public void getQueuePositionEvent(QueuePositionEvent event) {
+            mQueuePositions += event.getQueuePosition();
+        }
+
+        @Subscribe
+        @com.squareup.otto.Subscribe
+        public void getMessageEvent(MessageEvent event) {
+            ++mMessages;
+        }
+    }
+
+    @Test
+    public void post_deliversToSuperTypeSubscribers() throws Exception {
+        EventBus bus = new EventBus();
+        Listener listener = new Listener();
+        bus.register(listener);
+
+        bus.post(new QueuePositionEvent(3));
+        bus.post(new PlaybackServiceEvent(PlaybackServiceEvent.ON_STOP));
+        bus.post(new MessageEvent("message"));
+        assertEquals(3, listener.mQueuePositions);
+        assertEquals(2, listener.mMessages);
+
+        bus.unregister(listener);
+        bus.post(new MessageEvent("message"));
+        assertEquals(2, listener.mMessages);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unregister_unknownTargetThrows() throws Exception {
+        new EventBus().unregister(new Listener());
+    }
+
+    @Test
+    public void throughput_noSlowerThanOtto() throws Exception {
+        long[] nanos = race(GUARD_EVENTS);
+        assertTrue("EventBus " + nanos[0] + "ns, Otto " + nanos[1] + "ns", nanos[0] < nanos[1] * 3 / 2);
+    }
+
+    @Test
+    public void throughput_fasterThanOtto() throws Exception {
+        Benchmarks.assumeEnabled();
+        long[] nanos = race(EVENTS);
+        Benchmarks.report("EventBus: %,d events/s, Otto: %,d events/s",
+                EVENTS * 1000000000L / nanos[0], EVENTS * 1000000000L / nanos[1]);
+        assertTrue("EventBus " + nanos[0] + "ns, Otto " + nanos[1] + "ns", nanos[0] < nanos[1]);
+    }
+
+    // nanoseconds each bus takes to deliver the events, EventBus first
+    private static long[] race(int count) {
+        Object[] events = {
+                new QueuePositionEvent(1),
+                new PlaybackServiceEvent(PlaybackServiceEvent.ON_BUFFERING_COMPLETE)
+        };
+
+        final EventBus eventBus = new EventBus();
+        Listener eventBusListener = new Listener();
+        eventBus.register(eventBusListener);
+
+        final Bus ottoBus = new Bus(ThreadEnforcer.ANY);
+        Listener ottoListener = new Listener();
+        ottoBus.register(ottoListener);
+
+        Poster eventBusPoster = new Poster() {
+            @Override
+            public void post(Object event) {
+                eventBus.post(event);
+            }
+        };
+        Poster ottoPoster = new Poster() {
+            @Override
+            public void post(Object event) {
+                ottoBus.post(event);
+            }
+        };
+
+        run(eventBusPoster, events, WARM_UP);
+        run(ottoPoster, events, WARM_UP);
+        long eventBusNanos = run(eventBusPoster, events, count);
+        long ottoNanos = run(ottoPoster, events, count);
+
+        assertEquals(ottoListener.mQueuePositions, eventBusListener.mQueuePositions);
+        assertEquals(ottoListener.mMessages, eventBusListener.mMessages);
+        return new long[] {eventBusNanos, ottoNanos};
+    }
+
+    private static long run(Poster poster, Object[] events, int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            poster.post(events[i & 1]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private interface Poster {
+        void post(Object event);
+    }
+
+}
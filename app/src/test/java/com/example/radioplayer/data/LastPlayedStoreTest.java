@@ -0,0 +1,160 @@
+package com.example.radioplayer.data;
+
+import com.example.radioplayer.model.Image;
+import com.example.radioplayer.model.Station;
+import com.example.radioplayer.model.Stream;
+import com.example.radioplayer.model.Thumb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Saves queues to a temporary directory and reads them back, checking the station & streams
+ * survive the round trip, long queues are cut to a window around the station and files that
+ * can't be used are ignored rather than restored.
+ */
+public class LastPlayedStoreTest {
+
+    private static final String URL = "http://a.example.com/live.pls";
+    private static final String ENDPOINT = "http://stream.example.com:8000/live";
+    private static final long SAVED_AT = 1456000000000L;
+
+    private File mDirectory;
+    private LastPlayedStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("last_played", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+        mStore = new LastPlayedStore(mDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void load_nothingSaved() throws Exception {
+        assertNull(mStore.load());
+    }
+
+    @Test
+    public void save_roundTripsStationStreamsAndEndpoint() throws Exception {
+        List<Station> stations = new ArrayList<>();
+        stations.add(station(1, "One", URL, 128));
+        stations.add(new Station(null, null, null, null, null, null));
+        stations.add(station(3, "Three", "http://c.example.com/", null));
+        mStore.save(new LastPlayedStore.LastPlayed(PlaybackQueue.of(4, stations, false), 0, URL, ENDPOINT, SAVED_AT));
+
+        LastPlayedStore.LastPlayed restored = mStore.load();
+        assertEquals(0, restored.getPosition());
+        assertEquals(URL, restored.getStreamUrl());
+        assertEquals(ENDPOINT, restored.getEndpoint());
+        assertEquals(SAVED_AT, restored.getSavedAt());
+
+        PlaybackQueue queue = restored.getQueue();
+        assertEquals(3, queue.size());
+        assertEquals(LastPlayedStore.RESTORED_GENERATION, queue.getGeneration());
+        assertTrue(queue.isLastPage());
+        assertEquals(1, queue.getId(0));
+        assertEquals("One", queue.getName(0));
+        assertEquals("GB", queue.getCountry(0));
+        assertEquals("one", queue.getSlug(0));
+        assertEquals("http://img.example.com/1.png", queue.getImageUrl(0));
+        assertEquals("http://img.example.com/thumb_1.png", queue.getThumbUrl(0));
+        assertEquals("http://img.example.com/thumb_1.png", queue.getStation(0).getLogoUrl());
+        Stream stream = queue.getStation(0).getStreams().get(0);
+        assertEquals(URL, stream.getStream());
+        assertEquals(Integer.valueOf(128), stream.getBitrate());
+        assertEquals("audio/mpeg", stream.getContent_type());
+
+        // missing values come back missing rather than as the queue's empty strings
+        assertEquals(-1, queue.getId(1));
+        assertNull(queue.getStation(1).getId());
+        assertNull(queue.getStation(1).getLogoUrl());
+        assertTrue(queue.getStation(1).getStreams().isEmpty());
+        assertNull(queue.getStation(2).getStreams().get(0).getBitrate());
+    }
+
+    @Test
+    public void save_keepsAWindowOfLongQueues() throws Exception {
+        List<Station> stations = new ArrayList<>();
+        for (int i = 0; i < 3 * LastPlayedStore.MAX_QUEUE_STATIONS; i++) {
+            stations.add(station(i, "Station " + i, "http://s" + i + ".example.com/", 64));
+        }
+        PlaybackQueue queue = PlaybackQueue.of(2, stations, false);
+
+        mStore.save(new LastPlayedStore.LastPlayed(queue, 70, URL, null, SAVED_AT));
+        LastPlayedStore.LastPlayed restored = mStore.load();
+        assertEquals(LastPlayedStore.MAX_QUEUE_STATIONS, restored.getQueue().size());
+        assertEquals(70, restored.getQueue().getId(restored.getPosition()));
+        assertNull(restored.getEndpoint());
+
+        // up against the end the window is still full
+        mStore.save(new LastPlayedStore.LastPlayed(queue, queue.size() - 1, URL, null, SAVED_AT));
+        restored = mStore.load();
+        assertEquals(LastPlayedStore.MAX_QUEUE_STATIONS, restored.getQueue().size());
+        assertEquals(LastPlayedStore.MAX_QUEUE_STATIONS - 1, restored.getPosition());
+        assertEquals(queue.size() - 1, restored.getQueue().getId(restored.getPosition()));
+
+        // a few hundred bytes a station
+        long bytes = new File(mDirectory, LastPlayedStore.FILE_NAME).length();
+        assertTrue(bytes + " bytes", bytes < LastPlayedStore.MAX_QUEUE_STATIONS * 256);
+    }
+
+    @Test
+    public void load_restoredQueueIsNotTheCachesEmptyQueue() throws Exception {
+        mStore.save(new LastPlayedStore.LastPlayed(PlaybackQueue.of(1,
+                Arrays.asList(station(1, "One", URL, 128)), false), 0, URL, ENDPOINT, SAVED_AT));
+
+        // the service keeps its queue only while the cache's snapshots carry the same generation,
+        // the cache serves the empty queue until its first page loads
+        PlaybackQueue queue = mStore.load().getQueue();
+        assertNotEquals(PlaybackQueue.EMPTY.getGeneration(), queue.getGeneration());
+        assertTrue(queue.getGeneration() < 1);
+    }
+
+    @Test
+    public void load_ignoresFilesItDidNotWrite() throws Exception {
+        FileOutputStream out = new FileOutputStream(new File(mDirectory, LastPlayedStore.FILE_NAME));
+        out.write("{\"id\":1}".getBytes("UTF-8"));
+        out.close();
+        assertNull(mStore.load());
+    }
+
+    @Test(expected = IOException.class)
+    public void load_failsOnATruncatedFile() throws Exception {
+        mStore.save(new LastPlayedStore.LastPlayed(PlaybackQueue.of(1,
+                Arrays.asList(station(1, "One", URL, 128)), false), 0, URL, ENDPOINT, SAVED_AT));
+        File file = new File(mDirectory, LastPlayedStore.FILE_NAME);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(bytes, 0, bytes.length - 8);
+        out.close();
+        mStore.load();
+    }
+
+    private static Station station(long id, String name, String url, Integer kbps) {
+        Image image = new Image("http://img.example.com/" + id + ".png",
+                new Thumb("http://img.example.com/thumb_" + id + ".png"));
+        List<Stream> streams = new ArrayList<>();
+        streams.add(new Stream(url, kbps, "audio/mpeg", 1));
+        return new Station(id, name, "GB", image, name.toLowerCase().replace(' ', '-'), streams);
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.example.radioplayer.engine;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Plays a stream on an engine for a while and measures what the listener notices: time from
+ * the request to audio, rebuffers per minute & time spent rebuffering, and the cpu used. The
+ * clock & cpu meter are passed in, so runs are driven on the jvm with a fake engine. Test code,
+ * it isn't shipped with the app.
+ *
+ * Engine callbacks may arrive on another thread to the one running the benchmark.
+ */
+public class EngineBenchmark implements PlaybackEngine.Listener {
+
+    public interface Clock {
+
+        // monotonic milliseconds
+        long now();
+    }
+
+    public interface CpuMeter {
+
+        // milliseconds of cpu used so far, by whatever the meter covers
+        long cpuTime();
+    }
+
+    public static class Result {
+
+        public final String engine;
+        public final long timeToAudioMs; // -1 where playback never started
+        public final int rebuffers;
+        public final long rebufferMs;
+        public final long playingMs; // from audio starting to the end of the run
+        public final long cpuMs;
+        public final int error; // 0 where there was none
+
+        Result(String engine, long timeToAudioMs, int rebuffers, long rebufferMs, long playingMs,
+               long cpuMs, int error) {
+            this.engine = engine;
+            this.timeToAudioMs = timeToAudioMs;
+            this.rebuffers = rebuffers;
+            this.rebufferMs = rebufferMs;
+            this.playingMs = playingMs;
+            this.cpuMs = cpuMs;
+            this.error = error;
+        }
+
+        public float getRebuffersPerMinute() {
+            return playingMs > 0 ? rebuffers * 60000f / playingMs : 0;
+        }
+
+        // of one core, over the time audio was playing
+        public float getCpuPercent() {
+            return playingMs > 0 ? cpuMs * 100f / playingMs : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: time to audio %dms, %d rebuffers (%.1f/min, %dms), cpu %.1f%%%s",
+                    engine, timeToAudioMs, rebuffers, getRebuffersPerMinute(), rebufferMs,
+                    getCpuPercent(), error != 0 ? ", error " + error : "");
+        }
+    }
+
+    private final PlaybackEngine mEngine;
+    private final Clock mClock;
+    private final CpuMeter mCpuMeter;
+
+    private long mRequestedAt;
+    private long mStartedAt = -1;
+    private long mStartCpu;
+    private int mRebuffers;
+    private long mRebufferingSince = -1;
+    private long mRebufferMs;
+    private long mEndedAt = -1; // completed or failed before the run ended
+    private int mError;
+
+    public EngineBenchmark(PlaybackEngine engine, Clock clock, CpuMeter cpuMeter) {
+        mEngine = engine;
+        mClock = clock;
+        mCpuMeter = cpuMeter;
+        mEngine.setListener(this);
+    }
+
+    // request playback of the url, timed from here
+    public synchronized void begin(String url) throws IOException {
+        mEngine.reset();
+        mStartedAt = -1;
+        mRebuffers = 0;
+        mRebufferingSince = -1;
+        mRebufferMs = 0;
+        mEndedAt = -1;
+        mError = 0;
+        mRequestedAt = mClock.now();
+        mEngine.setDataSource(url);
+        mEngine.prepareAsync();
+    }
+
+    public synchronized boolean isPlaying() {
+        return mStartedAt >= 0 && mEndedAt < 0;
+    }
+
+    public synchronized boolean isEnded() {
+        return mEndedAt >= 0;
+    }
+
+    // stop playback and return the measurements
+    public Result end() {
+        synchronized (this) {
+            long now = mClock.now();
+            if(mRebufferingSince >= 0) {
+                mRebufferMs += now - mRebufferingSince;
+                mRebufferingSince = -1;
+            }
+            if(mEndedAt < 0)
+                mEndedAt = now;
+        }
+        mEngine.reset();
+        synchronized (this) {
+            boolean started = mStartedAt >= 0;
+            return new Result(mEngine.getName(),
+                    started ? mStartedAt - mRequestedAt : -1,
+                    mRebuffers,
+                    mRebufferMs,
+                    started ? mEndedAt - mStartedAt : 0,
+                    started ? mCpuMeter.cpuTime() - mStartCpu : 0,
+                    mError);
+        }
+    }
+
+    @Override
+    public void onPrepared(PlaybackEngine engine) {
+        engine.start();
+        synchronized (this) {
+            mStartedAt = mClock.now();
+            mStartCpu = mCpuMeter.cpuTime();
+        }
+    }
+
+    @Override
+    public synchronized void onInfo(PlaybackEngine engine, int what, int extra) {
+        if(what == PlaybackEngine.INFO_BUFFERING_START && mRebufferingSince < 0 && mStartedAt >= 0) {
+            ++mRebuffers;
+            mRebufferingSince = mClock.now();
+        } else if(what == PlaybackEngine.INFO_BUFFERING_END && mRebufferingSince >= 0) {
+            mRebufferMs += mClock.now() - mRebufferingSince;
+            mRebufferingSince = -1;
+        }
+    }
+
+    @Override
+    public synchronized void onError(PlaybackEngine engine, int what, int extra) {
+        mError = what;
+        if(mEndedAt < 0)
+            mEndedAt = mClock.now();
+    }
+
+    @Override
+    public synchronized void onCompletion(PlaybackEngine engine) {
+        if(mEndedAt < 0)
+            mEndedAt = mClock.now();
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.example.radioplayer.engine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs EngineBenchmark over the fake engine on a manual clock: time to audio, rebuffers only
+ * counted once playing, cpu over the time played, and runs ended by an error or never started.
+ */
+public class EngineBenchmarkTest {
+
+    private static final String URL = "http://127.0.0.1:8000/stream";
+
+    private FakePlaybackEngine mEngine;
+    private long mNow;
+    private long mCpu;
+    private EngineBenchmark mBenchmark;
+
+    @Before
+    public void setUp() {
+        mEngine = new FakePlaybackEngine();
+        mNow = 1000;
+        mBenchmark = new EngineBenchmark(mEngine, new EngineBenchmark.Clock() {
+            @Override
+            public long now() {
+                return mNow;
+            }
+        }, new EngineBenchmark.CpuMeter() {
+            @Override
+            public long cpuTime() {
+                return mCpu;
+            }
+        });
+    }
+
+    @Test
+    public void measuresTimeToAudioRebuffersAndCpu() throws Exception {
+        mBenchmark.begin(URL);
+        assertEquals(URL, mEngine.getUrl());
+        assertEquals(FakePlaybackEngine.STATE_PREPARING, mEngine.getState());
+
+        mNow += 350;
+        mEngine.prepared();
+        assertTrue(mEngine.isPlaying());
+        assertTrue(mBenchmark.isPlaying());
+
+        // two rebuffers of 2s & 1s in two minutes, a repeated start isn't another
+        mNow += 30000;
+        mEngine.info(PlaybackEngine.INFO_BUFFERING_START);
+        mNow += 1000;
+        mEngine.info(PlaybackEngine.INFO_BUFFERING_START);
+        mNow += 1000;
+        mEngine.info(PlaybackEngine.INFO_BUFFERING_END);
+        mNow += 60000;
+        mEngine.info(PlaybackEngine.INFO_BUFFERING_START);
+        mNow += 1000;
+        mEngine.info(PlaybackEngine.INFO_BUFFERING_END);
+        mNow += 27000;
+        mCpu = 6000;
+
+        EngineBenchmark.Result result = mBenchmark.end();
+        assertEquals("fake", result.engine);
+        assertEquals(350, result.timeToAudioMs);
+        assertEquals(2, result.rebuffers);
+        assertEquals(3000, result.rebufferMs);
+        assertEquals(120000, result.playingMs);
+        assertEquals(1f, result.getRebuffersPerMinute(), 0.001f);
+        assertEquals(5f, result.getCpuPercent(), 0.001f);
+        assertEquals(0, result.error);
+        assertEquals(FakePlaybackEngine.STATE_IDLE, mEngine.getState());
+        assertEquals(0, mEngine.getInvalidOperations());
+    }
+
+    @Test
+    public void rebufferingAtTheEnd_countsUpToTheEnd() throws Exception {
+        mBenchmark.begin(URL);
+        // buffering while preparing isn't a rebuffer
+        mEngine.info(PlaybackEngine.INFO_BUFFERING_START);
+        mEngine.prepared();
+        mNow += 10000;
+        mEngine.info(PlaybackEngine.INFO_BUFFERING_START);
+        mNow += 500;
+
+        EngineBenchmark.Result result = mBenchmark.end();
+        assertEquals(1, result.rebuffers);
+        assertEquals(500, result.rebufferMs);
+    }
+
+    @Test
+    public void error_endsTheRun() throws Exception {
+        mBenchmark.begin(URL);
+        mNow += 200;
+        mEngine.prepared();
+        mNow += 5000;
+        mEngine.error(PlaybackEngine.ERROR_IO);
+        assertTrue(mBenchmark.isEnded());
+        assertFalse(mBenchmark.isPlaying());
+        mNow += 5000;
+
+        EngineBenchmark.Result result = mBenchmark.end();
+        assertEquals(PlaybackEngine.ERROR_IO, result.error);
+        assertEquals(5000, result.playingMs);
+    }
+
+    @Test
+    public void neverStarted_hasNoTimeToAudio() throws Exception {
+        mBenchmark.begin(URL);
+        mNow += 10000;
+        mCpu = 500;
+
+        EngineBenchmark.Result result = mBenchmark.end();
+        assertEquals(-1, result.timeToAudioMs);
+        assertEquals(0, result.playingMs);
+        assertEquals(0, result.cpuMs);
+        assertEquals(0f, result.getRebuffersPerMinute(), 0f);
+    }
+
+    @Test
+    public void begin_resetsTheEngineFirst() throws Exception {
+        mBenchmark.begin(URL);
+        mEngine.prepared();
+        mBenchmark.begin(URL + "2");
+        assertEquals(URL + "2", mEngine.getUrl());
+        assertEquals(0, mEngine.getInvalidOperations());
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.example.radioplayer.engine;
+
+import java.io.IOException;
+
+/**
+ * Engine for jvm tests, keeping MediaPlayer's state rules without playing anything. Tests
+ * drive the asynchronous side, preparing, buffering, errors & the end of the stream, and the
+ * callbacks are made at once on the calling thread. A call in the wrong state moves it to the
+ * error state & reports ERROR_INVALID_OPERATION, as MediaPlayer does.
+ */
+public class FakePlaybackEngine implements PlaybackEngine {
+
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_INITIALIZED = 1;
+    public static final int STATE_PREPARING = 2;
+    public static final int STATE_PREPARED = 3;
+    public static final int STATE_STARTED = 4;
+    public static final int STATE_PAUSED = 5;
+    public static final int STATE_STOPPED = 6;
+    public static final int STATE_COMPLETED = 7;
+    public static final int STATE_ERROR = 8;
+    public static final int STATE_RELEASED = 9;
+
+    private Listener mListener;
+    private int mState = STATE_IDLE;
+    private String mUrl;
+    private long mPosition;
+    private int mInvalidOperations;
+
+    @Override
+    public String getName() {
+        return "fake";
+    }
+
+    @Override
+    public boolean holdsWakeLock() {
+        return false;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void setDataSource(String url) throws IOException {
+        if(mState != STATE_IDLE)
+            throw new IllegalStateException("setDataSource called in state " + mState);
+        mUrl = url;
+        mState = STATE_INITIALIZED;
+    }
+
+    @Override
+    public void prepareAsync() {
+        if(check(mState == STATE_INITIALIZED || mState == STATE_STOPPED))
+            mState = STATE_PREPARING;
+    }
+
+    @Override
+    public void start() {
+        if(check(mState == STATE_PREPARED || mState == STATE_STARTED || mState == STATE_PAUSED
+                || mState == STATE_COMPLETED))
+            mState = STATE_STARTED;
+    }
+
+    @Override
+    public void pause() {
+        if(check(mState == STATE_STARTED || mState == STATE_PAUSED))
+            mState = STATE_PAUSED;
+    }
+
+    @Override
+    public void stop() {
+        if(check(mState == STATE_PREPARED || mState == STATE_STARTED || mState == STATE_PAUSED
+                || mState == STATE_STOPPED || mState == STATE_COMPLETED))
+            mState = STATE_STOPPED;
+    }
+
+    @Override
+    public void reset() {
+        mState = STATE_IDLE;
+        mUrl = null;
+        mPosition = 0;
+    }
+
+    @Override
+    public void release() {
+        mState = STATE_RELEASED;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mState == STATE_STARTED;
+    }
+
+    @Override
+    public long getCurrentPosition() {
+        return mPosition;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public int getInvalidOperations() {
+        return mInvalidOperations;
+    }
+
+    // the stream is buffered, playback can start
+    public void prepared() {
+        if(mState != STATE_PREPARING)
+            throw new IllegalStateException("Not preparing, state " + mState);
+        mState = STATE_PREPARED;
+        mListener.onPrepared(this);
+    }
+
+    // audio played while started
+    public void play(long ms) {
+        if(mState == STATE_STARTED)
+            mPosition += ms;
+    }
+
+    public void info(int what) {
+        mListener.onInfo(this, what, 0);
+    }
+
+    public void error(int what) {
+        mState = STATE_ERROR;
+        mListener.onError(this, what, 0);
+    }
+
+    // the stream has ended
+    public void completed() {
+        mState = STATE_COMPLETED;
+        mListener.onCompletion(this);
+    }
+
+    private boolean check(boolean valid) {
+        if(valid)
+            return true;
+        ++mInvalidOperations;
+        error(ERROR_INVALID_OPERATION);
+        return false;
+    }
+
+}
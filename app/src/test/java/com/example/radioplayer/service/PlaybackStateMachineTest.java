@@ -0,0 +1,268 @@
+package com.example.radioplayer.service;
+
+import com.example.radioplayer.Benchmarks;
+import com.example.radioplayer.engine.FakePlaybackEngine;
+import com.example.radioplayer.engine.PlaybackEngine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.example.radioplayer.service.PlaybackStateMachine.*;
+import static org.junit.Assert.*;
+
+/**
+ * Drives PlaybackStateMachine through the cases behind past bugs, then through millions of
+ * random events with its actions carried out on a fake engine keeping MediaPlayer's state
+ * rules: no action may be invalid for the engine, and the session state must always match it.
+ * The throughput check only runs as a benchmark.
+ */
+public class PlaybackStateMachineTest {
+
+    private static final int EVENT_PLAY = 0;
+    private static final int EVENT_SKIP = 1;
+    private static final int EVENT_PREPARED = 2;
+    private static final int EVENT_FOCUS_REFUSED = 3;
+    private static final int EVENT_PAUSE = 4;
+    private static final int EVENT_STOP = 5;
+    private static final int EVENT_FOCUS_LOSS = 6;
+    private static final int EVENT_NOISY = 7;
+    private static final int EVENT_ERROR = 8;
+    private static final int EVENT_STALL = 9;
+    private static final int EVENT_RECONNECT = 10;
+    private static final int EVENT_COUNT = 11;
+
+    private static final int RANDOM_TRANSITIONS = 2000000;
+    private static final int WARM_UP = 1000000;
+    private static final int TIMED_TRANSITIONS = 10000000;
+    private static final long MIN_TRANSITIONS_PER_SECOND = 1000000;
+
+    private PlaybackStateMachine mMachine;
+    private FakePlaybackEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mMachine = new PlaybackStateMachine();
+        mEngine = new FakePlaybackEngine();
+        mEngine.setListener(new PlaybackEngine.Listener() {
+            @Override
+            public void onPrepared(PlaybackEngine engine) {}
+
+            @Override
+            public void onInfo(PlaybackEngine engine, int what, int extra) {}
+
+            @Override
+            public void onError(PlaybackEngine engine, int what, int extra) {}
+
+            @Override
+            public void onCompletion(PlaybackEngine engine) {}
+        });
+    }
+
+    @Test
+    public void stopWhileBuffering_resetsTheEngine() throws Exception {
+        apply(mMachine.play());
+        assertEquals(STATE_BUFFERING, mMachine.getState());
+        assertEquals(ACTION_RESET, mMachine.stop());
+        assertEquals(STATE_STOPPED, mMachine.getState());
+        mEngine.reset();
+        assertEquals(0, mEngine.getInvalidOperations());
+    }
+
+    @Test
+    public void pause_stopsWithoutTimeShift() throws Exception {
+        apply(mMachine.play());
+        apply(mMachine.prepared());
+        assertEquals(ACTION_STOP, mMachine.pause());
+        assertEquals(STATE_STOPPED, mMachine.getState());
+
+        mMachine.setTimeShifting(true);
+        assertEquals(ACTION_PREPARE, mMachine.play());
+        assertEquals(ACTION_START, mMachine.prepared());
+        assertEquals(ACTION_PAUSE, mMachine.pause());
+        assertEquals(STATE_PAUSED, mMachine.getState());
+        assertEquals(ACTION_START, mMachine.play());
+        assertEquals(STATE_PLAYING, mMachine.getState());
+    }
+
+    @Test
+    public void noisyWhileBuffering_stopsBeforeItsHeard() throws Exception {
+        mMachine.setTimeShifting(true);
+        mMachine.play();
+        assertEquals(ACTION_RESET, mMachine.noisy());
+        assertEquals(STATE_STOPPED, mMachine.getState());
+        assertEquals(ACTION_NONE, mMachine.noisy());
+    }
+
+    @Test
+    public void skip_fromAnyState() throws Exception {
+        assertEquals(ACTION_PREPARE, mMachine.skip());
+        assertEquals(ACTION_PREPARE, mMachine.skip());
+        mMachine.prepared();
+        assertEquals(ACTION_PREPARE, mMachine.skip());
+        assertEquals(STATE_BUFFERING, mMachine.getState());
+    }
+
+    @Test
+    public void staleEvents_areIgnored() throws Exception {
+        mMachine.play();
+        mMachine.stop();
+        assertEquals(ACTION_NONE, mMachine.prepared());
+        assertEquals(ACTION_NONE, mMachine.error());
+        assertEquals(ACTION_NONE, mMachine.stall());
+        assertEquals(ACTION_NONE, mMachine.reconnect());
+        assertEquals(STATE_STOPPED, mMachine.getState());
+    }
+
+    @Test
+    public void stallAndReconnect_keepBuffering() throws Exception {
+        mMachine.play();
+        mMachine.prepared();
+        assertEquals(ACTION_RESET, mMachine.stall());
+        assertEquals(STATE_BUFFERING, mMachine.getState());
+        assertEquals(ACTION_PREPARE, mMachine.reconnect());
+        assertEquals(ACTION_START, mMachine.prepared());
+        assertEquals(ACTION_RESET, mMachine.error());
+        assertEquals(STATE_NONE, mMachine.getState());
+    }
+
+    @Test
+    public void randomEvents_keepTheEngineValid() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_TRANSITIONS; i++) {
+            if((i & 0xffff) == 0)
+                mMachine.setTimeShifting(random.nextBoolean());
+            int before = mMachine.getState();
+            int event = random.nextInt(EVENT_COUNT);
+            if(!isDeliverable(event))
+                continue;
+            int action = send(event);
+            if(action == ACTION_NONE)
+                assertEquals("event " + event + " ignored", before, mMachine.getState());
+            apply(action);
+            if(mEngine.getInvalidOperations() != 0)
+                fail("event " + event + " in state " + before + " made an invalid engine call");
+            assertConsistent();
+        }
+    }
+
+    @Test
+    public void throughput_millionsOfTransitionsPerSecond() throws Exception {
+        Benchmarks.assumeEnabled();
+        int[] events = new int[1 << 16];
+        Random random = new Random(7);
+        for (int i = 0; i < events.length; i++) {
+            events[i] = random.nextInt(EVENT_COUNT);
+        }
+        mMachine.setTimeShifting(true);
+        run(events, WARM_UP);
+        long start = System.nanoTime();
+        int actions = run(events, TIMED_TRANSITIONS);
+        long nanos = System.nanoTime() - start;
+        long perSecond = TIMED_TRANSITIONS * 1000000000L / nanos;
+        Benchmarks.report("State machine: %,d transitions/s", perSecond);
+        assertTrue(actions > 0);
+        assertTrue(perSecond + " transitions/s", perSecond >= MIN_TRANSITIONS_PER_SECOND);
+    }
+
+    private int run(int[] events, int count) {
+        int actions = 0;
+        for (int i = 0; i < count; i++) {
+            actions += send(events[i & (events.length - 1)]);
+        }
+        return actions;
+    }
+
+    // engine events only happen where the engine is in a state to raise them
+    private boolean isDeliverable(int event) {
+        int state = mEngine.getState();
+        switch (event) {
+            case EVENT_PREPARED:
+            case EVENT_FOCUS_REFUSED:
+                return state == FakePlaybackEngine.STATE_PREPARING;
+            case EVENT_ERROR:
+            case EVENT_STALL:
+                return state == FakePlaybackEngine.STATE_PREPARING || state == FakePlaybackEngine.STATE_STARTED
+                        || state == FakePlaybackEngine.STATE_PAUSED;
+        }
+        return true;
+    }
+
+    // as the service does, with the engine's side of its own events
+    private int send(int event) {
+        switch (event) {
+            case EVENT_PLAY:
+                return mMachine.play();
+            case EVENT_SKIP:
+                return mMachine.skip();
+            case EVENT_PREPARED:
+                if(mEngine.getState() == FakePlaybackEngine.STATE_PREPARING)
+                    mEngine.prepared();
+                return mMachine.prepared();
+            case EVENT_FOCUS_REFUSED:
+                if(mEngine.getState() == FakePlaybackEngine.STATE_PREPARING)
+                    mEngine.prepared();
+                return mMachine.focusLoss();
+            case EVENT_PAUSE:
+                return mMachine.pause();
+            case EVENT_STOP:
+                return mMachine.stop();
+            case EVENT_FOCUS_LOSS:
+                return mMachine.focusLoss();
+            case EVENT_NOISY:
+                return mMachine.noisy();
+            case EVENT_ERROR:
+                if(mEngine.getState() != FakePlaybackEngine.STATE_IDLE)
+                    mEngine.error(PlaybackEngine.ERROR_IO);
+                return mMachine.error();
+            case EVENT_STALL:
+                return mMachine.stall();
+            case EVENT_RECONNECT:
+                return mMachine.reconnect();
+        }
+        throw new IllegalArgumentException("Unknown event " + event);
+    }
+
+    private void apply(int action) throws Exception {
+        switch (action) {
+            case ACTION_PREPARE:
+                mEngine.reset();
+                mEngine.setDataSource("http://127.0.0.1/stream");
+                mEngine.prepareAsync();
+                break;
+            case ACTION_START:
+                mEngine.start();
+                break;
+            case ACTION_PAUSE:
+                mEngine.pause();
+                break;
+            case ACTION_STOP:
+                mEngine.stop();
+                break;
+            case ACTION_RESET:
+                mEngine.reset();
+                break;
+        }
+    }
+
+    private void assertConsistent() {
+        int engine = mEngine.getState();
+        switch (mMachine.getState()) {
+            case STATE_PLAYING:
+                assertEquals(FakePlaybackEngine.STATE_STARTED, engine);
+                break;
+            case STATE_PAUSED:
+                assertEquals(FakePlaybackEngine.STATE_PAUSED, engine);
+                break;
+            case STATE_BUFFERING:
+                assertTrue("buffering, engine " + engine,
+                        engine == FakePlaybackEngine.STATE_PREPARING || engine == FakePlaybackEngine.STATE_IDLE);
+                break;
+            default:
+                assertTrue("stopped, engine " + engine,
+                        engine == FakePlaybackEngine.STATE_IDLE || engine == FakePlaybackEngine.STATE_STOPPED);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.example.radioplayer.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds an ICY stream through IcyMetadataReader in chunks which split the metadata blocks
+ * and checks the audio comes out intact and each title is reported once.
+ */
+public class IcyMetadataReaderTest {
+
+    private static final int META_INT = 100;
+
+    @Test
+    public void read_separatesAudioAndTitlesAcrossChunks() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ByteArrayOutputStream expectedAudio = new ByteArrayOutputStream();
+        String[] blocks = {"StreamTitle='Artist - One';StreamUrl='';", "", "StreamTitle='Artist - One';StreamUrl='';",
+                "StreamTitle='\u00c4rtist - Two';", ""};
+        int value = 0;
+        for (String block : blocks) {
+            for (int i = 0; i < META_INT; i++) {
+                stream.write(value);
+                expectedAudio.write(value++);
+            }
+            writeBlock(stream, block);
+        }
+
+        final List<String> titles = new ArrayList<>();
+        IcyMetadataReader reader = new IcyMetadataReader(META_INT, new IcyMetadataReader.Listener() {
+            @Override
+            public void onStreamTitle(String title) {
+                titles.add(title);
+            }
+        });
+
+        // odd sized chunks so blocks & length bytes straddle them
+        byte[] bytes = stream.toByteArray();
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        ByteBuffer chunk = ByteBuffer.allocateDirect(37);
+        for (int offset = 0; offset < bytes.length; offset += chunk.capacity()) {
+            chunk.clear();
+            chunk.put(bytes, offset, Math.min(chunk.capacity(), bytes.length - offset));
+            chunk.flip();
+            int count;
+            while ((count = reader.read(chunk)) > 0) {
+                for (int i = 0; i < count; i++) {
+                    audio.write(chunk.get());
+                }
+            }
+        }
+
+        assertArrayEquals(expectedAudio.toByteArray(), audio.toByteArray());
+        assertEquals(2, titles.size());
+        assertEquals("Artist - One", titles.get(0));
+        assertEquals("\u00c4rtist - Two", titles.get(1));
+    }
+
+    @Test
+    public void parseTitle_handlesMissingAndUnterminatedTitles() throws Exception {
+        assertNull(IcyMetadataReader.parseTitle("StreamUrl='http://example.com';"));
+        assertEquals("It's Here", IcyMetadataReader.parseTitle("StreamTitle='It's Here';"));
+        assertEquals("No end", IcyMetadataReader.parseTitle("StreamTitle='No end'"));
+        assertEquals(0, IcyMetadataReader.parseMetaInt(null));
+        assertEquals(16000, IcyMetadataReader.parseMetaInt(" 16000"));
+    }
+
+    private static void writeBlock(ByteArrayOutputStream out, String text) throws Exception {
+        byte[] data = text.getBytes("UTF-8");
+        int blocks = (data.length + 15) / 16;
+        out.write(blocks);
+        out.write(data);
+        for (int i = data.length; i < blocks * 16; i++) {
+            out.write(0);
+        }
+    }
+
+}
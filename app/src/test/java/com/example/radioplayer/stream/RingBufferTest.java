@@ -0,0 +1,150 @@
+package com.example.radioplayer.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes & drains an overwriting ring as the proxy's upstream and player threads do, checking
+ * the oldest bytes are dropped when it's full but never the bytes being sent to the player.
+ */
+public class RingBufferTest {
+
+    private static final int CAPACITY = 4 * 1024;
+
+    @Test
+    public void overwrite_dropsTheOldestUnreadBytes() throws Exception {
+        RingBuffer ring = new RingBuffer(ByteBuffer.allocate(CAPACITY), true);
+        assertEquals(CAPACITY, ring.write(fill(CAPACITY, (byte) 1)));
+        assertEquals(CAPACITY / 2, ring.write(fill(CAPACITY / 2, (byte) 2)));
+        assertEquals(CAPACITY, ring.available());
+
+        CaptureChannel channel = new CaptureChannel(null);
+        ring.close();
+        while (ring.drainTo(channel) >= 0) {
+            // until drained
+        }
+        byte[] bytes = channel.toByteArray();
+        assertEquals(CAPACITY, bytes.length);
+        assertEquals(1, bytes[0]);
+        assertEquals(1, bytes[CAPACITY / 2 - 1]);
+        assertEquals(2, bytes[CAPACITY / 2]);
+        assertEquals(2, bytes[CAPACITY - 1]);
+    }
+
+    @Test
+    public void overwrite_waitsForTheBytesBeingDrained() throws Exception {
+        final RingBuffer ring = new RingBuffer(ByteBuffer.allocate(CAPACITY), true);
+        ring.write(fill(CAPACITY, (byte) 1));
+
+        // the player is slow to take what it's handed, upstream laps the ring meanwhile
+        final CountDownLatch release = new CountDownLatch(1);
+        CaptureChannel channel = new CaptureChannel(release);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteBuffer lap = fill(2 * CAPACITY, (byte) 2);
+                    while (lap.hasRemaining()) {
+                        ring.write(lap);
+                    }
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }
+        });
+        Thread reader = new Thread(new Drain(ring, channel));
+        reader.start();
+        channel.mEntered.await();
+        writer.start();
+        while (writer.getState() != Thread.State.WAITING && writer.getState() != Thread.State.TERMINATED) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, writer.getState());
+
+        release.countDown();
+        writer.join();
+        reader.join();
+        byte[] sent = new byte[CAPACITY];
+        Arrays.fill(sent, (byte) 1);
+        assertArrayEquals(sent, channel.toByteArray());
+        // everything after the drained bytes was overwritten
+        assertEquals(CAPACITY, ring.available());
+    }
+
+    private static ByteBuffer fill(int count, byte value) {
+        byte[] bytes = new byte[count];
+        Arrays.fill(bytes, value);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static final class Drain implements Runnable {
+
+        private final RingBuffer mRing;
+        private final WritableByteChannel mChannel;
+
+        Drain(RingBuffer ring, WritableByteChannel channel) {
+            mRing = ring;
+            mChannel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mRing.drainTo(mChannel);
+            } catch (IOException | InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    // copies what it's handed, once released where it holds on to it
+    private static final class CaptureChannel implements WritableByteChannel {
+
+        final CountDownLatch mEntered = new CountDownLatch(1);
+        private final CountDownLatch mRelease;
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+
+        CaptureChannel(CountDownLatch release) {
+            mRelease = release;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            mEntered.countDown();
+            if(mRelease != null) {
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            int count = src.remaining();
+            byte[] bytes = new byte[count];
+            src.get(bytes);
+            mBytes.write(bytes, 0, count);
+            return count;
+        }
+
+        synchronized byte[] toByteArray() {
+            return mBytes.toByteArray();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
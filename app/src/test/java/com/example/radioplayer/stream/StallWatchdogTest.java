@@ -0,0 +1,67 @@
+package com.example.radioplayer.stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Walks StallWatchdog through a stall, its reconnects and failovers with their backoff, a
+ * recovery and giving up.
+ */
+public class StallWatchdogTest {
+
+    private StallWatchdog mWatchdog;
+
+    @Before
+    public void setUp() {
+        mWatchdog = new StallWatchdog();
+        mWatchdog.watch(0);
+    }
+
+    @Test
+    public void isStalled_onlyWithoutProgressForTheTimeout() {
+        long timeout = StallWatchdog.STALL_TIMEOUT_MS;
+        assertFalse(mWatchdog.isStalled(100, 1000));
+        assertFalse(mWatchdog.isStalled(200, 2000));
+        assertFalse(mWatchdog.isStalled(200, 2000 + timeout - 1));
+        assertTrue(mWatchdog.isStalled(200, 2000 + timeout));
+
+        // not while stopped, e.g. paused
+        mWatchdog.stop();
+        assertFalse(mWatchdog.isStalled(200, 2000 + 2 * timeout));
+    }
+
+    @Test
+    public void onFailure_alternatesReconnectAndFailoverWithBackoff() {
+        assertEquals(StallWatchdog.ACTION_RECONNECT, mWatchdog.onFailure(1000));
+        assertEquals(0, mWatchdog.getBackoff());
+        assertTrue(mWatchdog.isRecovering());
+        assertEquals(StallWatchdog.ACTION_FAILOVER, mWatchdog.onFailure(2000));
+        long first = mWatchdog.getBackoff();
+        assertTrue(first > 0);
+        assertEquals(StallWatchdog.ACTION_RECONNECT, mWatchdog.onFailure(3000));
+        assertEquals(2 * first, mWatchdog.getBackoff());
+
+        // recovery time runs from the first failure
+        assertEquals(4000, mWatchdog.onPlaying(5000));
+        assertFalse(mWatchdog.isRecovering());
+        assertEquals(-1, mWatchdog.onPlaying(6000));
+
+        // a later stall starts afresh
+        assertEquals(StallWatchdog.ACTION_RECONNECT, mWatchdog.onFailure(7000));
+        assertEquals(0, mWatchdog.getBackoff());
+    }
+
+    @Test
+    public void onFailure_givesUpAfterMaxAttempts() {
+        for (int i = 0; i < StallWatchdog.MAX_ATTEMPTS; i++) {
+            assertNotEquals(StallWatchdog.ACTION_GIVE_UP, mWatchdog.onFailure(i * 1000));
+            assertTrue(mWatchdog.getBackoff() <= 8000);
+        }
+        assertEquals(StallWatchdog.ACTION_GIVE_UP, mWatchdog.onFailure(60 * 1000));
+        assertFalse(mWatchdog.isWatching());
+        assertFalse(mWatchdog.isRecovering());
+    }
+
+}
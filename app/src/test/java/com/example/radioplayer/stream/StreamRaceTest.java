@@ -0,0 +1,169 @@
+package com.example.radioplayer.stream;
+
+import com.squareup.okhttp.OkHttpClient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Races local servers standing in for a station's streams: one which accepts but never
+ * responds, like a dead host, one serving a playlist and one serving audio.
+ */
+public class StreamRaceTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final long STAGGER_MS = 200;
+    private static final long DEADLINE_MS = 3000;
+
+    private final List<ServerSocket> mServers = new ArrayList<>();
+    private final List<Socket> mSockets = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (Socket socket : mSockets) {
+            socket.close();
+        }
+        for (ServerSocket server : mServers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void isAudio_sniffsContentTypeAndFrameSync() {
+        assertTrue(StreamRace.isAudio("audio/mpeg", wrap(new byte[] {(byte) 0xff, (byte) 0xfb, 0x10})));
+        assertTrue(StreamRace.isAudio("application/octet-stream", wrap(new byte[] {0, 0, (byte) 0xff, (byte) 0xf1})));
+        assertTrue(StreamRace.isAudio("application/octet-stream", wrap("OggS\0\2".getBytes(ASCII))));
+        assertTrue(StreamRace.isAudio("application/octet-stream", wrap("ID3\4\0".getBytes(ASCII))));
+        assertFalse(StreamRace.isAudio("audio/mpeg", wrap("<html>".getBytes(ASCII))));
+        assertFalse(StreamRace.isAudio("audio/x-scpls", wrap("[playlist]".getBytes(ASCII))));
+        assertFalse(StreamRace.isAudio("audio/mpeg", wrap("#EXTM3U".getBytes(ASCII))));
+        assertFalse(StreamRace.isAudio("text/html", wrap(new byte[] {(byte) 0xff, (byte) 0xfb})));
+        assertFalse(StreamRace.isAudio("application/octet-stream", wrap(new byte[] {1, 2, 3})));
+        assertFalse(StreamRace.isAudio("audio/mpeg", wrap(new byte[0])));
+    }
+
+    @Test
+    public void run_commitsToFirstAudioPastDeadAndInvalidStreams() throws Exception {
+        String dead = serveSilence();
+        String playlist = serve("audio/x-scpls", "[playlist]\nFile1=http://example.com/\n".getBytes(ASCII));
+        byte[] audio = new byte[4096];
+        for (int i = 0; i < audio.length; i += 4) {
+            audio[i] = (byte) 0xff;
+            audio[i + 1] = (byte) 0xfb;
+        }
+        String live = serve("audio/mpeg", audio);
+
+        StreamRace race = new StreamRace(newClient(), newResolver(),
+                new String[] {dead, playlist, live}, new String[3], STAGGER_MS, DEADLINE_MS);
+        long start = System.currentTimeMillis();
+        StreamRace.Connection connection = race.run();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertNotNull(connection);
+        assertEquals(2, connection.mIndex);
+        assertEquals(live, connection.mUrl);
+        assertEquals("audio/mpeg", connection.mContentType);
+        assertTrue(connection.mFirstBytes.remaining() > 0);
+        assertEquals((byte) 0xff, connection.mFirstBytes.get(0));
+        // the playlist fails at once, so the live stream starts without a further stagger
+        assertTrue("took " + elapsed + "ms", elapsed < DEADLINE_MS);
+        connection.mChannel.close();
+    }
+
+    @Test
+    public void run_returnsNullAtDeadlineWhenNothingResponds() throws Exception {
+        StreamRace race = new StreamRace(newClient(), newResolver(),
+                new String[] {serveSilence(), serveSilence()}, new String[2], STAGGER_MS, 1000);
+        long start = System.currentTimeMillis();
+        assertNull(race.run());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("took " + elapsed + "ms", elapsed >= 1000 && elapsed < 2000);
+    }
+
+    private static StreamResolver newResolver() {
+        return new StreamResolver(newClient(), new StreamResolver.Clock() {
+            @Override
+            public long now() {
+                return System.currentTimeMillis();
+            }
+        });
+    }
+
+    private static OkHttpClient newClient() {
+        OkHttpClient client = new OkHttpClient();
+        client.setConnectTimeout(DEADLINE_MS, TimeUnit.MILLISECONDS);
+        client.setReadTimeout(DEADLINE_MS, TimeUnit.MILLISECONDS);
+        return client;
+    }
+
+    private static ByteBuffer wrap(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    // accepts connections & holds them open without a response
+    private String serveSilence() throws IOException {
+        final ServerSocket server = newServer();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        synchronized (mSockets) {
+                            mSockets.add(socket);
+                        }
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }).start();
+        return "http://127.0.0.1:" + server.getLocalPort() + "/";
+    }
+
+    private String serve(final String contentType, final byte[] body) throws IOException {
+        final ServerSocket server = newServer();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        OutputStream out = socket.getOutputStream();
+                        out.write(("HTTP/1.0 200 OK\r\nContent-Type: " + contentType
+                                + "\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes(ASCII));
+                        out.write(body);
+                        out.flush();
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }).start();
+        return "http://127.0.0.1:" + server.getLocalPort() + "/";
+    }
+
+    private ServerSocket newServer() throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mServers.add(server);
+        return server;
+    }
+
+}
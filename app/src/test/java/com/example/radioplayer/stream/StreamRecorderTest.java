@@ -0,0 +1,105 @@
+package com.example.radioplayer.stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tees chunks through StreamRecorder as the proxy's upstream does and checks the parts
+ * written, and that recording adds no allocation per chunk.
+ */
+public class StreamRecorderTest {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int CHUNKS = 2000;
+
+    private File mDirectory;
+    private ByteBuffer mChunk;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("recorder", "");
+        assertTrue(mDirectory.delete());
+        mChunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            mChunk.put((byte) i);
+        }
+        mChunk.flip();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if(files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void getExtension_namesContainerByContentType() throws Exception {
+        assertEquals("mp3", StreamRecorder.getExtension("audio/mpeg"));
+        assertEquals("mp3", StreamRecorder.getExtension(null));
+        assertEquals("aac", StreamRecorder.getExtension("audio/aacp"));
+        assertEquals("ogg", StreamRecorder.getExtension("application/ogg; charset=binary"));
+        assertEquals("m4a", StreamRecorder.getExtension("AUDIO/MP4"));
+    }
+
+    @Test
+    public void write_splitsBySizeAndLeavesBufferPosition() throws Exception {
+        StreamRecorder recorder = new StreamRecorder(mDirectory, 60 * 60 * 1000, 3 * CHUNK_SIZE);
+        recorder.start("Radio One/FM", "audio/aacp");
+        for (int i = 0; i < 7; i++) {
+            recorder.write(mChunk);
+            assertEquals(0, mChunk.position());
+        }
+        recorder.stop();
+        assertFalse(recorder.isRecording());
+
+        File[] files = mDirectory.listFiles();
+        assertNotNull(files);
+        assertEquals(3, files.length);
+        long total = 0;
+        for (File file : files) {
+            assertTrue(file.getName(), file.getName().startsWith("Radio_One_FM_"));
+            assertTrue(file.getName(), file.getName().endsWith(".aac"));
+            assertTrue(file.length() <= 3 * CHUNK_SIZE);
+            total += file.length();
+        }
+        assertEquals(7 * CHUNK_SIZE, total);
+    }
+
+    @Test
+    public void write_doesNotAllocatePerChunk() throws Exception {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        StreamRecorder recorder = new StreamRecorder(mDirectory);
+        recorder.start("station", "audio/mpeg");
+
+        // warm up so the write path is compiled before measuring
+        writeChunks(recorder, CHUNKS);
+
+        long before = bean.getThreadAllocatedBytes(threadId);
+        writeChunks(recorder, CHUNKS);
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        recorder.stop();
+
+        assertTrue("Recording allocated " + allocated + " bytes for " + CHUNKS + " chunks", allocated < CHUNKS);
+    }
+
+    private void writeChunks(StreamRecorder recorder, int chunks) {
+        for (int i = 0; i < chunks; i++) {
+            recorder.write(mChunk);
+        }
+    }
+
+}
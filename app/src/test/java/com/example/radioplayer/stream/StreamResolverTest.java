@@ -0,0 +1,176 @@
+package com.example.radioplayer.stream;
+
+import com.squareup.okhttp.OkHttpClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Resolves playlists served by a local server, checking both successes and failures are
+ * cached so a repeat play makes no requests, until they expire on a fake clock.
+ */
+public class StreamResolverTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String ENDPOINT = "http://stream.example.com:8000/live";
+
+    private ServerSocket mServer;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private long mNow = 1000;
+    private StreamResolver mResolver;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        respond(mServer.accept());
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }).start();
+        mResolver = new StreamResolver(new OkHttpClient(), new StreamResolver.Clock() {
+            @Override
+            public long now() {
+                return mNow;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void parsePlaylist_readsFirstStreamOfPlsAndM3u() {
+        assertEquals(ENDPOINT, StreamResolver.parsePlaylist(
+                "[playlist]\r\nNumberOfEntries=2\r\nFile1=" + ENDPOINT + "\r\nTitle1=Live\r\nFile2=http://b/\r\n"));
+        assertEquals(ENDPOINT, StreamResolver.parsePlaylist("#EXTM3U\n#EXTINF:-1,Live\n" + ENDPOINT + "\n"));
+        assertNull(StreamResolver.parsePlaylist("#EXTM3U\n#EXT-X-TARGETDURATION:10\nchunk.ts\n"));
+        assertNull(StreamResolver.parsePlaylist("<html>not found</html>"));
+    }
+
+    @Test
+    public void isPlaylist_matchesExtensionIgnoringQuery() {
+        assertTrue(StreamResolver.isPlaylist("http://a/listen.pls", null));
+        assertTrue(StreamResolver.isPlaylist("http://a/LISTEN.M3U?sid=1", null));
+        assertTrue(StreamResolver.isPlaylist("http://a/hls.m3u8", null));
+        assertFalse(StreamResolver.isPlaylist("http://a/live.mp3", null));
+        assertFalse(StreamResolver.isPlaylist("http://a/live.mp3?type=.pls", "audio/mpeg"));
+    }
+
+    @Test
+    public void isPlaylist_matchesListedContentType() {
+        assertTrue(StreamResolver.isPlaylist("http://a/tunein", "audio/x-scpls"));
+        assertTrue(StreamResolver.isPlaylist("http://a/tunein", "audio/x-mpegurl"));
+        assertTrue(StreamResolver.isPlaylist("http://a/tunein", "application/vnd.apple.mpegURL"));
+        assertFalse(StreamResolver.isPlaylist("http://a/tunein", "audio/mpeg"));
+    }
+
+    @Test
+    public void resolve_expandsPlaylistsWithoutAnExtension() {
+        assertEquals(ENDPOINT, mResolver.resolve(url("/tunein"), "audio/x-scpls"));
+        assertEquals(1, mRequests.get());
+    }
+
+    @Test
+    public void resolve_cachesPlaylistEndpoint() {
+        String url = url("/listen.pls");
+        assertEquals(ENDPOINT, mResolver.resolve(url, null));
+        assertEquals(ENDPOINT, mResolver.resolve(url, null));
+        assertEquals(ENDPOINT, mResolver.getCached(url));
+        assertEquals(1, mRequests.get());
+    }
+
+    @Test
+    public void resolve_followsNestedPlaylists() {
+        assertEquals(ENDPOINT, mResolver.resolve(url("/nested.m3u"), null));
+        assertEquals(2, mRequests.get());
+    }
+
+    @Test
+    public void resolve_cachesFailures() {
+        String url = url("/missing.pls");
+        assertNull(mResolver.resolve(url, null));
+        assertNull(mResolver.resolve(url, null));
+        assertEquals(url, mResolver.getCached(url));
+        assertEquals(1, mRequests.get());
+
+        // retried once the failure expires
+        mNow += StreamResolver.FAILED_TTL_MS;
+        assertNull(mResolver.resolve(url, null));
+        assertEquals(2, mRequests.get());
+    }
+
+    @Test
+    public void resolve_usesRedirectsReportedWhileConnecting() {
+        String url = "http://a/live";
+        assertEquals(url, mResolver.resolve(url, null));
+        mResolver.onRedirected(url, ENDPOINT);
+        assertEquals(ENDPOINT, mResolver.resolve(url, null));
+        mResolver.invalidate(url);
+        assertEquals(url, mResolver.resolve(url, null));
+        assertEquals(0, mRequests.get());
+    }
+
+    @Test
+    public void restore_seedsThePlaylistEndpointUntilItExpires() {
+        String url = url("/listen.pls");
+        mResolver.restore(url, ENDPOINT, 60 * 1000);
+        assertEquals(ENDPOINT, mResolver.resolve(url, null));
+        assertEquals(0, mRequests.get());
+        mNow += 60 * 1000;
+        assertEquals(url, mResolver.getCached(url));
+
+        String expired = url("/nested.m3u");
+        mResolver.restore(expired, "http://old.example.com/live", 0);
+        assertEquals(ENDPOINT, mResolver.resolve(expired, null));
+        assertEquals(2, mRequests.get());
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + mServer.getLocalPort() + path;
+    }
+
+    private void respond(Socket socket) throws IOException {
+        mRequests.incrementAndGet();
+        InputStream in = socket.getInputStream();
+        StringBuilder request = new StringBuilder();
+        int b;
+        while (request.indexOf("\r\n\r\n") < 0 && (b = in.read()) >= 0) {
+            request.append((char) b);
+        }
+        String status = "200 OK";
+        String body = "";
+        if(request.indexOf("/listen.pls") >= 0 || request.indexOf("/tunein") >= 0)
+            body = "[playlist]\nFile1=" + ENDPOINT + "\n";
+        else if(request.indexOf("/nested.m3u") >= 0)
+            body = "#EXTM3U\n" + url("/listen.pls") + "\n";
+        else
+            status = "404 Not Found";
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.0 " + status + "\r\nContent-Length: " + body.length() + "\r\n\r\n" + body)
+                .getBytes(ASCII));
+        out.flush();
+        socket.close();
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.example.radioplayer.stream;
+
+import com.example.radioplayer.model.Station;
+import com.example.radioplayer.model.Stream;
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks StreamSelector's choice of variant at startup, with a bandwidth estimate, over
+ * sessions paced at the bitrate chosen and after repeated underruns.
+ */
+public class StreamSelectorTest {
+
+    private static final String JSON = "{\"id\":1,\"name\":\"Variants\",\"streams\":["
+            + "{\"stream\":\"http://example.com/320.mp3\",\"bitrate\":320,\"content_type\":\"audio/mpeg\",\"status\":1},"
+            + "{\"stream\":\"http://example.com/24.aac\",\"bitrate\":24,\"content_type\":\"audio/aacp\",\"status\":1},"
+            + "{\"stream\":\"http://example.com/64.aac\",\"bitrate\":64,\"content_type\":\"audio/aacp\",\"status\":1},"
+            + "{\"stream\":\"http://example.com/128.mp3\",\"bitrate\":128,\"content_type\":\"audio/mpeg\",\"status\":1},"
+            + "{\"stream\":\"http://example.com/down.mp3\",\"bitrate\":96,\"content_type\":\"audio/mpeg\",\"status\":-1},"
+            + "{\"stream\":\"http://example.com/list.pls\",\"bitrate\":192,\"content_type\":\"audio/x-scpls\",\"status\":1}"
+            + "]}";
+
+    private static final int LINK_KBPS = 1000;
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    private Station mStation;
+    private BandwidthMeter mMeter;
+    private StreamSelector mSelector;
+
+    @Before
+    public void setUp() throws Exception {
+        mStation = new Gson().fromJson(JSON, Station.class);
+        mMeter = new BandwidthMeter();
+        mSelector = new StreamSelector(mMeter);
+    }
+
+    @Test
+    public void select_isConservativeWithoutAnEstimate() throws Exception {
+        assertEquals(64, (int) mSelector.select(mStation, 0).getBitrate());
+    }
+
+    @Test
+    public void select_usesTheBandwidthEstimate() throws Exception {
+        // 1000kbps for 2s
+        backlog(250 * 1000, 2000L * 1000000L);
+        assertEquals(320, (int) mSelector.select(mStation, 0).getBitrate());
+
+        // the estimate falls quickly as the link degrades, 40kbps twice
+        backlog(10 * 1000, 2000L * 1000000L);
+        backlog(10 * 1000, 2000L * 1000000L);
+        Stream stream = mSelector.select(mStation, 0);
+        assertTrue(stream.getBitrate() < 320);
+        assertFalse(StreamSelector.isPlaylist(stream));
+    }
+
+    @Test
+    public void select_holdsTheBitrateOverSessionsPacedByIt() throws Exception {
+        // a 1000kbps link, the initial burst arrives at link speed then the stream at its bitrate
+        assertEquals(64, (int) play(60));
+        for (int session = 0; session < 5; session++) {
+            assertEquals(320, (int) play(60));
+        }
+    }
+
+    @Test
+    public void onUnderrun_switchesDownAfterRepeatedUnderruns() throws Exception {
+        backlog(250 * 1000, 2000L * 1000000L);
+        Stream playing = mSelector.select(mStation, 0);
+
+        assertNull(mSelector.onUnderrun(mStation, playing, 1000));
+        assertNull(mSelector.onUnderrun(mStation, playing, 2000));
+        Stream lower = mSelector.onUnderrun(mStation, playing, 3000);
+        assertNotNull(lower);
+        assertEquals(128, (int) lower.getBitrate());
+
+        // the cap holds for later choices until it expires
+        assertEquals(128, (int) mSelector.select(mStation, 4000).getBitrate());
+        assertEquals(320, (int) mSelector.select(mStation, 4000 + StreamSelector.CAP_EXPIRY_MS).getBitrate());
+    }
+
+    @Test
+    public void onUnderrun_ignoresUnderrunsSpreadOut() throws Exception {
+        Stream playing = mSelector.select(mStation, 0);
+        long window = StreamSelector.UNDERRUN_WINDOW_MS;
+        assertNull(mSelector.onUnderrun(mStation, playing, 0));
+        assertNull(mSelector.onUnderrun(mStation, playing, window));
+        assertNull(mSelector.onUnderrun(mStation, playing, 2 * window));
+    }
+
+    @Test
+    public void next_failsOverToLowerBitratesThenWraps() throws Exception {
+        Stream stream = mSelector.select(mStation, 0);
+        int[] expected = {24, 320, 128, 64};
+        for (int kbps : expected) {
+            stream = mSelector.next(mStation, stream);
+            assertEquals(kbps, (int) stream.getBitrate());
+        }
+    }
+
+    // the link clearing a backlog at the rate given
+    private void backlog(int bytes, long nanos) {
+        mMeter.onBacklog(bytes);
+        mMeter.onTransfer(bytes, nanos);
+    }
+
+    // plays the stream selected for a while, returning its bitrate
+    private int play(int seconds) {
+        int kbps = mSelector.select(mStation, 0).getBitrate();
+        mMeter.onConnected();
+        for (int i = 0; i < BandwidthMeter.INITIAL_BURST_BYTES; i += CHUNK_BYTES) {
+            mMeter.onTransfer(CHUNK_BYTES, CHUNK_BYTES * 8 * 1000000L / LINK_KBPS);
+        }
+        for (int i = 0; i < seconds; i++) {
+            mMeter.onTransfer(kbps * 1000 / 8, 1000L * 1000000L);
+        }
+        return kbps;
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.example.radioplayer.bus.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a typed subscriber table for every class declaring methods annotated with
+ * com.example.radioplayer.bus.Subscribe, e.g. for MainActivity:
+ *
+ * public final class MainActivity_EventSubscribers implements EventSubscribers<MainActivity> {
+ *     private static final Class<?>[] EVENT_TYPES = { OnClickEvent.class, MessageEvent.class };
+ *     private static final ThreadMode[] THREAD_MODES = { ThreadMode.MAIN, ThreadMode.MAIN };
+ *     public Class<?>[] getEventTypes() { return EVENT_TYPES; }
+ *     public ThreadMode[] getThreadModes() { return THREAD_MODES; }
+ *     public void dispatch(MainActivity target, int index, Object event) {
+ *         switch (index) {
+ *             case 0: target.getOnClickEvent((OnClickEvent) event); break;
+ *             case 1: target.getMessageEvent((MessageEvent) event); break;
+ *         }
+ *     }
+ * }
+ */
+public class SubscriberProcessor extends AbstractProcessor {
+
+    static final String SUBSCRIBE = "com.example.radioplayer.bus.Subscribe";
+    static final String EVENT_SUBSCRIBERS = "com.example.radioplayer.bus.EventSubscribers";
+    static final String THREAD_MODE = "com.example.radioplayer.bus.ThreadMode";
+    static final String DEFAULT_THREAD_MODE = "MAIN";
+    static final String TABLE_SUFFIX = "_EventSubscribers";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(SUBSCRIBE);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if(annotations.isEmpty())
+            return false;
+
+        // group the subscriber methods by their declaring class, keeping source order
+        Map<TypeElement, List<ExecutableElement>> subscribers = new LinkedHashMap<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if(!isValid(element))
+                    continue;
+                TypeElement owner = (TypeElement) element.getEnclosingElement();
+                List<ExecutableElement> methods = subscribers.get(owner);
+                if(methods == null) {
+                    methods = new ArrayList<>();
+                    subscribers.put(owner, methods);
+                }
+                methods.add((ExecutableElement) element);
+            }
+        }
+
+        for (Map.Entry<TypeElement, List<ExecutableElement>> entry : subscribers.entrySet()) {
+            try {
+                writeTable(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                error(entry.getKey(), "Unable to write subscriber table: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+
+    private boolean isValid(Element element) {
+        if(element.getKind() != ElementKind.METHOD) {
+            error(element, "@Subscribe can only be applied to methods");
+            return false;
+        }
+        ExecutableElement method = (ExecutableElement) element;
+        Set<Modifier> modifiers = method.getModifiers();
+        if(modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)) {
+            error(element, "@Subscribe methods must not be private or static");
+            return false;
+        }
+        if(method.getParameters().size() != 1) {
+            error(element, "@Subscribe methods must take exactly one event parameter");
+            return false;
+        }
+        TypeMirror type = method.getParameters().get(0).asType();
+        if(type.getKind() != TypeKind.DECLARED) {
+            error(element, "@Subscribe method parameter must be a class or interface");
+            return false;
+        }
+        TypeElement owner = (TypeElement) method.getEnclosingElement();
+        if(owner.getModifiers().contains(Modifier.PRIVATE)) {
+            error(element, "@Subscribe methods must not be declared in a private class");
+            return false;
+        }
+        return true;
+    }
+
+
+    private void writeTable(TypeElement owner, List<ExecutableElement> methods) throws IOException {
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+
+        String packageName = elements.getPackageOf(owner).getQualifiedName().toString();
+        String ownerName = types.erasure(owner.asType()).toString();
+        String tableName = binarySimpleName(owner, elements) + TABLE_SUFFIX;
+
+        StringBuilder eventTypes = new StringBuilder();
+        StringBuilder threadModes = new StringBuilder();
+        StringBuilder cases = new StringBuilder();
+        for (int i = 0; i < methods.size(); i++) {
+            ExecutableElement method = methods.get(i);
+            VariableElement parameter = method.getParameters().get(0);
+            String eventName = types.erasure(parameter.asType()).toString();
+
+            eventTypes.append(i == 0 ? "" : ", ").append(eventName).append(".class");
+            threadModes.append(i == 0 ? "" : ", ").append(THREAD_MODE).append('.').append(threadMode(method));
+            cases.append("            case ").append(i).append(":\n")
+                    .append("                target.").append(method.getSimpleName())
+                    .append("((").append(eventName).append(") event);\n")
+                    .append("                break;\n");
+        }
+
+        JavaFileObject file = processingEnv.getFiler()
+                .createSourceFile(packageName.isEmpty() ? tableName : packageName + "." + tableName, owner);
+        Writer writer = file.openWriter();
+        try {
+            if(!packageName.isEmpty())
+                writer.write("package " + packageName + ";\n\n");
+            writer.write("// Generated by SubscriberProcessor, do not edit\n");
+            writer.write("public final class " + tableName + " implements "
+                    + EVENT_SUBSCRIBERS + "<" + ownerName + "> {\n\n");
+            writer.write("    private static final Class<?>[] EVENT_TYPES = { " + eventTypes + " };\n");
+            writer.write("    private static final " + THREAD_MODE + "[] THREAD_MODES = { " + threadModes + " };\n\n");
+            writer.write("    @Override\n");
+            writer.write("    public Class<?>[] getEventTypes() {\n");
+            writer.write("        return EVENT_TYPES;\n");
+            writer.write("    }\n\n");
+            writer.write("    @Override\n");
+            writer.write("    public " + THREAD_MODE + "[] getThreadModes() {\n");
+            writer.write("        return THREAD_MODES;\n");
+            writer.write("    }\n\n");
+            writer.write("    @Override\n");
+            writer.write("    public void dispatch(" + ownerName + " target, int index, Object event) {\n");
+            writer.write("        switch (index) {\n");
+            writer.write(cases.toString());
+            writer.write("        }\n");
+            writer.write("    }\n");
+            writer.write("}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    // the threadMode set on the @Subscribe annotation, MAIN where not given
+    private static String threadMode(ExecutableElement method) {
+        for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+            if(!SUBSCRIBE.equals(annotation.getAnnotationType().toString()))
+                continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+                    : annotation.getElementValues().entrySet()) {
+                if(value.getKey().getSimpleName().contentEquals("threadMode"))
+                    return ((VariableElement) value.getValue().getValue()).getSimpleName().toString();
+            }
+        }
+        return DEFAULT_THREAD_MODE;
+    }
+
+    // Outer$Inner for nested classes, matching Class.getName() at runtime
+    private static String binarySimpleName(TypeElement type, Elements elements) {
+        String binaryName = elements.getBinaryName(type).toString();
+        PackageElement pkg = elements.getPackageOf(type);
+        return pkg.isUnnamed() ? binaryName : binaryName.substring(pkg.getQualifiedName().length() + 1);
+    }
+
+    private void error(Element element, String message) {
+        Messager messager = processingEnv.getMessager();
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+}